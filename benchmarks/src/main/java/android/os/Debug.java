@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * JVM stand-in for Android's Debug used by the benchmarks. No counters are
+ * available on the JVM.
+ *
+ * @author Daniel Thommes
+ */
+public final class Debug {
+
+	private Debug() {
+	}
+
+	public static void startAllocCounting() {
+	}
+
+	public static void stopAllocCounting() {
+	}
+
+	public static long threadCpuTimeNanos() {
+		return -1;
+	}
+
+	public static int getThreadAllocCount() {
+		return 0;
+	}
+
+	public static int getThreadAllocSize() {
+		return 0;
+	}
+
+	public static int getThreadGcInvocationCount() {
+		return 0;
+	}
+
+	public static long getNativeHeapAllocatedSize() {
+		return 0;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * JVM stand-in for Android's Xml used by the benchmarks, backed by kXML2 like
+ * Android's own serializer.
+ *
+ * @author Daniel Thommes
+ */
+public final class Xml {
+
+	private Xml() {
+	}
+
+	public static XmlSerializer newSerializer() {
+		return new KXmlSerializer();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost per test of dispatching the JUnit notifications through the
+ * {@link JunitTestRunner}'s listener to a {@link JunitTestRunner.ResultListener}.
+ * The tests are simulated by a runner firing the notifications only.
+ *
+ * @author Daniel Thommes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerDispatchBenchmark {
+
+	private static final int TESTS = 1000;
+
+	/**
+	 * Runner firing started/finished notifications for a number of tests
+	 * without running anything
+	 */
+	public static class NotifyingRunner extends Runner {
+
+		private final Description description = Description
+				.createSuiteDescription(NotifyingRunner.class);
+
+		public NotifyingRunner(int testCount) {
+			for (int i = 0; i < testCount; i++) {
+				description.addChild(Description.createTestDescription(
+						NotifyingRunner.class, "test" + i));
+			}
+		}
+
+		@Override
+		public Description getDescription() {
+			return description;
+		}
+
+		@Override
+		public void run(RunNotifier notifier) {
+			for (Description test : description.getChildren()) {
+				notifier.fireTestStarted(test);
+				notifier.fireTestFinished(test);
+			}
+		}
+	}
+
+	private TestPlan plan;
+
+	@Setup
+	public void setUp() {
+		plan = new TestPlan();
+		plan.add(new TestPlan.Entry(NotifyingRunner.class,
+				new NotifyingRunner(TESTS)));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TESTS)
+	public void dispatch(final Blackhole blackhole) {
+		new JunitTestRunner(new JunitTestRunner.ResultListener() {
+
+			public void testStarted(Description description) {
+				blackhole.consume(description);
+			}
+
+			public void testResult(JunitTestResult result) {
+				blackhole.consume(result);
+			}
+
+			public boolean isCancelled() {
+				return false;
+			}
+		}, 1).run(plan);
+	}
+}
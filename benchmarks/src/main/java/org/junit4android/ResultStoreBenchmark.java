@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the group and child lookups the ExpandableTestListAdapter does for
+ * binding its views, on a {@link TestResultStore} with 20 results per group.
+ *
+ * @author Daniel Thommes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultStoreBenchmark {
+
+	private static final int RESULTS_PER_GROUP = 20;
+	private static final int LOOKUPS = 1024;
+
+	@Param({ "100", "1000", "10000" })
+	public int groupCount;
+
+	private TestResultStore store;
+	private int[] groupPositions;
+	private int[] childPositions;
+
+	@Setup
+	public void setUp() {
+		store = new TestResultStore();
+		for (int group = 0; group < groupCount; group++) {
+			String className = "org.example.SyntheticTest" + group;
+			for (int child = 0; child < RESULTS_PER_GROUP; child++) {
+				// same format as Description.createTestDescription
+				Description description = Description
+						.createSuiteDescription("test" + child + "("
+								+ className + ")");
+				store.add(new JunitTestResult(description, groupCount
+						* RESULTS_PER_GROUP));
+			}
+		}
+		Random random = new Random(42);
+		groupPositions = new int[LOOKUPS];
+		childPositions = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			groupPositions[i] = random.nextInt(groupCount);
+			childPositions[i] = random.nextInt(RESULTS_PER_GROUP);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void bindGroupAndChild(Blackhole blackhole) {
+		for (int i = 0; i < LOOKUPS; i++) {
+			TestResultStore.Group group = store.getGroup(groupPositions[i]);
+			blackhole.consume(group.getName());
+			blackhole.consume(group.hasFailures());
+			blackhole.consume(store.getResult(groupPositions[i],
+					childPositions[i]));
+		}
+	}
+}
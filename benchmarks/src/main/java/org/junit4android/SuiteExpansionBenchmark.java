@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of expanding a JUnit3 suite (a class with a static suite method) into
+ * the {@link TestPlan} that is run, without the discovery cache.
+ *
+ * @author Daniel Thommes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuiteExpansionBenchmark {
+
+	public static class FirstTestCase extends TestCase {
+		public void test1() {
+		}
+
+		public void test2() {
+		}
+	}
+
+	public static class SecondTestCase extends TestCase {
+		public void test1() {
+		}
+	}
+
+	public static class ThirdTestCase extends TestCase {
+		public void test1() {
+		}
+
+		public void test2() {
+		}
+
+		public void test3() {
+		}
+	}
+
+	/**
+	 * JUnit3 suite of {@link #size} entries, named tests of a class and
+	 * whole test classes
+	 */
+	public static class Junit3Suite {
+
+		static int size;
+
+		public static Test suite() {
+			TestSuite suite = new TestSuite(Junit3Suite.class.getName());
+			for (int i = 0; i < size; i++) {
+				switch (i % 3) {
+				case 0:
+					suite.addTest(TestSuite.createTest(FirstTestCase.class,
+							"test1"));
+					break;
+				case 1:
+					suite.addTest(TestSuite.createTest(SecondTestCase.class,
+							"test1"));
+					break;
+				default:
+					suite.addTestSuite(ThirdTestCase.class);
+				}
+			}
+			return suite;
+		}
+	}
+
+	@Param({ "10", "100", "1000" })
+	public int suiteSize;
+
+	@Setup
+	public void setUp() {
+		Junit3Suite.size = suiteSize;
+	}
+
+	@Benchmark
+	public TestPlan expandSuite() {
+		return new TestDiscovery().discover(Junit3Suite.class, false);
+	}
+}
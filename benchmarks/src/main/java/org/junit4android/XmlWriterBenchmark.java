@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Xml;
+
+/**
+ * Throughput of {@link JunitXmlWriter} for synthetic results: 50 tests per
+ * class, every 10th test failing and every 20th ignored. The XML is written
+ * to a writer discarding it.
+ *
+ * @author Daniel Thommes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlWriterBenchmark {
+
+	private static final int TESTS_PER_CLASS = 50;
+
+	/**
+	 * Writer counting and discarding the characters written
+	 */
+	private static class CountingWriter extends Writer {
+
+		long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(int c) {
+			++count;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Param({ "1000", "10000", "100000" })
+	public int resultCount;
+
+	private Map<String, List<JunitTestResult>> testSuites;
+
+	@Setup
+	public void setUp() {
+		testSuites = new LinkedHashMap<String, List<JunitTestResult>>();
+		List<JunitTestResult> results = null;
+		for (int i = 0; i < resultCount; i++) {
+			if (i % TESTS_PER_CLASS == 0) {
+				results = new ArrayList<JunitTestResult>(TESTS_PER_CLASS);
+				testSuites.put("org.example.SyntheticTest" + i, results);
+			}
+			Description description = Description.createTestDescription(
+					XmlWriterBenchmark.class, "test" + i);
+			JunitTestResult result;
+			if (i % 20 == 19) {
+				result = new JunitTestResult(description, resultCount,
+						"ignored for the benchmark");
+			} else {
+				result = new JunitTestResult(description, resultCount);
+				if (i % 10 == 9) {
+					result.addFailure(new Failure(description,
+							new AssertionError("expected:<" + i
+									+ "> but was:<0>")));
+				}
+			}
+			result.finished = true;
+			result.durationNanos = (i % 100) * 1000000L + i * 1000L;
+			results.add(result);
+		}
+	}
+
+	@Benchmark
+	public long writeXml() throws IOException {
+		CountingWriter writer = new CountingWriter();
+		XmlSerializer serializer = Xml.newSerializer();
+		serializer.setOutput(writer);
+		serializer.startDocument("UTF-8", true);
+		serializer.startTag("", "testsuites");
+		for (Entry<String, List<JunitTestResult>> testSuite : testSuites
+				.entrySet()) {
+			JunitXmlWriter.writeTestSuite(serializer, testSuite.getKey(),
+					testSuite.getValue());
+		}
+		serializer.endTag("", "testsuites");
+		serializer.endDocument();
+		serializer.flush();
+		return writer.count;
+	}
+}
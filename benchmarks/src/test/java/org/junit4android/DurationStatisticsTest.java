@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+
+/**
+ * Tests of the {@link DurationStatistics}
+ *
+ * @author Daniel Thommes
+ */
+public class DurationStatisticsTest {
+
+	@Test
+	public void estimatesPercentilesWithinTheRelativeError() {
+		List<Long> durations = new ArrayList<Long>();
+		for (long duration = 1; duration <= 10000; duration++) {
+			durations.add(duration);
+		}
+		Collections.shuffle(durations, new Random(42));
+		DurationStatistics statistics = new DurationStatistics();
+		for (long duration : durations) {
+			statistics.add(createResult("Test", "test" + duration, duration));
+		}
+
+		assertEquals(10000, statistics.getCount());
+		assertEquals(10000 * 10001 / 2, statistics.getTotalDurationMicros());
+		assertEquals(10000, statistics.getMaxDurationMicros());
+		for (int percentile : new int[] { 1, 50, 90, 99, 100 }) {
+			long exact = percentile * 100;
+			long estimate = statistics.getPercentileMicros(percentile);
+			assertTrue("p" + percentile + " " + estimate, Math.abs(estimate
+					- exact) <= exact * DurationStatistics.RELATIVE_ERROR);
+		}
+	}
+
+	@Test
+	public void hasNoPercentilesWithoutDurations() {
+		assertEquals(0, new DurationStatistics().getPercentileMicros(50));
+	}
+
+	@Test
+	public void keepsTheSlowestTestsSlowestFirst() {
+		DurationStatistics statistics = new DurationStatistics();
+		for (int i = 0; i < 200; i++) {
+			statistics.add(createResult("Test", "test" + i, i % 100));
+		}
+
+		List<DurationStatistics.Entry> slowestTests = statistics
+				.getSlowestTests();
+		assertEquals(DurationStatistics.TOP_TEST_COUNT, slowestTests.size());
+		// equal durations ordered by name
+		assertEquals("test199", slowestTests.get(0).getMethodName());
+		assertEquals("test99", slowestTests.get(1).getMethodName());
+		for (int i = 0; i < slowestTests.size(); i++) {
+			assertEquals(99 - i / 2, slowestTests.get(i).getDurationMicros());
+		}
+	}
+
+	@Test
+	public void sumsTheDurationsOfTheTestClasses() {
+		DurationStatistics statistics = new DurationStatistics();
+		statistics.add(createResult("FastTest", "test1", 10));
+		statistics.add(createResult("FastTest", "test2", 20));
+		statistics.add(createResult("SlowTest", "test1", 500));
+		statistics.add(new JunitTestResult(createDescription("SlowTest",
+				"ignored"), 4, "not yet"));
+
+		// ignored tests only count for their class
+		assertEquals(3, statistics.getCount());
+		List<DurationStatistics.Entry> slowestClasses = statistics
+				.getSlowestClasses();
+		assertEquals(2, slowestClasses.size());
+		assertEquals("SlowTest", slowestClasses.get(0).getClassName());
+		assertNull(slowestClasses.get(0).getMethodName());
+		assertEquals(500, slowestClasses.get(0).getDurationMicros());
+		assertEquals(2, slowestClasses.get(0).getTestCount());
+		assertEquals("FastTest", slowestClasses.get(1).getClassName());
+		assertEquals(30, slowestClasses.get(1).getDurationMicros());
+	}
+
+	private static Description createDescription(String className,
+			String methodName) {
+		// same format as Description.createTestDescription
+		return Description.createSuiteDescription(methodName + "(" + className
+				+ ")");
+	}
+
+	private static JunitTestResult createResult(String className,
+			String methodName, long durationMicros) {
+		JunitTestResult result = new JunitTestResult(createDescription(
+				className, methodName), 1);
+		result.durationNanos = durationMicros * 1000;
+		result.finished = true;
+		return result;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * Tests of the {@link JunitTestRunner} with the test classes nested in this
+ * class
+ *
+ * @author Daniel Thommes
+ */
+public class JunitTestRunnerTest {
+
+	public static class SlowTest {
+
+		@Test
+		public void slow1() throws Exception {
+			Thread.sleep(100);
+		}
+
+		@Test
+		public void slow2() throws Exception {
+			Thread.sleep(100);
+		}
+	}
+
+	public static class FastTest {
+
+		@Test
+		public void fast1() {
+		}
+
+		@Test
+		public void fast2() {
+		}
+	}
+
+	public static class OtherFastTest {
+
+		@Test
+		public void fast() {
+		}
+	}
+
+	@RunWith(Suite.class)
+	@SuiteClasses({ SlowTest.class, FastTest.class, OtherFastTest.class })
+	public static class ParallelSuite {
+	}
+
+	public static class FailingTest {
+
+		@Test
+		public void fail1() {
+			fail();
+		}
+
+		@Test
+		public void fail2() {
+			fail();
+		}
+
+		@Test
+		public void fail3() {
+			fail();
+		}
+	}
+
+	@RunWith(Suite.class)
+	@SuiteClasses({ FailingTest.class, FastTest.class })
+	public static class FailingSuite {
+	}
+
+	public static class FlakyTest {
+
+		static int flakyRunCount;
+
+		@Test
+		public void flaky() {
+			assertTrue(++flakyRunCount > 1);
+		}
+
+		@Test
+		public void broken() {
+			fail();
+		}
+	}
+
+	@TestTimeout(200)
+	public static class HangingTest {
+
+		@Test
+		public void hang() {
+			// busy, so the interrupt is not noticed
+			long endTime = System.currentTimeMillis() + 1000;
+			while (System.currentTimeMillis() < endTime) {
+				Thread.yield();
+			}
+		}
+	}
+
+	@RunWith(Suite.class)
+	@SuiteClasses({ HangingTest.class, SlowTest.class })
+	public static class TimeoutSuite {
+	}
+
+	/**
+	 * {@link JunitTestRunner.ResultListener} collecting the results
+	 */
+	private static class Results implements JunitTestRunner.ResultListener {
+
+		final List<JunitTestResult> results = new ArrayList<JunitTestResult>();
+
+		public void testStarted(Description description) {
+		}
+
+		public synchronized void testResult(JunitTestResult result) {
+			results.add(result);
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		synchronized List<String> getClassNames() {
+			List<String> classNames = new ArrayList<String>();
+			for (JunitTestResult result : results) {
+				classNames.add(result.getDescription().getTestClass()
+						.getSimpleName());
+			}
+			return classNames;
+		}
+	}
+
+	@Test
+	public void parallelResultsAreReportedClassByClassInPlanOrder() {
+		Results results = new Results();
+		JunitTestRunner runner = new JunitTestRunner(results, 3);
+		runner.run(new TestDiscovery().discover(ParallelSuite.class, true));
+
+		// the fast classes finish first, but are reported after the slow one
+		List<String> expected = new ArrayList<String>();
+		expected.add("SlowTest");
+		expected.add("SlowTest");
+		expected.add("FastTest");
+		expected.add("FastTest");
+		expected.add("OtherFastTest");
+		assertEquals(expected, results.getClassNames());
+		for (JunitTestResult result : results.results) {
+			assertFalse(result.hasFailures());
+		}
+	}
+
+	@Test
+	public void testsAfterTheMaximumNumberOfFailuresAreNotRun() {
+		Results results = new Results();
+		JunitTestRunner runner = new JunitTestRunner(results, 1);
+		runner.setMaxFailures(2);
+		runner.run(new TestDiscovery().discover(FailingSuite.class, true));
+
+		assertTrue(runner.isMaxFailuresReached());
+		assertEquals(5, results.results.size());
+		int failedCount = 0;
+		for (JunitTestResult result : results.results) {
+			if (result.hasFailures()) {
+				++failedCount;
+			} else {
+				assertTrue(result.isIgnored());
+				assertEquals("Not run, the test run has been stopped after 2"
+						+ " failed tests", result.ignoreReason);
+			}
+		}
+		assertEquals(2, failedCount);
+	}
+
+	@Test
+	public void failedTestsAreRunAgain() {
+		FlakyTest.flakyRunCount = 0;
+		Results results = new Results();
+		JunitTestRunner runner = new JunitTestRunner(results, 1);
+		runner.setMaxRetries(2);
+		runner.run(FlakyTest.class);
+
+		assertEquals(2, results.results.size());
+		for (JunitTestResult result : results.results) {
+			if (result.getDescription().getMethodName().equals("flaky")) {
+				assertFalse(result.hasFailures());
+				assertTrue(result.isFlaky());
+				assertEquals(2, result.getAttemptCount());
+				assertTrue(result.getPreviousAttempts().get(0).hasFailures());
+			} else {
+				assertTrue(result.hasFailures());
+				assertFalse(result.isFlaky());
+				assertEquals(3, result.getAttemptCount());
+			}
+		}
+	}
+
+	@Test
+	public void watchdogFailsTestsExceedingTheirTimeout() {
+		Results results = new Results();
+		JunitTestRunner runner = new JunitTestRunner(results, 1);
+		// a single entry, so the tests are run by the same runner
+		runner.run(new TestDiscovery().discover(TimeoutSuite.class, false));
+
+		assertEquals(3, results.results.size());
+		JunitTestResult hung = results.results.get(0);
+		assertEquals("hang", hung.getDescription().getMethodName());
+		assertEquals(1, hung.getFailures().size());
+		assertEquals(TestTimeoutException.class.getName(),
+				RecordedFailure.getType(hung.getFailures().get(0)));
+		// the next tests on the same thread are not interrupted
+		assertFalse(results.results.get(1).hasFailures());
+		assertFalse(results.results.get(2).hasFailures());
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.w3c.dom.Element;
+
+/**
+ * Tests of the report files written by the {@link JunitXmlReporter}
+ *
+ * @author Daniel Thommes
+ */
+public class JunitXmlReporterTest {
+
+	private static final String FILE_NAME = "TEST-all.xml";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesTheSuitesOfTheTestClasses() throws Exception {
+		JunitXmlReporter reporter = new JunitXmlReporter(folder.getRoot(),
+				FILE_NAME, false, "", false, JunitXmlReporter.FORMAT_XML);
+		reporter.testResult(createResult("FooTest", "test1"));
+		reporter.testResult(createResult("FooTest", "test2"));
+		reporter.testResult(createResult("BarTest", "test"));
+		reporter.close();
+
+		Element testSuites = parseReport();
+		assertEquals(2, testSuites.getElementsByTagName("testsuite")
+				.getLength());
+		assertEquals(3, testSuites.getElementsByTagName("testcase")
+				.getLength());
+	}
+
+	@Test
+	public void replacesTheReportOfAnEarlierRunWithoutResults()
+			throws Exception {
+		OutputStream out = new FileOutputStream(new File(folder.getRoot(),
+				FILE_NAME));
+		out.write("<testsuites><testsuite name=\"Stale\"/></testsuites>"
+				.getBytes("UTF-8"));
+		out.close();
+
+		// e.g. an empty shard or a selection without tests
+		new JunitXmlReporter(folder.getRoot(), FILE_NAME, false, "", false,
+				JunitXmlReporter.FORMAT_XML).close();
+
+		Element testSuites = parseReport();
+		assertEquals("testsuites", testSuites.getTagName());
+		assertEquals(0, testSuites.getChildNodes().getLength());
+	}
+
+	@Test
+	public void writesAnEmptyBinaryFileWithoutResults() throws Exception {
+		new JunitXmlReporter(folder.getRoot(), FILE_NAME, false, "", false,
+				JunitXmlReporter.FORMAT_BINARY).close();
+
+		BinaryResultReader reader = new BinaryResultReader(
+				new FileInputStream(new File(folder.getRoot(),
+						JunitXmlReporter.getBinaryFileName(FILE_NAME))));
+		try {
+			assertEquals(BinaryResultReader.END, reader.next());
+		} finally {
+			reader.close();
+		}
+		assertFalse(new File(folder.getRoot(), FILE_NAME).exists());
+	}
+
+	private Element parseReport() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(new File(folder.getRoot(), FILE_NAME))
+				.getDocumentElement();
+	}
+
+	private static JunitTestResult createResult(String className,
+			String methodName) {
+		// same format as Description.createTestDescription
+		JunitTestResult result = new JunitTestResult(
+				Description.createSuiteDescription(methodName + "("
+						+ className + ")"), 3);
+		result.durationNanos = 1000;
+		result.finished = true;
+		return result;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Xml;
+
+/**
+ * Tests of the time attributes written by the {@link JunitXmlWriter}
+ *
+ * @author Daniel Thommes
+ */
+public class JunitXmlWriterTest {
+
+	@Test
+	public void formatsSecondsWithoutTrailingZeros() {
+		assertEquals("0.0", JunitXmlWriter.formatSeconds(0));
+		assertEquals("0.000001", JunitXmlWriter.formatSeconds(1));
+		assertEquals("0.000125", JunitXmlWriter.formatSeconds(125));
+		assertEquals("0.012", JunitXmlWriter.formatSeconds(12000));
+		assertEquals("2.5", JunitXmlWriter.formatSeconds(2500000));
+		assertEquals("61.0", JunitXmlWriter.formatSeconds(61000000));
+		assertEquals("3600.000001", JunitXmlWriter.formatSeconds(3600000001L));
+	}
+
+	@Test
+	public void writesTimesInMicrosecondPrecision() throws Exception {
+		List<JunitTestResult> testCases = new ArrayList<JunitTestResult>();
+		testCases.add(createResult("test1", 125400));
+		testCases.add(createResult("test2", 2000000000L));
+		XmlSerializer serializer = Xml.newSerializer();
+		StringWriter xml = new StringWriter();
+		serializer.setOutput(xml);
+		JunitXmlWriter.writeTestSuite(serializer, "Suite", testCases);
+		serializer.flush();
+
+		// the sum of the durations in ns, rounded down to µs
+		assertTrue(xml.toString(), xml.toString().contains(
+				"<testsuite failures=\"0\" time=\"2.000125\""));
+		assertTrue(xml.toString(), xml.toString().contains(
+				"<testcase time=\"0.000125\""));
+		assertTrue(xml.toString(), xml.toString().contains(
+				"<testcase time=\"2.0\""));
+	}
+
+	@Test
+	public void leavesOutAnUnsupportedCpuTime() throws Exception {
+		JunitTestResult result = createResult("test", 1000);
+		// the JVM stand-in of Debug has no CPU time
+		result.metrics = TestMetrics.start();
+		result.metrics.finish();
+		XmlSerializer serializer = Xml.newSerializer();
+		StringWriter xml = new StringWriter();
+		serializer.setOutput(xml);
+		JunitXmlWriter.writeTestCase(serializer, result);
+		serializer.flush();
+
+		assertFalse(xml.toString(), xml.toString().contains("cpuTime"));
+		assertTrue(xml.toString(), xml.toString().contains(
+				"<property name=\"gcCount\" value=\"0\" />"));
+	}
+
+	private static JunitTestResult createResult(String methodName,
+			long durationNanos) {
+		JunitTestResult result = new JunitTestResult(
+				Description.createTestDescription(JunitXmlWriterTest.class,
+						methodName), 2);
+		result.durationNanos = durationNanos;
+		result.finished = true;
+		return result;
+	}
+}
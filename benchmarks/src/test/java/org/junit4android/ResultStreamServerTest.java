@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+
+/**
+ * Tests of the {@link ResultStreamServer} with a client on a local socket
+ *
+ * @author Daniel Thommes
+ */
+public class ResultStreamServerTest {
+
+	private static final String CLASS_NAME = ResultStreamServerTest.class
+			.getName();
+
+	private int port;
+
+	@Before
+	public void setUp() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+	}
+
+	@Test
+	public void streamsTheEventsAsEscapedJson() throws Exception {
+		ResultStreamServer server = new ResultStreamServer(port);
+		// queued until the client connects
+		server.runStarted("com.example.\"All\"Tests", 2);
+		Description description = Description.createTestDescription(
+				ResultStreamServerTest.class, "test\u0001");
+		server.testStarted(description);
+		JunitTestResult result = new JunitTestResult(description, 2);
+		result.addFailure(new RecordedFailure(description,
+				"java.lang.AssertionError", "expected:<\"a\\b\">",
+				"at A.a(A.java:1)\n\tat B.b(B.java:2)\r", false));
+		result.durationNanos = 12345000;
+		result.overheadNanos = 80000;
+		result.finished = true;
+		server.testResult(result);
+		server.testResult(new JunitTestResult(Description
+				.createTestDescription(ResultStreamServerTest.class,
+						"ignored"), 2, "not über"));
+
+		Socket client = new Socket("127.0.0.1", port);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					client.getInputStream(), "UTF-8"));
+			assertEquals("{\"event\":\"runStarted\","
+					+ "\"name\":\"com.example.\\\"All\\\"Tests\","
+					+ "\"testCount\":2}", reader.readLine());
+			assertEquals("{\"event\":\"testStarted\",\"className\":\""
+					+ CLASS_NAME + "\",\"methodName\":\"test\\u0001\"}",
+					reader.readLine());
+			// the client has been accepted, so the events are sent
+			server.close(true);
+			assertEquals("{\"event\":\"testFailure\",\"className\":\""
+					+ CLASS_NAME + "\",\"methodName\":\"test\\u0001\","
+					+ "\"type\":\"java.lang.AssertionError\","
+					+ "\"message\":\"expected:<\\\"a\\\\b\\\">\","
+					+ "\"trace\":\"at A.a(A.java:1)\\n"
+					+ "\\tat B.b(B.java:2)\\r\","
+					+ "\"error\":false,\"previousAttempt\":false}",
+					reader.readLine());
+			assertEquals("{\"event\":\"testFinished\",\"className\":\""
+					+ CLASS_NAME + "\",\"methodName\":\"test\\u0001\","
+					+ "\"durationMs\":12,\"durationUs\":12345,"
+					+ "\"overheadUs\":80,\"flaky\":false}", reader.readLine());
+			assertEquals("{\"event\":\"testIgnored\",\"className\":\""
+					+ CLASS_NAME + "\",\"methodName\":\"ignored\","
+					+ "\"reason\":\"not über\"}", reader.readLine());
+			assertEquals("{\"event\":\"runFinished\",\"complete\":true}",
+					reader.readLine());
+			assertNull(reader.readLine());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void reportsTheNumberOfDroppedEvents() throws Exception {
+		ResultStreamServer server = new ResultStreamServer(port);
+		Description description = Description.createTestDescription(
+				ResultStreamServerTest.class, "test");
+		for (int i = 0; i < ResultStreamServer.MAX_PENDING_EVENTS + 3; i++) {
+			server.testStarted(description);
+		}
+
+		Socket client = new Socket("127.0.0.1", port);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					client.getInputStream(), "UTF-8"));
+			assertEquals("{\"event\":\"eventsDropped\",\"count\":3}",
+					reader.readLine());
+			for (int i = 0; i < ResultStreamServer.MAX_PENDING_EVENTS; i++) {
+				assertTrue(reader.readLine().startsWith(
+						"{\"event\":\"testStarted\""));
+			}
+			server.close(false);
+			assertEquals("{\"event\":\"runFinished\",\"complete\":false}",
+					reader.readLine());
+			assertNull(reader.readLine());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void closesRightAwayWithoutClient() throws Exception {
+		ResultStreamServer server = new ResultStreamServer(port);
+		server.runStarted("AllTests", 1);
+		long startTime = System.currentTimeMillis();
+		server.close(true);
+
+		assertTrue(System.currentTimeMillis() - startTime < 1000);
+		try {
+			new Socket("127.0.0.1", port).close();
+			fail("The port is still open");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
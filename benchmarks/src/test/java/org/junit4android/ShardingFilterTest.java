@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+
+/**
+ * Tests of the {@link ShardingFilter}
+ *
+ * @author Daniel Thommes
+ */
+public class ShardingFilterTest {
+
+	private static final int NUM_SHARDS = 3;
+
+	@Test
+	public void everyTestBelongsToExactlyOneShard() {
+		ShardingFilter[] shards = new ShardingFilter[NUM_SHARDS];
+		for (int i = 0; i < NUM_SHARDS; i++) {
+			shards[i] = new ShardingFilter(i, NUM_SHARDS);
+		}
+		int[] shardSizes = new int[NUM_SHARDS];
+		for (int i = 0; i < 300; i++) {
+			Description test = Description.createTestDescription(
+					ShardingFilterTest.class, "test" + i);
+			int matchingShards = 0;
+			for (int shard = 0; shard < NUM_SHARDS; shard++) {
+				if (shards[shard].shouldRun(test)) {
+					++matchingShards;
+					++shardSizes[shard];
+				}
+			}
+			assertEquals(test.toString(), 1, matchingShards);
+			// the same on every run
+			assertEquals(shards[0].shouldRun(test), new ShardingFilter(0,
+					NUM_SHARDS).shouldRun(test));
+		}
+		for (int shardSize : shardSizes) {
+			assertTrue("Unbalanced shard of " + shardSize + " tests",
+					shardSize > 50);
+		}
+	}
+
+	@Test
+	public void runsSuitesWithTestsOfTheShard() {
+		Description suite = Description.createSuiteDescription("Suite");
+		Description test = Description.createTestDescription(
+				ShardingFilterTest.class, "test");
+		suite.addChild(test);
+		for (int shard = 0; shard < NUM_SHARDS; shard++) {
+			ShardingFilter filter = new ShardingFilter(shard, NUM_SHARDS);
+			assertEquals(filter.shouldRun(test), filter.shouldRun(suite));
+		}
+	}
+
+	@Test
+	public void singleShardRunsAllTests() {
+		ShardingFilter filter = new ShardingFilter(0, 1);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(filter.shouldRun(Description.createTestDescription(
+					ShardingFilterTest.class, "test" + i)));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsShardIndexOutOfRange() {
+		new ShardingFilter(NUM_SHARDS, NUM_SHARDS);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNoShards() {
+		new ShardingFilter(0, 0);
+	}
+}
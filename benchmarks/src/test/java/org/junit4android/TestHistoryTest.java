@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Tests of the {@link TestHistory}
+ *
+ * @author Daniel Thommes
+ */
+public class TestHistoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File historyFile;
+
+	@Before
+	public void setUp() {
+		historyFile = new File(folder.getRoot(), "history");
+	}
+
+	@Test
+	public void ordersRecentFailuresFirstThenNewThenFastestTests() {
+		TestHistory history = new TestHistory(historyFile);
+		history.load();
+		history.record(createResult("slow", 5000, false));
+		history.record(createResult("fast", 900, false));
+		// less than a millisecond apart
+		history.record(createResult("fastest", 200, false));
+		history.record(createResult("failed", 8000, true));
+		history.save();
+
+		assertEquals(
+				Arrays.asList("failed", "new", "fastest", "fast", "slow"),
+				sort(historyFile, "slow", "fast", "new", "failed", "fastest"));
+	}
+
+	@Test
+	public void dropsTestsNotRunForThirtyRuns() {
+		TestHistory history = new TestHistory(historyFile);
+		history.load();
+		history.record(createResult("deleted", 5000, false));
+		history.record(createResult("kept", 100, false));
+		history.save();
+		for (int run = 1; run < 30; run++) {
+			history = new TestHistory(historyFile);
+			history.load();
+			history.record(createResult("kept", 100, false));
+			history.save();
+		}
+		// still known, so slower than the kept test
+		assertEquals(Arrays.asList("kept", "deleted"),
+				sort(historyFile, "deleted", "kept"));
+
+		history = new TestHistory(historyFile);
+		history.load();
+		history.record(createResult("kept", 100, false));
+		history.save();
+
+		// without history, so run before the known tests
+		assertEquals(Arrays.asList("deleted", "kept"),
+				sort(historyFile, "deleted", "kept"));
+	}
+
+	@Test
+	public void discardsHistoryOfAnotherVersion() throws Exception {
+		OutputStream out = new FileOutputStream(historyFile);
+		try {
+			// the format of version 1 without a version line
+			out.write(("10\t5\t" + Description.createTestDescription(
+					TestHistoryTest.class, "slow") + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		TestHistory history = new TestHistory(historyFile);
+		history.load();
+		history.record(createResult("fast", 100, false));
+		history.save();
+
+		assertEquals(Arrays.asList("slow", "fast"),
+				sort(historyFile, "fast", "slow"));
+	}
+
+	/**
+	 * @param historyFile
+	 * @param methodNames
+	 * @return the method names ordered by the history loaded from the file
+	 */
+	private static List<String> sort(File historyFile, String... methodNames) {
+		TestHistory history = new TestHistory(historyFile);
+		history.load();
+		List<Description> tests = new ArrayList<Description>();
+		for (String methodName : methodNames) {
+			tests.add(Description.createTestDescription(TestHistoryTest.class,
+					methodName));
+		}
+		Collections.sort(tests, history.getComparator());
+		List<String> sortedNames = new ArrayList<String>();
+		for (Description test : tests) {
+			sortedNames.add(test.getMethodName());
+		}
+		return sortedNames;
+	}
+
+	private static JunitTestResult createResult(String methodName,
+			long durationMicros, boolean failed) {
+		Description description = Description.createTestDescription(
+				TestHistoryTest.class, methodName);
+		JunitTestResult result = new JunitTestResult(description, 1);
+		if (failed) {
+			result.addFailure(new Failure(description, new AssertionError()));
+		}
+		result.durationNanos = durationMicros * 1000;
+		result.finished = true;
+		return result;
+	}
+}
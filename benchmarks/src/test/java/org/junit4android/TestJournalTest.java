@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Tests of the {@link TestJournal}
+ *
+ * @author Daniel Thommes
+ */
+public class TestJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File journalFile;
+
+	@Before
+	public void setUp() {
+		journalFile = new File(folder.getRoot(), "journal");
+	}
+
+	@Test
+	public void readsTheResultsOfARunWithTheSameKey() throws Exception {
+		TestJournal journal = new TestJournal(journalFile, "AllTests 1");
+		journal.open(false);
+		journal.append(createResult("passed", 1250));
+		JunitTestResult failed = createResult("failed", 80);
+		failed.addFailure(new RecordedFailure(failed.getDescription(),
+				"java.lang.AssertionError", "expected:<1>", "trace", false));
+		journal.append(failed);
+		journal.append(new JunitTestResult(createDescription("ignored"), 3,
+				"not yet"));
+		JunitTestResult flaky = createResult("flaky", 10);
+		flaky.previousAttempts = new ArrayList<JunitTestResult>();
+		flaky.previousAttempts.add(failed);
+		journal.append(flaky);
+		journal.close();
+
+		List<JunitTestResult> results = new TestJournal(journalFile,
+				"AllTests 1").read();
+
+		assertEquals(4, results.size());
+		JunitTestResult passed = results.get(0);
+		assertEquals(createDescription("passed"), passed.getDescription());
+		assertEquals(1250000, passed.getDurationNanos());
+		assertEquals(1000, passed.getOverheadNanos());
+		assertFalse(passed.hasFailures());
+		assertFalse(passed.isIgnored());
+		Failure failure = results.get(1).getFailures().get(0);
+		assertEquals("java.lang.AssertionError",
+				RecordedFailure.getType(failure));
+		assertEquals("expected:<1>", failure.getMessage());
+		assertEquals("trace", failure.getTrace());
+		assertFalse(RecordedFailure.isError(failure));
+		assertTrue(results.get(2).isIgnored());
+		assertEquals("not yet", results.get(2).ignoreReason);
+		assertTrue(results.get(3).isFlaky());
+		assertEquals(2, results.get(3).getAttemptCount());
+	}
+
+	@Test
+	public void ignoresTheJournalOfAnotherRun() throws Exception {
+		TestJournal journal = new TestJournal(journalFile, "AllTests 1");
+		journal.open(false);
+		journal.append(createResult("passed", 1));
+		journal.close();
+
+		assertTrue(new TestJournal(journalFile, "AllTests 2").read().isEmpty());
+		assertTrue(new TestJournal(new File(folder.getRoot(), "missing"),
+				"AllTests 1").read().isEmpty());
+	}
+
+	@Test
+	public void resumesAfterAnIncompleteLastRecord() throws Exception {
+		TestJournal journal = new TestJournal(journalFile, "AllTests");
+		journal.open(false);
+		journal.append(createResult("test1", 1));
+		journal.append(createResult("test2", 2));
+		journal.close();
+		// a record cut off by a crash
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				journalFile, true));
+		out.writeInt(100);
+		out.write(new byte[10]);
+		out.close();
+
+		journal = new TestJournal(journalFile, "AllTests");
+		assertEquals(2, journal.read().size());
+		journal.open(true);
+		journal.append(createResult("test3", 3));
+		journal.close();
+
+		List<JunitTestResult> results = new TestJournal(journalFile,
+				"AllTests").read();
+		assertEquals(3, results.size());
+		assertEquals(createDescription("test3"), results.get(2)
+				.getDescription());
+	}
+
+	@Test
+	public void deletesTheJournal() throws Exception {
+		TestJournal journal = new TestJournal(journalFile, "AllTests");
+		journal.open(false);
+		journal.append(createResult("test", 1));
+		journal.delete();
+
+		assertFalse(journalFile.exists());
+	}
+
+	private static Description createDescription(String methodName) {
+		return Description.createTestDescription(TestJournalTest.class,
+				methodName);
+	}
+
+	private static JunitTestResult createResult(String methodName,
+			long durationMicros) {
+		JunitTestResult result = new JunitTestResult(
+				createDescription(methodName), 3);
+		result.durationNanos = durationMicros * 1000;
+		result.overheadNanos = 1000;
+		result.finished = true;
+		return result;
+	}
+}
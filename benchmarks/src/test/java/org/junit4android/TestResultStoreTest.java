@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Tests of the {@link TestResultStore} moving long stack traces to its trace
+ * file
+ *
+ * @author Daniel Thommes
+ */
+public class TestResultStoreTest {
+
+	private static final String CLASS_NAME = "com.example.FooTest";
+	private static final int LIMIT = TestResultStore.DEFAULT_TRACE_SIZE_LIMIT;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File traceFile;
+	private TestResultStore store;
+	private TraceStore traceStore;
+
+	@Before
+	public void setUp() {
+		traceFile = new File(folder.getRoot(), "traces");
+		store = new TestResultStore(traceFile, LIMIT);
+		traceStore = new TraceStore();
+	}
+
+	@Test
+	public void movesOnlyLongTracesToTheFile() throws Exception {
+		String shortTrace = createTrace("short", LIMIT);
+		String longTrace = createTrace("long ü", LIMIT + 1);
+		store.add(createResult("shortTrace", shortTrace));
+		store.add(createResult("longTrace", longTrace));
+		store.add(createResult("passed", null));
+
+		assertEquals(longTrace.getBytes("UTF-8").length, traceFile.length());
+		TestResultStore.Group group = store.getGroup(0);
+		assertEquals(3, group.size());
+		assertEquals(2, group.getFailureCount());
+		assertEquals(1, group.getPassedCount());
+		assertTrace(shortTrace, group.get(0));
+		assertTrace(longTrace, group.get(1));
+		assertFalse(group.get(2).hasFailures());
+		assertEquals("longTrace(" + CLASS_NAME + ")", group.get(1)
+				.getDescription().getDisplayName());
+	}
+
+	@Test
+	public void writesSharedTracesOnce() throws Exception {
+		String trace1 = createTrace("fixture", LIMIT * 2);
+		String trace2 = createTrace("other", LIMIT * 2);
+		store.add(createResult("test1", trace1));
+		store.add(createResult("test2", trace2));
+		store.add(createResult("test3", trace1));
+
+		assertEquals(LIMIT * 4, traceFile.length());
+		assertTrace(trace1, store.getResult(0, 0));
+		assertTrace(trace2, store.getResult(0, 1));
+		assertTrace(trace1, store.getResult(0, 2));
+		Failure failure = store.getResult(0, 2).getFailures().get(0);
+		assertEquals(RecordedFailure.getTraceId(store.getResult(0, 0)
+				.getFailures().get(0)), RecordedFailure.getTraceId(failure));
+	}
+
+	@Test
+	public void clearRemovesTheResultsAndTheTraceFile() throws Exception {
+		String trace = createTrace("cleared", LIMIT * 2);
+		store.add(createResult("test", trace));
+		JunitTestResult clearedResult = store.getResult(0, 0);
+
+		store.clear();
+
+		assertEquals(0, store.getGroupCount());
+		assertFalse(traceFile.exists());
+		assertEquals("(The stack trace has been removed)", clearedResult
+				.getFailures().get(0).getTrace());
+		// the same trace is written again after clearing
+		String nextTrace = createTrace("next", LIMIT * 2);
+		store.add(createResult("test", trace));
+		store.add(createResult("next", nextTrace));
+		assertEquals(LIMIT * 4, traceFile.length());
+		assertTrace(trace, store.getResult(0, 0));
+		assertTrace(nextTrace, store.getResult(0, 1));
+	}
+
+	private static String createTrace(String prefix, int length) {
+		StringBuilder trace = new StringBuilder(prefix);
+		while (trace.length() < length) {
+			trace.append('.');
+		}
+		return trace.toString();
+	}
+
+	/**
+	 * @param methodName
+	 * @param trace
+	 *            trace of its failure, null for a passed test
+	 * @return the finished result, its failure recorded in the
+	 *         {@link TraceStore} of the run
+	 */
+	private JunitTestResult createResult(String methodName, String trace) {
+		// same format as Description.createTestDescription
+		Description description = Description
+				.createSuiteDescription(methodName + "(" + CLASS_NAME + ")");
+		JunitTestResult result = new JunitTestResult(description, 1);
+		if (trace != null) {
+			result.addFailure(traceStore.record(new RecordedFailure(
+					description, "java.lang.AssertionError", "failed", trace,
+					false)));
+		}
+		result.finished = true;
+		return result;
+	}
+
+	private static void assertTrace(String trace, JunitTestResult result) {
+		assertEquals(1, result.getFailures().size());
+		Failure failure = result.getFailures().get(0);
+		assertEquals(trace, failure.getTrace());
+		assertEquals("failed", failure.getMessage());
+		assertEquals("java.lang.AssertionError",
+				RecordedFailure.getType(failure));
+	}
+}
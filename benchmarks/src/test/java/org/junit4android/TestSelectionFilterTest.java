@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.NoTestsRemainException;
+
+/**
+ * Tests of the {@link TestSelectionFilter} with the test classes nested in
+ * this class
+ *
+ * @author Daniel Thommes
+ */
+public class TestSelectionFilterTest {
+
+	public interface SlowTests {
+	}
+
+	public interface VerySlowTests extends SlowTests {
+	}
+
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface LargeTest {
+	}
+
+	public static class SelectionFixture {
+
+		@Test
+		public void plain() {
+		}
+
+		@Test
+		@Category(SlowTests.class)
+		public void slow() {
+		}
+
+		@Test
+		@Category(VerySlowTests.class)
+		public void verySlow() {
+		}
+
+		@Test
+		@LargeTest
+		public void large() {
+		}
+	}
+
+	@LargeTest
+	public static class LargeFixture {
+
+		@Test
+		public void test() {
+		}
+	}
+
+	@Test
+	public void selectsClassesByGlob() {
+		assertEquals(set("plain", "slow", "verySlow", "large"), select(
+				SelectionFixture.class, "org.junit4android.*$Selection????ure",
+				null));
+		assertEquals(set(),
+				select(SelectionFixture.class, "*LargeFixture", null));
+	}
+
+	@Test
+	public void selectsMethodsByGlob() {
+		assertEquals(set("slow", "plain"), select(SelectionFixture.class,
+				"*Fixture#slow, *#p*", null));
+	}
+
+	@Test
+	public void selectsByAnnotationOfTheMethodOrClass() {
+		assertEquals(set("large"),
+				select(SelectionFixture.class, "@LargeTest", null));
+		assertEquals(set("test"), select(LargeFixture.class,
+				"@" + LargeTest.class.getName(), null));
+	}
+
+	@Test
+	public void selectsCategoriesAndTheirSubtypes() {
+		String category = "category:" + SlowTests.class.getName();
+		assertEquals(set("slow", "verySlow"),
+				select(SelectionFixture.class, category, null));
+		assertEquals(set("plain", "large"),
+				select(SelectionFixture.class, null, category));
+	}
+
+	@Test
+	public void excludesTestsMatchingAnyTerm() {
+		assertEquals(set("plain"), select(SelectionFixture.class, "",
+				"*#*low,@LargeTest"));
+		assertEquals(set("large"), select(SelectionFixture.class,
+				"*#large,*#plain", "*#plain"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownCategories() {
+		new TestSelectionFilter("category:com.example.Unknown", null);
+	}
+
+	@Test
+	public void describesTheLists() {
+		assertEquals("include *Test, exclude @LargeTest",
+				new TestSelectionFilter("*Test", "@LargeTest").describe());
+		assertEquals("exclude @LargeTest", new TestSelectionFilter(null,
+				"@LargeTest").describe());
+	}
+
+	/**
+	 * @param testClass
+	 * @param include
+	 * @param exclude
+	 * @return the method names of the tests of the class selected by a
+	 *         {@link TestSelectionFilter}
+	 */
+	private static Set<String> select(Class<?> testClass, String include,
+			String exclude) {
+		Runner runner = Request.aClass(testClass).getRunner();
+		try {
+			new TestSelectionFilter(include, exclude).apply(runner);
+		} catch (NoTestsRemainException e) {
+			return set();
+		}
+		Set<String> methodNames = new TreeSet<String>();
+		for (Description test : runner.getDescription().getChildren()) {
+			methodNames.add(test.getMethodName());
+		}
+		return methodNames;
+	}
+
+	private static Set<String> set(String... methodNames) {
+		Set<String> set = new TreeSet<String>();
+		for (String methodName : methodNames) {
+			set.add(methodName);
+		}
+		return set;
+	}
+}
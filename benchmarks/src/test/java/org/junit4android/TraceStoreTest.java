@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Tests of the {@link TraceStore}
+ *
+ * @author Daniel Thommes
+ */
+public class TraceStoreTest {
+
+	private static final Description TEST1 = Description
+			.createTestDescription(TraceStoreTest.class, "test1");
+	private static final Description TEST2 = Description
+			.createTestDescription(TraceStoreTest.class, "test2");
+
+	@Test
+	public void keysTheTracesByTheirSha1() {
+		// SHA-1 of "abc": a9993e364706816aba3e25717850c26c9cd0d89d
+		assertEquals("a9993e364706816a", new TraceStore().hash("abc"));
+	}
+
+	@Test
+	public void rendersEachTraceOnce() {
+		TraceStore store = new TraceStore();
+		// the same exception failing two tests, e.g. thrown by a fixture
+		IllegalStateException exception = new IllegalStateException("broken");
+		RecordedFailure failure1 = store.record(new Failure(TEST1, exception));
+		RecordedFailure failure2 = store.record(new Failure(TEST2, exception));
+
+		String traceId = RecordedFailure.getTraceId(failure1);
+		assertEquals(store.hash(failure1.getTrace()), traceId);
+		assertEquals(traceId, RecordedFailure.getTraceId(failure2));
+		assertSame(failure1.getTrace(), failure2.getTrace());
+		assertSame(failure1.getTrace(), store.getTrace(traceId));
+		assertEquals(TEST2, failure2.getDescription());
+		assertEquals("java.lang.IllegalStateException",
+				RecordedFailure.getType(failure2));
+		assertEquals("broken", failure2.getMessage());
+		assertTrue(RecordedFailure.isError(failure2));
+		assertEquals(1, store.size());
+		assertEquals(2, store.getFailureCount());
+	}
+
+	@Test
+	public void keepsRecordedFailures() {
+		TraceStore store = new TraceStore();
+		RecordedFailure failure = store.record(new RecordedFailure(TEST1,
+				"java.lang.AssertionError", "expected", "trace", false));
+
+		assertEquals("trace", failure.getTrace());
+		assertEquals("java.lang.AssertionError",
+				RecordedFailure.getType(failure));
+		assertFalse(RecordedFailure.isError(failure));
+		assertEquals("trace",
+				store.getTrace(RecordedFailure.getTraceId(failure)));
+	}
+
+	@Test
+	public void givesCollidingTracesTheNextFreeId() {
+		TraceStore store = new TraceStore() {
+			@Override
+			String hash(String trace) {
+				return "0123456789abcdef";
+			}
+		};
+		String id1 = record(store, TEST1, "trace1");
+		String id2 = record(store, TEST2, "trace2");
+		String id3 = record(store, TEST1, "trace3");
+
+		assertEquals("0123456789abcdef", id1);
+		assertEquals("0123456789abcdef-1", id2);
+		assertEquals("0123456789abcdef-2", id3);
+		assertEquals(id2, record(store, TEST1, "trace2"));
+		assertEquals("trace1", store.getTrace(id1));
+		assertEquals("trace2", store.getTrace(id2));
+		assertEquals("trace3", store.getTrace(id3));
+		assertEquals(3, store.size());
+		assertEquals(4, store.getFailureCount());
+	}
+
+	private static String record(TraceStore store, Description description,
+			String trace) {
+		return RecordedFailure.getTraceId(store.record(new RecordedFailure(
+				description, "java.lang.AssertionError", null, trace, false)));
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Constants and encoding helpers of the compact binary result format written
+ * by the {@link BinaryResultWriter} and read by the {@link BinaryResultReader}.
+ * Plain Java only, so the reader can be used on the host.
+ * <p>
+ * A result file is a gzip stream starting with the {@link #MAGIC} bytes and
+ * the {@link #VERSION}, followed by records. Each record is its type byte,
+ * the length of its payload and the payload, so readers can skip records of
+ * types they don't know. The records are:
+ * <ul>
+ * <li>{@link #RECORD_STRING}: a string, appended to the string table. Class,
+ * method and failure type names and stack traces shared by several failures
+ * are written once to the table and referred to by their index.</li>
+ * <li>{@link #RECORD_SUITE}: a test suite with its name and totals, followed by
+ * the records of its test cases</li>
+ * <li>{@link #RECORD_TEST_CASE}: a test case with its failures</li>
+ * </ul>
+ * Numbers are written as unsigned varints of 7 bits per byte, least
+ * significant first. Strings are written as their length in bytes plus one (0
+ * for null) followed by their UTF-8 bytes. References to the string table are
+ * written as the index plus one (0 for null).
+ * <p>
+ * Version 1 files have durations in ms and no runner overhead. They are still
+ * read, with their durations converted to µs.
+ *
+ * @author Daniel Thommes
+ */
+public final class BinaryResultFormat {
+
+	public static final byte[] MAGIC = { 'J', '4', 'A', 'R' };
+	public static final int VERSION = 2;
+
+	/**
+	 * Payload: the UTF-8 bytes of the string
+	 */
+	public static final int RECORD_STRING = 1;
+	/**
+	 * Payload: name reference, number of tests, errors and skipped tests,
+	 * duration in µs
+	 */
+	public static final int RECORD_SUITE = 2;
+	/**
+	 * Payload: {@link #TEST_CASE_IGNORED} and the other flags, class and method
+	 * name references, duration and runner overhead in µs, ignore reason if
+	 * ignored, metrics if present, number of failures and the failures. A
+	 * failure is its {@link #FAILURE_ERROR} and other flags, type name
+	 * reference, message and the trace as reference, or as 0 followed by the
+	 * trace if it is not in the string table.
+	 */
+	public static final int RECORD_TEST_CASE = 3;
+
+	public static final int TEST_CASE_IGNORED = 1;
+	/**
+	 * Flag of test cases followed by their CPU time in ns, allocated bytes,
+	 * allocation count, GC count, Java and native heap bytes
+	 */
+	public static final int TEST_CASE_METRICS = 2;
+	/**
+	 * Flag of test cases passed after failed attempts
+	 */
+	public static final int TEST_CASE_FLAKY = 4;
+
+	public static final int FAILURE_ERROR = 1;
+	/**
+	 * Flag of failures of an earlier attempt of the test
+	 */
+	public static final int FAILURE_PREVIOUS_ATTEMPT = 2;
+
+	private BinaryResultFormat() {
+	}
+
+	public static void writeVarLong(OutputStream out, long value)
+			throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	public static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public static int readVarInt(InputStream in) throws IOException {
+		long value = readVarLong(in);
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("Number out of range: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * @param out
+	 * @param string
+	 *            may be null
+	 * @throws IOException
+	 */
+	public static void writeString(OutputStream out, String string)
+			throws IOException {
+		if (string == null) {
+			writeVarLong(out, 0);
+			return;
+		}
+		byte[] bytes = toUtf8(string);
+		writeVarLong(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * @param in
+	 * @return the string, may be null
+	 * @throws IOException
+	 */
+	public static String readString(InputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		readFully(in, bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	public static void readFully(InputStream in, byte[] bytes)
+			throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			int count = in.read(bytes, offset, bytes.length - offset);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			offset += count;
+		}
+	}
+
+	static byte[] toUtf8(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads result files written by the {@link BinaryResultWriter} record by
+ * record, so files of any size can be read with little memory. Plain Java
+ * only, meant to be used on the host.
+ *
+ * <pre>
+ * BinaryResultReader reader = new BinaryResultReader(in);
+ * while (reader.next() != BinaryResultReader.END) {
+ * 	...
+ * }
+ * </pre>
+ *
+ * A file truncated by a crash of the test run is read up to the last complete
+ * record before an {@link java.io.EOFException} is thrown.
+ *
+ * @author Daniel Thommes
+ */
+public class BinaryResultReader {
+
+	public static final int END = 0;
+	public static final int SUITE = BinaryResultFormat.RECORD_SUITE;
+	public static final int TEST_CASE = BinaryResultFormat.RECORD_TEST_CASE;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * A test suite, followed by its test cases
+	 */
+	public static class Suite {
+		String name;
+		int tests;
+		int errors;
+		int skipped;
+		long durationMicros;
+
+		public String getName() {
+			return name;
+		}
+
+		public int getTests() {
+			return tests;
+		}
+
+		public int getErrors() {
+			return errors;
+		}
+
+		public int getSkipped() {
+			return skipped;
+		}
+
+		/**
+		 * @return the sum of the durations of the test cases in µs
+		 */
+		public long getDurationMicros() {
+			return durationMicros;
+		}
+	}
+
+	public static class TestCase {
+		String className;
+		String methodName;
+		long durationMicros;
+		long overheadMicros;
+		boolean ignored;
+		String ignoreReason;
+		boolean flaky;
+		/**
+		 * CPU time in ns, allocated bytes, allocation count, GC count, Java
+		 * and native heap bytes, null if not collected
+		 */
+		long[] metrics;
+		final List<Failure> failures = new ArrayList<Failure>();
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * @return the duration in µs
+		 */
+		public long getDurationMicros() {
+			return durationMicros;
+		}
+
+		/**
+		 * @return the time in µs the runner spent on its own bookkeeping for
+		 *         the test, 0 if not known
+		 */
+		public long getOverheadMicros() {
+			return overheadMicros;
+		}
+
+		public boolean isIgnored() {
+			return ignored;
+		}
+
+		/**
+		 * @return the reason of an ignored test, may be null or empty
+		 */
+		public String getIgnoreReason() {
+			return ignoreReason;
+		}
+
+		/**
+		 * @return true, if the test has passed after failed attempts
+		 */
+		public boolean isFlaky() {
+			return flaky;
+		}
+
+		public long[] getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * @return the failures of the test followed by those of its earlier
+		 *         attempts
+		 */
+		public List<Failure> getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return true, if the final attempt of the test has failed
+		 */
+		public boolean hasFailures() {
+			for (Failure failure : failures) {
+				if (!failure.previousAttempt) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	public static class Failure {
+		String type;
+		String message;
+		String trace;
+		boolean error;
+		boolean previousAttempt;
+
+		public String getType() {
+			return type;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public String getTrace() {
+			return trace;
+		}
+
+		public boolean isError() {
+			return error;
+		}
+
+		/**
+		 * @return true, if this is a failure of an earlier attempt of the test
+		 */
+		public boolean isPreviousAttempt() {
+			return previousAttempt;
+		}
+	}
+
+	private final InputStream in;
+	private final List<String> strings = new ArrayList<String>();
+	private Suite suite;
+	private TestCase testCase;
+	/**
+	 * Version of the file being read
+	 */
+	private final int version;
+
+	/**
+	 * Reads the header of the result file
+	 *
+	 * @param in
+	 *            stream of the compressed results, closed by {@link #close()}
+	 * @throws IOException
+	 *             if the stream is not a result file of a supported version
+	 */
+	public BinaryResultReader(InputStream in) throws IOException {
+		this.in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE),
+				BUFFER_SIZE);
+		byte[] magic = new byte[BinaryResultFormat.MAGIC.length];
+		BinaryResultFormat.readFully(this.in, magic);
+		for (int i = 0; i < magic.length; i++) {
+			if (magic[i] != BinaryResultFormat.MAGIC[i]) {
+				throw new IOException("Not a JUnit4Android result file");
+			}
+		}
+		version = BinaryResultFormat.readVarInt(this.in);
+		if (version > BinaryResultFormat.VERSION) {
+			throw new IOException("Unsupported result file version " + version);
+		}
+	}
+
+	/**
+	 * Reads the next suite or test case
+	 *
+	 * @return {@link #SUITE}, {@link #TEST_CASE} or {@link #END}
+	 * @throws IOException
+	 */
+	public int next() throws IOException {
+		while (true) {
+			int type = in.read();
+			if (type < 0) {
+				return END;
+			}
+			byte[] payload = new byte[BinaryResultFormat.readVarInt(in)];
+			BinaryResultFormat.readFully(in, payload);
+			switch (type) {
+			case BinaryResultFormat.RECORD_STRING:
+				strings.add(new String(payload, "UTF-8"));
+				break;
+			case BinaryResultFormat.RECORD_SUITE:
+				suite = readSuite(new ByteArrayInputStream(payload));
+				return SUITE;
+			case BinaryResultFormat.RECORD_TEST_CASE:
+				testCase = readTestCase(new ByteArrayInputStream(payload));
+				return TEST_CASE;
+			default:
+				// record of a later version
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the suite read last
+	 */
+	public Suite getSuite() {
+		return suite;
+	}
+
+	/**
+	 * @return the test case read last
+	 */
+	public TestCase getTestCase() {
+		return testCase;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private Suite readSuite(InputStream payload) throws IOException {
+		Suite suite = new Suite();
+		suite.name = readReference(payload);
+		suite.tests = BinaryResultFormat.readVarInt(payload);
+		suite.errors = BinaryResultFormat.readVarInt(payload);
+		suite.skipped = BinaryResultFormat.readVarInt(payload);
+		suite.durationMicros = readDuration(payload);
+		return suite;
+	}
+
+	/**
+	 * @param payload
+	 * @return the duration in µs
+	 * @throws IOException
+	 */
+	private long readDuration(InputStream payload) throws IOException {
+		long duration = BinaryResultFormat.readVarLong(payload);
+		// version 1 has ms
+		return version == 1 ? duration * 1000 : duration;
+	}
+
+	private TestCase readTestCase(InputStream payload) throws IOException {
+		TestCase testCase = new TestCase();
+		int flags = BinaryResultFormat.readVarInt(payload);
+		testCase.className = readReference(payload);
+		testCase.methodName = readReference(payload);
+		testCase.durationMicros = readDuration(payload);
+		if (version > 1) {
+			testCase.overheadMicros = BinaryResultFormat.readVarLong(payload);
+		}
+		testCase.ignored = (flags & BinaryResultFormat.TEST_CASE_IGNORED) != 0;
+		testCase.flaky = (flags & BinaryResultFormat.TEST_CASE_FLAKY) != 0;
+		if (testCase.ignored) {
+			testCase.ignoreReason = BinaryResultFormat.readString(payload);
+		}
+		if ((flags & BinaryResultFormat.TEST_CASE_METRICS) != 0) {
+			testCase.metrics = new long[6];
+			for (int i = 0; i < testCase.metrics.length; i++) {
+				testCase.metrics[i] = BinaryResultFormat.readVarLong(payload);
+			}
+		}
+		int failureCount = BinaryResultFormat.readVarInt(payload);
+		for (int i = 0; i < failureCount; i++) {
+			Failure failure = new Failure();
+			int failureFlags = BinaryResultFormat.readVarInt(payload);
+			failure.error = (failureFlags & BinaryResultFormat.FAILURE_ERROR) != 0;
+			failure.previousAttempt = (failureFlags & BinaryResultFormat.FAILURE_PREVIOUS_ATTEMPT) != 0;
+			failure.type = readReference(payload);
+			failure.message = BinaryResultFormat.readString(payload);
+			failure.trace = readReference(payload);
+			if (failure.trace == null) {
+				failure.trace = BinaryResultFormat.readString(payload);
+			}
+			testCase.failures.add(failure);
+		}
+		return testCase;
+	}
+
+	private String readReference(InputStream payload) throws IOException {
+		int reference = BinaryResultFormat.readVarInt(payload);
+		if (reference == 0) {
+			return null;
+		}
+		if (reference > strings.size()) {
+			throw new IOException("Invalid string reference " + reference);
+		}
+		return strings.get(reference - 1);
+	}
+}
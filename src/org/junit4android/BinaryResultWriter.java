@@ -0,0 +1,302 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.runner.notification.Failure;
+
+/**
+ * Writes test results in the compact binary format described by
+ * {@link BinaryResultFormat}. Suites are written as they are passed in, so
+ * only the string table (names and the IDs of the shared stack traces, not
+ * the traces) is kept in memory. Use the ResultConverter of the tools module
+ * to convert a result file to JUnit XML on the host.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @author Daniel Thommes
+ */
+public class BinaryResultWriter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+	/**
+	 * Payload of the record being written, reused for all records
+	 */
+	private final ByteArrayOutputStream payload = new ByteArrayOutputStream(
+			256);
+	/**
+	 * Indexes in the string table of the names written so far
+	 */
+	private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+	/**
+	 * Indexes in the string table of the stack traces written so far by the
+	 * IDs of the traces in the {@link TraceStore}
+	 */
+	private final Map<String, Integer> traceIndexes = new HashMap<String, Integer>();
+	private int stringCount = 0;
+
+	/**
+	 * Writes the header of the result file
+	 *
+	 * @param out
+	 *            stream the compressed results are written to, closed by
+	 *            {@link #close()}
+	 * @throws IOException
+	 */
+	public BinaryResultWriter(OutputStream out) throws IOException {
+		this.out = new GZIPOutputStream(new BufferedOutputStream(out,
+				BUFFER_SIZE), BUFFER_SIZE);
+		this.out.write(BinaryResultFormat.MAGIC);
+		BinaryResultFormat.writeVarLong(this.out, BinaryResultFormat.VERSION);
+	}
+
+	/**
+	 * Writes a test suite and its test cases
+	 *
+	 * @param name
+	 * @param testCases
+	 * @throws IOException
+	 */
+	public void writeTestSuite(String name, List<JunitTestResult> testCases)
+			throws IOException {
+		int errors = 0;
+		int skipped = 0;
+		long durationNanos = 0;
+		for (JunitTestResult testCase : testCases) {
+			durationNanos += testCase.getDurationNanos();
+			if (testCase.isIgnored()) {
+				++skipped;
+			}
+			if (testCase.hasFailures()) {
+				++errors;
+			}
+		}
+		int nameIndex = stringReference(name);
+		BinaryResultFormat.writeVarLong(payload, nameIndex);
+		BinaryResultFormat.writeVarLong(payload, testCases.size());
+		BinaryResultFormat.writeVarLong(payload, errors);
+		BinaryResultFormat.writeVarLong(payload, skipped);
+		BinaryResultFormat.writeVarLong(payload, durationNanos / 1000);
+		writeRecord(BinaryResultFormat.RECORD_SUITE);
+		for (JunitTestResult testCase : testCases) {
+			writeTestCase(testCase);
+		}
+	}
+
+	/**
+	 * Flushes the results written so far to the underlying stream, as far as
+	 * the compression allows
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Completes the gzip stream and closes it
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeTestCase(JunitTestResult result) throws IOException {
+		// the references are resolved first, as they may write string records
+		int classIndex = stringReference(result.getDescription()
+				.getClassName());
+		int methodIndex = stringReference(result.getDescription()
+				.getMethodName());
+		List<JunitTestResult> previousAttempts = result.getPreviousAttempts();
+		int failureCount = countFailures(result.getFailures());
+		for (JunitTestResult attempt : previousAttempts) {
+			failureCount += countFailures(attempt.getFailures());
+		}
+		int[] typeIndexes = new int[failureCount];
+		int[] traceIndexes = new int[failureCount];
+		int i = referenceFailures(result.getFailures(), typeIndexes,
+				traceIndexes, 0);
+		for (JunitTestResult attempt : previousAttempts) {
+			i = referenceFailures(attempt.getFailures(), typeIndexes,
+					traceIndexes, i);
+		}
+
+		int flags = 0;
+		if (result.isIgnored()) {
+			flags |= BinaryResultFormat.TEST_CASE_IGNORED;
+		}
+		TestMetrics metrics = result.getMetrics();
+		if (metrics != null) {
+			flags |= BinaryResultFormat.TEST_CASE_METRICS;
+		}
+		if (result.isFlaky()) {
+			flags |= BinaryResultFormat.TEST_CASE_FLAKY;
+		}
+		BinaryResultFormat.writeVarLong(payload, flags);
+		BinaryResultFormat.writeVarLong(payload, classIndex);
+		BinaryResultFormat.writeVarLong(payload, methodIndex);
+		BinaryResultFormat.writeVarLong(payload,
+				result.getDurationNanos() / 1000);
+		BinaryResultFormat.writeVarLong(payload,
+				result.getOverheadNanos() / 1000);
+		if (result.isIgnored()) {
+			BinaryResultFormat.writeString(payload, result.ignoreReason);
+		}
+		if (metrics != null) {
+			BinaryResultFormat.writeVarLong(payload, metrics.getCpuTimeNanos());
+			BinaryResultFormat.writeVarLong(payload,
+					metrics.getAllocatedBytes());
+			BinaryResultFormat.writeVarLong(payload,
+					metrics.getAllocationCount());
+			BinaryResultFormat.writeVarLong(payload, metrics.getGcCount());
+			BinaryResultFormat.writeVarLong(payload,
+					metrics.getJavaHeapBytes());
+			BinaryResultFormat.writeVarLong(payload,
+					metrics.getNativeHeapBytes());
+		}
+		BinaryResultFormat.writeVarLong(payload, failureCount);
+		i = writeFailures(result.getFailures(), 0, typeIndexes, traceIndexes,
+				0);
+		for (JunitTestResult attempt : previousAttempts) {
+			i = writeFailures(attempt.getFailures(),
+					BinaryResultFormat.FAILURE_PREVIOUS_ATTEMPT, typeIndexes,
+					traceIndexes, i);
+		}
+		writeRecord(BinaryResultFormat.RECORD_TEST_CASE);
+	}
+
+	/**
+	 * @param failures
+	 * @return the number of failures written, i.e. those with a type
+	 */
+	private static int countFailures(List<Failure> failures) {
+		int count = 0;
+		for (Failure failure : failures) {
+			if (RecordedFailure.getType(failure) != null) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	private int referenceFailures(List<Failure> failures, int[] typeIndexes,
+			int[] traceIndexes, int i) throws IOException {
+		for (Failure failure : failures) {
+			String type = RecordedFailure.getType(failure);
+			if (type == null) {
+				continue;
+			}
+			typeIndexes[i] = stringReference(type);
+			traceIndexes[i] = traceReference(failure);
+			++i;
+		}
+		return i;
+	}
+
+	private int writeFailures(List<Failure> failures, int flags,
+			int[] typeIndexes, int[] traceIndexes, int i) throws IOException {
+		for (Failure failure : failures) {
+			if (RecordedFailure.getType(failure) == null) {
+				continue;
+			}
+			int failureFlags = flags;
+			if (RecordedFailure.isError(failure)) {
+				failureFlags |= BinaryResultFormat.FAILURE_ERROR;
+			}
+			BinaryResultFormat.writeVarLong(payload, failureFlags);
+			BinaryResultFormat.writeVarLong(payload, typeIndexes[i]);
+			BinaryResultFormat.writeString(payload, failure.getMessage());
+			BinaryResultFormat.writeVarLong(payload, traceIndexes[i]);
+			if (traceIndexes[i] == 0) {
+				BinaryResultFormat.writeString(payload, failure.getTrace());
+			}
+			++i;
+		}
+		return i;
+	}
+
+	/**
+	 * @param string
+	 *            may be null
+	 * @return the reference to the string in the string table, written to it
+	 *         if necessary
+	 * @throws IOException
+	 */
+	private int stringReference(String string) throws IOException {
+		if (string == null) {
+			return 0;
+		}
+		Integer index = stringIndexes.get(string);
+		if (index == null) {
+			index = writeString(string);
+			stringIndexes.put(string, index);
+		}
+		return index + 1;
+	}
+
+	/**
+	 * @param failure
+	 * @return the reference to the failure's stack trace in the string table
+	 *         or 0, if the trace has no ID and is written with the failure
+	 * @throws IOException
+	 */
+	private int traceReference(Failure failure) throws IOException {
+		String traceId = RecordedFailure.getTraceId(failure);
+		if (traceId == null) {
+			return 0;
+		}
+		Integer index = traceIndexes.get(traceId);
+		if (index == null) {
+			index = writeString(failure.getTrace());
+			traceIndexes.put(traceId, index);
+		}
+		return index + 1;
+	}
+
+	/**
+	 * Appends a string to the string table
+	 *
+	 * @param string
+	 * @return its index
+	 * @throws IOException
+	 */
+	private int writeString(String string) throws IOException {
+		byte[] bytes = BinaryResultFormat.toUtf8(string);
+		out.write(BinaryResultFormat.RECORD_STRING);
+		BinaryResultFormat.writeVarLong(out, bytes.length);
+		out.write(bytes);
+		return stringCount++;
+	}
+
+	private void writeRecord(int type) throws IOException {
+		out.write(type);
+		BinaryResultFormat.writeVarLong(out, payload.size());
+		payload.writeTo(out);
+		payload.reset();
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Statistics of the test durations of a run in bounded memory, however many
+ * tests are run: The durations go into a histogram of logarithmic buckets, a
+ * quantile sketch estimating percentiles within {@link #RELATIVE_ERROR}, and
+ * the slowest tests and classes are kept in heaps of a fixed size. Durations
+ * are kept in microseconds, along with the total time the runner spent on
+ * its own bookkeeping for the tests.
+ * <p>
+ * Results are expected grouped by test class, like the
+ * {@link JunitXmlReporter} expects them. The methods of this class are thread
+ * safe.
+ *
+ * @author Daniel Thommes
+ */
+public class DurationStatistics {
+
+	/**
+	 * Number of slowest tests kept
+	 */
+	public static final int TOP_TEST_COUNT = 50;
+	/**
+	 * Number of slowest test classes kept
+	 */
+	public static final int TOP_CLASS_COUNT = 20;
+	/**
+	 * Maximum relative error of the percentiles
+	 */
+	public static final double RELATIVE_ERROR = 0.01;
+
+	/**
+	 * Factor between the bounds of the histogram buckets
+	 */
+	private static final double BUCKET_GROWTH = (1 + RELATIVE_ERROR)
+			/ (1 - RELATIVE_ERROR);
+	private static final double LOG_BUCKET_GROWTH = Math.log(BUCKET_GROWTH);
+	/**
+	 * Buckets covering durations up to about 3 days, longer ones go to the
+	 * last bucket
+	 */
+	private static final int BUCKET_COUNT = 1
+			+ (int) Math.ceil(Math.log(3 * 24 * 3600 * 1000000.0)
+					/ LOG_BUCKET_GROWTH);
+
+	/**
+	 * Duration of a test or a test class
+	 */
+	public static class Entry {
+		private final String className;
+		private final String methodName;
+		private final long duration;
+		private final int testCount;
+
+		Entry(String className, String methodName, long duration,
+				int testCount) {
+			this.className = className;
+			this.methodName = methodName;
+			this.duration = duration;
+			this.testCount = testCount;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the name of the test method, null for a test class
+		 */
+		public String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * @return the duration in µs
+		 */
+		public long getDurationMicros() {
+			return duration;
+		}
+
+		/**
+		 * @return the number of tests of a test class, 1 for a test
+		 */
+		public int getTestCount() {
+			return testCount;
+		}
+	}
+
+	/**
+	 * Orders entries by ascending duration, ties by descending name, so the
+	 * head of a heap is the entry to be dropped first
+	 */
+	private static final Comparator<Entry> HEAP_ORDER = new Comparator<Entry>() {
+		public int compare(Entry entry1, Entry entry2) {
+			if (entry1.duration != entry2.duration) {
+				return entry1.duration < entry2.duration ? -1 : 1;
+			}
+			int result = entry2.className.compareTo(entry1.className);
+			if (result != 0 || entry1.methodName == null
+					|| entry2.methodName == null) {
+				return result;
+			}
+			return entry2.methodName.compareTo(entry1.methodName);
+		}
+	};
+
+	private final int[] buckets = new int[BUCKET_COUNT];
+	private long count = 0;
+	private long minDuration = Long.MAX_VALUE;
+	private long maxDuration = 0;
+	private long totalDuration = 0;
+	private long overheadNanos = 0;
+	private final PriorityQueue<Entry> slowestTests = new PriorityQueue<Entry>(
+			TOP_TEST_COUNT + 1, HEAP_ORDER);
+	private final PriorityQueue<Entry> slowestClasses = new PriorityQueue<Entry>(
+			TOP_CLASS_COUNT + 1, HEAP_ORDER);
+	/**
+	 * Test class whose results are being added
+	 */
+	private String currentClassName;
+	private long currentClassDuration;
+	private int currentClassTestCount;
+
+	/**
+	 * Adds the duration of a finished test. Ignored tests only count for
+	 * their class.
+	 *
+	 * @param result
+	 */
+	public synchronized void add(JunitTestResult result) {
+		String className = result.getDescription().getClassName();
+		if (!className.equals(currentClassName)) {
+			finishCurrentClass();
+			currentClassName = className;
+		}
+		++currentClassTestCount;
+		overheadNanos += result.getOverheadNanos();
+		if (result.isIgnored()) {
+			return;
+		}
+		long duration = result.getDurationNanos() / 1000;
+		currentClassDuration += duration;
+		++buckets[getBucket(duration)];
+		++count;
+		minDuration = Math.min(minDuration, duration);
+		maxDuration = Math.max(maxDuration, duration);
+		totalDuration += duration;
+		offer(slowestTests, TOP_TEST_COUNT, new Entry(className, result
+				.getDescription().getMethodName(), duration, 1));
+	}
+
+	/**
+	 * @return the number of durations added
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the sum of the durations in µs
+	 */
+	public synchronized long getTotalDurationMicros() {
+		return totalDuration;
+	}
+
+	/**
+	 * @return the longest duration in µs
+	 */
+	public synchronized long getMaxDurationMicros() {
+		return maxDuration;
+	}
+
+	/**
+	 * @return the time in µs the runner spent on its own bookkeeping for the
+	 *         tests, not included in their durations
+	 */
+	public synchronized long getOverheadMicros() {
+		return overheadNanos / 1000;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99
+	 * @return the estimated duration in µs below which the given percentage
+	 *         of the durations lies, 0 if there are none
+	 */
+	public synchronized long getPercentileMicros(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * count);
+		rank = Math.max(1, Math.min(rank, count));
+		long seen = 0;
+		for (int bucket = 0; bucket < buckets.length; bucket++) {
+			seen += buckets[bucket];
+			if (seen >= rank) {
+				long estimate = bucket == 0 ? 0 : Math.round(2
+						* Math.pow(BUCKET_GROWTH, bucket - 1)
+						/ (1 + 1 / BUCKET_GROWTH));
+				return Math.max(minDuration, Math.min(estimate, maxDuration));
+			}
+		}
+		return maxDuration;
+	}
+
+	/**
+	 * @return the slowest tests, slowest first
+	 */
+	public synchronized List<Entry> getSlowestTests() {
+		return sorted(slowestTests);
+	}
+
+	/**
+	 * Completes the class whose results are being added, so this is meant
+	 * to be called when all results have been added.
+	 *
+	 * @return the slowest test classes with the sum of their tests'
+	 *         durations, slowest first
+	 */
+	public synchronized List<Entry> getSlowestClasses() {
+		finishCurrentClass();
+		return sorted(slowestClasses);
+	}
+
+	/**
+	 * @return a summary of the statistics to be displayed
+	 */
+	public synchronized String format() {
+		StringBuilder text = new StringBuilder();
+		text.append(count).append(" tests, ")
+				.append(formatMillis(totalDuration)).append('\n');
+		text.append("Runner overhead ")
+				.append(formatMillis(getOverheadMicros())).append('\n');
+		text.append("p50 ").append(formatMillis(getPercentileMicros(50)))
+				.append(", p90 ").append(formatMillis(getPercentileMicros(90)))
+				.append(", p99 ").append(formatMillis(getPercentileMicros(99)))
+				.append(", max ").append(formatMillis(maxDuration))
+				.append('\n');
+		text.append("\nSlowest tests:\n");
+		for (Entry entry : getSlowestTests()) {
+			text.append(formatMillis(entry.duration)).append("  ")
+					.append(entry.methodName).append(" (")
+					.append(entry.className).append(")\n");
+		}
+		text.append("\nSlowest classes:\n");
+		for (Entry entry : getSlowestClasses()) {
+			text.append(formatMillis(entry.duration)).append("  ")
+					.append(entry.className).append(" (")
+					.append(entry.testCount).append(" tests)\n");
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @param micros
+	 * @return the time in ms with 3 decimals, e.g. "12.045 ms"
+	 */
+	private static String formatMillis(long micros) {
+		String fraction = Long.toString(1000 + micros % 1000);
+		return micros / 1000 + "." + fraction.substring(1) + " ms";
+	}
+
+	private void finishCurrentClass() {
+		if (currentClassName != null) {
+			offer(slowestClasses, TOP_CLASS_COUNT, new Entry(currentClassName,
+					null, currentClassDuration, currentClassTestCount));
+			currentClassName = null;
+			currentClassDuration = 0;
+			currentClassTestCount = 0;
+		}
+	}
+
+	private static void offer(PriorityQueue<Entry> heap, int size, Entry entry) {
+		if (heap.size() < size) {
+			heap.add(entry);
+		} else if (HEAP_ORDER.compare(entry, heap.peek()) > 0) {
+			heap.poll();
+			heap.add(entry);
+		}
+	}
+
+	private static List<Entry> sorted(PriorityQueue<Entry> heap) {
+		List<Entry> entries = new ArrayList<Entry>(heap);
+		Collections.sort(entries, Collections.reverseOrder(HEAP_ORDER));
+		return entries;
+	}
+
+	/**
+	 * @param duration
+	 *            in µs
+	 * @return the index of the bucket: 0 for 0 µs, i for durations in
+	 *         [growth^(i-1), growth^i)
+	 */
+	private static int getBucket(long duration) {
+		if (duration <= 0) {
+			return 0;
+		}
+		int bucket = 1 + (int) Math.floor(Math.log(duration)
+				/ LOG_BUCKET_GROWTH);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+}
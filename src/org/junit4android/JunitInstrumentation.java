@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.pm.InstrumentationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Headless test runner for continuous integration. Runs the same tests as the
+ * {@link JunitTestRunnerActivity} without any UI and independent of activity
+ * lifecycle events. Results are reported to logcat, as instrumentation status
+ * and in the XML report only. Declare it in your manifest:
+ *
+ * <pre>
+ * &lt;instrumentation android:name="org.junit4android.JunitInstrumentation"
+ *     android:targetPackage="your.package" /&gt;
+ * </pre>
+ *
+ * and start it with
+ *
+ * <pre>
+ * adb shell am instrument -w -e testClass your.package.AllTests \
+ *     your.package/org.junit4android.JunitInstrumentation
+ * </pre>
+ *
+ * All options of the activity can be given as -e arguments or as meta-data
+ * of the instrumentation element.
+ *
+ * @author Daniel Thommes
+ */
+public class JunitInstrumentation extends Instrumentation implements
+		JunitTestRunner.ResultListener {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Status codes and keys as used by Android's InstrumentationTestRunner
+	 */
+	private static final int REPORT_VALUE_RESULT_START = 1;
+	private static final int REPORT_VALUE_RESULT_OK = 0;
+	private static final int REPORT_VALUE_RESULT_FAILURE = -2;
+	private static final int REPORT_VALUE_RESULT_IGNORED = -3;
+	private static final String REPORT_KEY_STREAM = "stream";
+
+	private Bundle arguments;
+	private int testCount = 0;
+	private int failureCount = 0;
+	private int ignoredCount = 0;
+	private int flakyCount = 0;
+	/**
+	 * Tests whose start has been reported but not their result
+	 */
+	private final Set<Description> startedTests = Collections
+			.synchronizedSet(new HashSet<Description>());
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see android.app.Instrumentation#onCreate(android.os.Bundle)
+	 */
+	@Override
+	public void onCreate(Bundle arguments) {
+		super.onCreate(arguments);
+		this.arguments = arguments;
+		start();
+	}
+
+	/**
+	 * Runs the tests on the instrumentation thread
+	 *
+	 * @see android.app.Instrumentation#onStart()
+	 */
+	@Override
+	public void onStart() {
+		super.onStart();
+		Bundle results = new Bundle();
+		try {
+			RunOptions options = new RunOptions(arguments,
+					getInstrumentationMetadata());
+			Class<?> testClass = TestRunSession.loadTestClass(getContext(),
+					options);
+			TestRunSession session = new TestRunSession(getContext(),
+					testClass, options);
+			Log.i(LOGTAG, "Running " + testClass.getName());
+			session.run(this);
+			String summary = "Tests run: " + testCount + ", Failures: "
+					+ failureCount + ", Ignored: " + ignoredCount + ", Flaky: "
+					+ flakyCount;
+			if (session.isMaxFailuresReached()) {
+				summary += "\nStopped after reaching the maximum number of failures";
+			}
+			if (session.getReportException() == null) {
+				summary += "\nTest Report has been saved as "
+						+ session.getReportLocation();
+			} else {
+				Log.e(LOGTAG, "Error writing the test report",
+						session.getReportException());
+				summary += "\nError writing the test report: "
+						+ session.getReportException().getCause();
+			}
+			Log.i(LOGTAG, summary);
+			results.putString(REPORT_KEY_STREAM, "\n" + summary + "\n");
+		} catch (Exception e) {
+			Log.e(LOGTAG, "Error running the tests: ", e);
+			results.putString(REPORT_KEY_STREAM, "\nError running the tests: "
+					+ Log.getStackTraceString(e));
+		}
+		finish(Activity.RESULT_OK, results);
+	}
+
+	/**
+	 * Reports the start of a test as instrumentation status, as parsers of
+	 * am instrument -r like ddmlib expect it before the result
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#testStarted(org.junit.runner.Description)
+	 */
+	public void testStarted(Description description) {
+		// a retried test is only started once
+		if (startedTests.add(description)) {
+			sendStatus(REPORT_VALUE_RESULT_START, createStatus(description));
+		}
+	}
+
+	/**
+	 * Reports a result to logcat and as instrumentation status
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#testResult(org.junit4android.JunitTestResult)
+	 */
+	public void testResult(JunitTestResult result) {
+		++testCount;
+		Description description = result.getDescription();
+		if (!startedTests.remove(description)) {
+			// ignored tests, tests not run and results of a resumed run have
+			// not been started
+			sendStatus(REPORT_VALUE_RESULT_START, createStatus(description));
+		}
+		Bundle status = createStatus(description);
+		int resultCode;
+		if (result.hasFailures()) {
+			++failureCount;
+			resultCode = REPORT_VALUE_RESULT_FAILURE;
+			Failure failure = result.getFailures().get(0);
+			RunLog.i("FAILED: {}#{}: {}", description.getClassName(),
+					description.getMethodName(), failure.getMessage());
+			status.putString("stack", failure.getTrace());
+		} else if (result.isIgnored()) {
+			++ignoredCount;
+			resultCode = REPORT_VALUE_RESULT_IGNORED;
+			RunLog.i("IGNORED: {}#{}", description.getClassName(),
+					description.getMethodName());
+		} else if (result.isFlaky()) {
+			++flakyCount;
+			resultCode = REPORT_VALUE_RESULT_OK;
+			RunLog.i("FLAKY: {}#{} passed after {} attempts",
+					description.getClassName(), description.getMethodName(),
+					result.getAttemptCount());
+		} else {
+			resultCode = REPORT_VALUE_RESULT_OK;
+			RunLog.i("PASSED: {}#{} ({}ms)", description.getClassName(),
+					description.getMethodName(), result.getDuration());
+		}
+		sendStatus(resultCode, status);
+	}
+
+	/**
+	 * @param description
+	 * @return the status of the test with its class and method name
+	 */
+	private static Bundle createStatus(Description description) {
+		Bundle status = new Bundle();
+		status.putString("class", description.getClassName());
+		status.putString("test", description.getMethodName());
+		return status;
+	}
+
+	/**
+	 * A headless run is never cancelled
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * @return the meta-data of this instrumentation's manifest element
+	 */
+	private Bundle getInstrumentationMetadata() {
+		try {
+			InstrumentationInfo instrumentationInfo = getContext()
+					.getPackageManager().getInstrumentationInfo(
+							getComponentName(), PackageManager.GET_META_DATA);
+			return instrumentationInfo.metaData;
+		} catch (NameNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
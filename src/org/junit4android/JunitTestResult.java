@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * TestResult for display after the test is finished
+ *
+ * @author Daniel Thommes
+ */
+public class JunitTestResult {
+
+	Description description;
+	List<Failure> failures = new ArrayList<Failure>(1);
+
+	int testCount;
+	boolean finished = false;
+	String ignoreReason = null;
+	// duration in ns, without the runner's own work before and after the test
+	long durationNanos;
+	// time in ns the runner spent on its own bookkeeping for the test
+	long overheadNanos;
+	// resources used by the test, null if not collected
+	TestMetrics metrics;
+	// earlier attempts of a test that has been run again after failing
+	List<JunitTestResult> previousAttempts = Collections.emptyList();
+
+	/**
+	 * @return the duration in ms
+	 */
+	public long getDuration() {
+		return durationNanos / 1000000;
+	}
+
+	/**
+	 * @return the duration in ns
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return the time in ns the runner spent on its own bookkeeping for the
+	 *         test (notifying the listeners, logging, recording failures),
+	 *         which is not part of the duration
+	 */
+	public long getOverheadNanos() {
+		return overheadNanos;
+	}
+
+	/**
+	 * @return the resources used by the test or null if they have not been
+	 *         collected
+	 */
+	public TestMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param description
+	 * @param testCount
+	 */
+	public JunitTestResult(Description description, int testCount) {
+		this.description = description;
+		this.testCount = testCount;
+	}
+
+	public JunitTestResult(Description description, int testCount,
+			String ignoreReason) {
+		this.description = description;
+		this.testCount = testCount;
+		this.ignoreReason = ignoreReason;
+	}
+
+	/**
+	 * @return the description
+	 */
+	public Description getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return the failures
+	 */
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	public boolean isIgnored() {
+		return ignoreReason != null;
+	}
+
+	public boolean addFailure(Failure object) {
+		return failures.add(object);
+	}
+
+	@Override
+	public String toString() {
+		return description.getClassName();
+	}
+
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	/**
+	 * @return the failed attempts before this one, if the test has been run
+	 *         again after failing
+	 */
+	public List<JunitTestResult> getPreviousAttempts() {
+		return previousAttempts;
+	}
+
+	/**
+	 * @return the number of times the test has been run
+	 */
+	public int getAttemptCount() {
+		return previousAttempts.size() + 1;
+	}
+
+	/**
+	 * @return true, if the test has passed after failing before
+	 */
+	public boolean isFlaky() {
+		return !hasFailures() && !previousAttempts.isEmpty();
+	}
+
+}
@@ -0,0 +1,1029 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Ignore;
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.Suite;
+
+import android.os.Debug;
+
+/**
+ * Runs JUnit3 and JUnit4 tests and test suites and hands their results to a
+ * {@link ResultListener}. The tests are found by a {@link TestDiscovery}
+ * before the run. By default all test classes are run one after another on
+ * the calling thread. With a thread pool size greater than one the test
+ * classes contained in the given suite are run in parallel on a bounded pool
+ * of worker threads. In that case the results of each class are buffered
+ * until the class has finished and are handed over class by class in the
+ * order of the plan.
+ * <p>
+ * If a maximum number of failures is set, the run is stopped as soon as that
+ * many tests have failed. The tests not run are then reported as ignored.
+ * <p>
+ * If a test timeout is set or test classes are annotated with
+ * {@link TestTimeout}, a watchdog thread interrupts tests exceeding their
+ * timeout and records the stacks of all threads as their failure. The test
+ * classes are then run on worker threads, so a test that cannot be
+ * interrupted, e.g. because of a deadlock, can be abandoned.
+ * <p>
+ * If retries are enabled, failed tests are run again one by one after the
+ * main run until they pass or the number of retries is used up. The results
+ * of test classes with failed tests are held back until then.
+ * <p>
+ * The stack trace of each failure is rendered once into a {@link TraceStore}
+ * and the results hold {@link RecordedFailure}s referring to it, so identical
+ * traces of many failed tests are kept only once.
+ * <p>
+ * A {@link RunnerFactory} can replace the runners the test classes are run
+ * with, e.g. a {@link TestWorkerPool} runs each class in one of its worker
+ * processes, so a test crashing or leaking can't take the whole run down.
+ *
+ * @author Daniel Thommes
+ */
+public class JunitTestRunner {
+
+	/**
+	 * Time to wait for a test to stop after it has been interrupted before
+	 * the thread running it is abandoned
+	 */
+	private static final long ABANDON_DELAY_MS = 5000;
+
+	/**
+	 * Receiver of the test results
+	 *
+	 * @author Daniel Thommes
+	 */
+	public interface ResultListener {
+
+		/**
+		 * Called when a test is about to be run (possibly on a worker thread)
+		 *
+		 * @param description
+		 */
+		void testStarted(Description description);
+
+		/**
+		 * Called for every finished or ignored test
+		 *
+		 * @param result
+		 */
+		void testResult(JunitTestResult result);
+
+		/**
+		 * @return true, if the test run shall be stopped
+		 */
+		boolean isCancelled();
+	}
+
+	/**
+	 * Creates the runners the test classes are actually run with
+	 *
+	 * @author Daniel Thommes
+	 */
+	public interface RunnerFactory {
+
+		/**
+		 * Called on the thread running the tests
+		 *
+		 * @param testClass
+		 * @param runner
+		 *            runner of the plan describing the tests to be run
+		 * @return runner running the tests and firing their events
+		 */
+		Runner createRunner(Class<?> testClass, Runner runner);
+	}
+
+	private final ResultListener resultListener;
+	/**
+	 * Number of threads running test classes in parallel, 1 for sequential
+	 * runs
+	 */
+	private final int threadPoolSize;
+	private int testCount = 0;
+	/**
+	 * Flag indicating whether the resources used by each test are collected
+	 */
+	private boolean collectMetrics = false;
+	/**
+	 * Number of failed tests after which the run is stopped, 0 for no limit
+	 */
+	private int maxFailures = 0;
+	private final AtomicInteger failedTestCount = new AtomicInteger();
+	/**
+	 * Tests whose results have been handed to the {@link ResultListener},
+	 * only tracked if the number of failures is limited
+	 */
+	private final Set<Description> reportedTests = new HashSet<Description>();
+	/**
+	 * Default timeout of each test in ms, 0 for no timeout
+	 */
+	private long testTimeout = 0;
+	/**
+	 * Timeouts of the test classes annotated with {@link TestTimeout} by
+	 * class name
+	 */
+	private final Map<String, Long> classTimeouts = new HashMap<String, Long>();
+	/**
+	 * Thread pool running the test classes in parallel or with timeouts,
+	 * null if the tests are run on the calling thread
+	 */
+	private ThreadPoolExecutor executor;
+	/**
+	 * Watchdog thread interrupting tests after their timeout, null if no
+	 * test has a timeout
+	 */
+	private ScheduledExecutorService watchdog;
+	/**
+	 * Number of times a failed test is run again, 0 for no retries
+	 */
+	private int maxRetries = 0;
+	/**
+	 * Results of the current test class, only collected if failed tests are
+	 * run again
+	 */
+	private List<JunitTestResult> classResults = new ArrayList<JunitTestResult>();
+	/**
+	 * Results of the test classes with failed tests, held back until the
+	 * failed tests have been run again
+	 */
+	private final List<List<JunitTestResult>> failedClassResults = new ArrayList<List<JunitTestResult>>();
+	/**
+	 * Pool of worker processes the test classes are run in, null if they are
+	 * run in this process
+	 */
+	private RunnerFactory runnerFactory;
+	/**
+	 * Stack traces of the failed tests, each rendered once
+	 */
+	private final TraceStore traceStore = new TraceStore();
+
+	/**
+	 * @param resultListener
+	 * @param threadPoolSize
+	 *            number of test classes to be run in parallel, values less
+	 *            than 2 let the tests run sequentially
+	 */
+	public JunitTestRunner(ResultListener resultListener, int threadPoolSize) {
+		this.resultListener = resultListener;
+		this.threadPoolSize = threadPoolSize;
+	}
+
+	/**
+	 * @param collectMetrics
+	 *            true to collect the resources used by each test as
+	 *            {@link TestMetrics}
+	 */
+	public void setCollectMetrics(boolean collectMetrics) {
+		this.collectMetrics = collectMetrics;
+	}
+
+	/**
+	 * @param maxFailures
+	 *            number of failed tests after which the run is stopped, 0 to
+	 *            run all tests regardless of failures
+	 */
+	public void setMaxFailures(int maxFailures) {
+		this.maxFailures = maxFailures;
+	}
+
+	/**
+	 * @return true, if the run has been stopped because the maximum number
+	 *         of failures has been reached
+	 */
+	public boolean isMaxFailuresReached() {
+		return maxFailures > 0 && failedTestCount.get() >= maxFailures;
+	}
+
+	/**
+	 * @param testTimeout
+	 *            default timeout of each test in ms, 0 for no timeout. Test
+	 *            classes can override it with {@link TestTimeout}.
+	 */
+	public void setTestTimeout(long testTimeout) {
+		this.testTimeout = testTimeout;
+	}
+
+	/**
+	 * @param maxRetries
+	 *            number of times a failed test is run again after the main
+	 *            run, 0 for no retries
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * @param runnerFactory
+	 *            factory of the runners the test classes are run with, null to
+	 *            run them with the runners of the plan
+	 */
+	public void setRunnerFactory(RunnerFactory runnerFactory) {
+		this.runnerFactory = runnerFactory;
+	}
+
+	/**
+	 * @return the store of the stack traces of the failed tests
+	 */
+	public TraceStore getTraceStore() {
+		return traceStore;
+	}
+
+	/**
+	 * Runs the given test class, which can also be a JUnit3 or JUnit4 test
+	 * suite.
+	 *
+	 * @param testClass
+	 */
+	public void run(Class<?> testClass) {
+		run(new TestDiscovery().discover(testClass, threadPoolSize > 1));
+	}
+
+	/**
+	 * Runs the tests of the given plan. For parallel runs the plan should
+	 * have been discovered with split suites, as only its entries are run in
+	 * parallel.
+	 *
+	 * @param plan
+	 */
+	public void run(TestPlan plan) {
+		testCount = plan.getTestCount();
+		// the annotations are read from the classes, so runners loaded from
+		// the discovery cache are not created before they are run
+		Set<Class<?>> checkedClasses = new HashSet<Class<?>>();
+		for (TestPlan.Entry entry : plan.getEntries()) {
+			findClassTimeouts(entry.getTestClass(), checkedClasses);
+		}
+		if (testTimeout > 0 || !classTimeouts.isEmpty()) {
+			watchdog = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"JUnit4Android-Watchdog");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		if (threadPoolSize > 1 || watchdog != null) {
+			int poolSize = Math.max(threadPoolSize, 1);
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 0,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		}
+		if (collectMetrics) {
+			Debug.startAllocCounting();
+		}
+		try {
+			if (threadPoolSize > 1) {
+				runTestsInParallel(plan.getEntries());
+			} else {
+				runTests(plan.getEntries());
+			}
+			if (maxRetries > 0 && !isMaxFailuresReached()) {
+				retryFailedTests();
+			}
+		} catch (StoppedByUserException e) {
+			RunLog.d("The test run has been stopped.");
+		} catch (InterruptedException e) {
+			RunLog.d("The test run has been interrupted.");
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+			if (watchdog != null) {
+				watchdog.shutdownNow();
+				watchdog = null;
+			}
+			if (collectMetrics) {
+				Debug.stopAllocCounting();
+			}
+		}
+		reportHeldResults();
+		if (isMaxFailuresReached()) {
+			RunLog.i("Stopped the test run after {} failed tests", maxFailures);
+		}
+	}
+
+	/**
+	 * Hands a result to the {@link ResultListener}. Results are handed over
+	 * one at a time, either by the thread running the tests or by the thread
+	 * that has called {@link #run(TestPlan)}.
+	 *
+	 * @param result
+	 */
+	private void reportResult(JunitTestResult result) {
+		if (maxFailures > 0 || watchdog != null) {
+			reportedTests.add(result.getDescription());
+		}
+		if (maxRetries > 0) {
+			if (!classResults.isEmpty()
+					&& !classResults.get(0).getDescription().getClassName()
+							.equals(result.getDescription().getClassName())) {
+				holdOrReportClassResults();
+			}
+			classResults.add(result);
+		} else {
+			resultListener.testResult(result);
+		}
+	}
+
+	/**
+	 * Hands the results of the current test class to the
+	 * {@link ResultListener} or holds them back if the class has failed
+	 * tests
+	 */
+	private void holdOrReportClassResults() {
+		boolean failed = false;
+		for (JunitTestResult result : classResults) {
+			failed |= result.hasFailures();
+		}
+		if (failed) {
+			failedClassResults.add(classResults);
+		} else {
+			for (JunitTestResult result : classResults) {
+				resultListener.testResult(result);
+			}
+		}
+		classResults = new ArrayList<JunitTestResult>();
+	}
+
+	/**
+	 * Hands all results held back to the {@link ResultListener}
+	 */
+	private void reportHeldResults() {
+		for (List<JunitTestResult> results : failedClassResults) {
+			for (JunitTestResult result : results) {
+				resultListener.testResult(result);
+			}
+		}
+		failedClassResults.clear();
+		for (JunitTestResult result : classResults) {
+			resultListener.testResult(result);
+		}
+		classResults.clear();
+	}
+
+	/**
+	 * Runs the failed tests of the classes held back again
+	 *
+	 * @throws InterruptedException
+	 */
+	private void retryFailedTests() throws InterruptedException {
+		holdOrReportClassResults();
+		for (List<JunitTestResult> results : failedClassResults) {
+			for (int i = 0; i < results.size(); i++) {
+				if (resultListener.isCancelled()) {
+					return;
+				}
+				if (results.get(i).hasFailures()) {
+					results.set(i, retry(results.get(i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a failed test again until it passes or {@link #maxRetries} is
+	 * reached
+	 *
+	 * @param failedResult
+	 * @return the result of the last attempt with the earlier attempts
+	 * @throws InterruptedException
+	 */
+	private JunitTestResult retry(JunitTestResult failedResult)
+			throws InterruptedException {
+		List<JunitTestResult> attempts = new ArrayList<JunitTestResult>();
+		JunitTestResult result = failedResult;
+		while (result.hasFailures() && attempts.size() < maxRetries
+				&& !resultListener.isCancelled()) {
+			JunitTestResult attempt = runAttempt(failedResult.getDescription());
+			if (attempt == null) {
+				break;
+			}
+			attempts.add(result);
+			result = attempt;
+		}
+		if (!attempts.isEmpty()) {
+			RunLog.i("{} has {} after {} attempts",
+					failedResult.getDescription(),
+					result.hasFailures() ? "failed" : "passed",
+					attempts.size() + 1);
+			result.previousAttempts = attempts;
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a single test with a new runner for its test class
+	 *
+	 * @param description
+	 * @return the result or null, if the test cannot be run on its own
+	 * @throws InterruptedException
+	 */
+	private JunitTestResult runAttempt(Description description)
+			throws InterruptedException {
+		Class<?> testClass = description.getTestClass();
+		if (testClass == null) {
+			return null;
+		}
+		TestPlan.Entry entry = new TestPlan.Entry(testClass, Request
+				.classWithoutSuiteMethod(testClass).getRunner());
+		if (!entry.filter(Filter.matchMethodDescription(description))) {
+			return null;
+		}
+		TestResultRunListener listener = new TestResultRunListener(entry,
+				new ArrayList<JunitTestResult>());
+		listener.retry = true;
+		List<JunitTestResult> results;
+		if (executor == null) {
+			results = listener.call();
+		} else {
+			listener.setFuture(executor.submit(listener));
+			results = getResults(listener);
+		}
+		for (JunitTestResult result : results) {
+			if (result.getDescription().equals(description)) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reports the tests of a plan entry that have not been run because of the
+	 * maximum number of failures as ignored
+	 *
+	 * @param entry
+	 */
+	private void reportTestsNotRun(TestPlan.Entry entry) {
+		if (isMaxFailuresReached()) {
+			reportTestsNotRun(entry.getRunner().getDescription(),
+					"Not run, the test run has been stopped after "
+							+ maxFailures + " failed tests");
+		}
+	}
+
+	private void reportTestsNotRun(Description description, String reason) {
+		if (description.isTest()) {
+			if (!reportedTests.contains(description)) {
+				reportResult(new JunitTestResult(description, testCount,
+						reason));
+			}
+		}
+		for (Description child : description.getChildren()) {
+			reportTestsNotRun(child, reason);
+		}
+	}
+
+	/**
+	 * Finds the test classes annotated with {@link TestTimeout} among the
+	 * given class and the classes of its {@link Suite.SuiteClasses}
+	 *
+	 * @param testClass
+	 * @param checkedClasses
+	 */
+	private void findClassTimeouts(Class<?> testClass,
+			Set<Class<?>> checkedClasses) {
+		if (!checkedClasses.add(testClass)) {
+			return;
+		}
+		TestTimeout timeout = testClass.getAnnotation(TestTimeout.class);
+		if (timeout != null) {
+			classTimeouts.put(testClass.getName(), timeout.value());
+		}
+		Suite.SuiteClasses suiteClasses = testClass
+				.getAnnotation(Suite.SuiteClasses.class);
+		if (suiteClasses != null) {
+			for (Class<?> suiteClass : suiteClasses.value()) {
+				findClassTimeouts(suiteClass, checkedClasses);
+			}
+		}
+	}
+
+	/**
+	 * @param description
+	 * @return the timeout of the test in ms, 0 for no timeout
+	 */
+	private long getTimeout(Description description) {
+		Long classTimeout = classTimeouts.get(description.getClassName());
+		return classTimeout != null ? classTimeout : testTimeout;
+	}
+
+	/**
+	 * Runs the given plan entries one after another. With timeouts, the
+	 * entries are run on a worker thread, so the run can go on if a test does
+	 * not stop after it has been interrupted.
+	 *
+	 * @param entries
+	 * @throws InterruptedException
+	 */
+	private void runTests(List<TestPlan.Entry> entries)
+			throws InterruptedException {
+		for (TestPlan.Entry entry : entries) {
+			if (resultListener.isCancelled()) {
+				break;
+			}
+			TestResultRunListener listener = new TestResultRunListener(entry,
+					null);
+			if (executor == null) {
+				listener.call();
+				reportTestsNotRun(entry);
+			} else {
+				listener.setFuture(executor.submit(listener));
+				awaitResults(listener);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given plan entries on a pool of {@link #threadPoolSize}
+	 * threads. The results of each entry are buffered and handed to the
+	 * {@link ResultListener} in the order of the plan as soon as the entry and
+	 * all entries before it have finished. Entries stopped because of the
+	 * maximum number of failures still deliver the results they have got,
+	 * followed by their tests not run.
+	 *
+	 * @param entries
+	 * @throws InterruptedException
+	 */
+	private void runTestsInParallel(List<TestPlan.Entry> entries)
+			throws InterruptedException {
+		RunLog.d("Running {} test classes on {} threads", entries.size(),
+				threadPoolSize);
+		List<TestResultRunListener> listeners = new ArrayList<TestResultRunListener>(
+				entries.size());
+		for (TestPlan.Entry entry : entries) {
+			TestResultRunListener listener = new TestResultRunListener(entry,
+					new ArrayList<JunitTestResult>());
+			listener.setFuture(executor.submit(listener));
+			listeners.add(listener);
+		}
+		for (TestResultRunListener listener : listeners) {
+			if (resultListener.isCancelled()) {
+				break;
+			}
+			awaitResults(listener);
+		}
+	}
+
+	/**
+	 * Waits for an entry run by the {@link #executor} to finish and hands its
+	 * buffered results to the {@link ResultListener}. If the entry has been
+	 * abandoned, its worker thread is replaced by a new one and the tests of
+	 * the entry not run yet are run with a new runner.
+	 *
+	 * @param listener
+	 *            listener of the entry
+	 * @throws InterruptedException
+	 */
+	private void awaitResults(TestResultRunListener listener)
+			throws InterruptedException {
+		TestPlan.Entry entry = listener.entry;
+		while (listener != null) {
+			for (JunitTestResult result : getResults(listener)) {
+				reportResult(result);
+			}
+			TestPlan.Entry testsNotRun = listener.abandoned ? entry
+					.copy(new NotReportedFilter()) : null;
+			if (testsNotRun != null) {
+				listener = new TestResultRunListener(testsNotRun,
+						listener.buffer == null ? null
+								: new ArrayList<JunitTestResult>());
+				listener.setFuture(executor.submit(listener));
+			} else {
+				listener = null;
+			}
+		}
+		reportTestsNotRun(entry);
+	}
+
+	/**
+	 * Waits for an entry run by the {@link #executor} to finish. If the entry
+	 * has been abandoned, its worker thread is replaced by a new one.
+	 *
+	 * @param listener
+	 *            listener of the entry
+	 * @return the buffered results of the entry
+	 * @throws InterruptedException
+	 */
+	private List<JunitTestResult> getResults(TestResultRunListener listener)
+			throws InterruptedException {
+		try {
+			return listener.future.get();
+		} catch (CancellationException e) {
+			List<JunitTestResult> results = listener.getAbandonedResults();
+			RunLog.w("Abandoned the thread running {}",
+					listener.result.getDescription());
+			executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+			executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof StoppedByUserException) {
+				throw (StoppedByUserException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * {@link Filter} selecting the tests whose results have not been handed
+	 * to the {@link ResultListener} yet
+	 *
+	 * @author Daniel Thommes
+	 */
+	private class NotReportedFilter extends Filter {
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return !reportedTests.contains(description);
+			}
+			for (Description child : description.getChildren()) {
+				if (shouldRun(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String describe() {
+			return "tests not reported yet";
+		}
+	}
+
+	/**
+	 * {@link RunNotifier} recording the time it takes to dispatch each test
+	 * event to the listeners in the {@link RunnerProfile}
+	 *
+	 * @author Daniel Thommes
+	 */
+	private static class ProfiledRunNotifier extends RunNotifier {
+
+		@Override
+		public void fireTestStarted(Description description)
+				throws StoppedByUserException {
+			long startTime = RunnerProfile.start();
+			try {
+				super.fireTestStarted(description);
+			} finally {
+				RunnerProfile.stop(RunnerProfile.NOTIFIER_DISPATCH, startTime);
+			}
+		}
+
+		@Override
+		public void fireTestFailure(Failure failure) {
+			long startTime = RunnerProfile.start();
+			super.fireTestFailure(failure);
+			RunnerProfile.stop(RunnerProfile.NOTIFIER_DISPATCH, startTime);
+		}
+
+		@Override
+		public void fireTestAssumptionFailed(Failure failure) {
+			long startTime = RunnerProfile.start();
+			super.fireTestAssumptionFailed(failure);
+			RunnerProfile.stop(RunnerProfile.NOTIFIER_DISPATCH, startTime);
+		}
+
+		@Override
+		public void fireTestIgnored(Description description) {
+			long startTime = RunnerProfile.start();
+			super.fireTestIgnored(description);
+			RunnerProfile.stop(RunnerProfile.NOTIFIER_DISPATCH, startTime);
+		}
+
+		@Override
+		public void fireTestFinished(Description description) {
+			long startTime = RunnerProfile.start();
+			super.fireTestFinished(description);
+			RunnerProfile.stop(RunnerProfile.NOTIFIER_DISPATCH, startTime);
+		}
+	}
+
+	/**
+	 * {@link RunListener} running the tests of a plan entry and creating
+	 * their {@link JunitTestResult}s. Results are either handed to the
+	 * {@link ResultListener} directly or collected in a buffer, if one is
+	 * given. If the {@link #watchdog} is active, each test is interrupted
+	 * when it exceeds its timeout and abandoned if it still does not stop.
+	 *
+	 * @author Daniel Thommes
+	 */
+	private class TestResultRunListener extends RunListener implements
+			Callable<List<JunitTestResult>> {
+
+		private final TestPlan.Entry entry;
+		private final RunNotifier notifier = RunnerProfile
+				.isEnabled() ? new ProfiledRunNotifier() : new RunNotifier();
+		private final List<JunitTestResult> buffer;
+
+		/**
+		 * This result will be filled during the run and then added to the
+		 * result list of this activity
+		 */
+		JunitTestResult result;
+
+		/**
+		 * Time the running test has started at in ns, after the runner's
+		 * bookkeeping
+		 */
+		long startTime;
+		/**
+		 * Time in ns spent on recording the failures of the running test,
+		 * which is not part of its duration
+		 */
+		long failureNanos;
+
+		/**
+		 * Future of the entry, if it is run by the {@link #executor}
+		 */
+		Future<List<JunitTestResult>> future;
+		/**
+		 * Timeout of the running test
+		 */
+		private ScheduledFuture<?> timeoutFuture;
+		/**
+		 * Flag indicating whether the thread running the entry has been
+		 * given up because a test did not stop after its timeout
+		 */
+		boolean abandoned = false;
+		/**
+		 * Flag indicating whether a failed test is run again. Failures of
+		 * retries don't count for the maximum number of failures.
+		 */
+		boolean retry = false;
+		/**
+		 * Flag indicating whether the watchdog has interrupted the thread
+		 * running the current test
+		 */
+		private boolean testInterrupted = false;
+
+		/**
+		 * @param entry
+		 * @param buffer
+		 *            list to collect the results in or null to hand them over
+		 *            directly
+		 */
+		public TestResultRunListener(TestPlan.Entry entry,
+				List<JunitTestResult> buffer) {
+			this.entry = entry;
+			this.buffer = buffer;
+			notifier.addListener(this);
+		}
+
+		/**
+		 * Runs the tests of the entry
+		 *
+		 * @return the buffered results
+		 */
+		public List<JunitTestResult> call() {
+			if (retry || !isMaxFailuresReached()) {
+				try {
+					if (runnerFactory != null) {
+						runnerFactory.createRunner(entry.getTestClass(),
+								entry.getRunner()).run(notifier);
+					} else {
+						entry.getRunner().run(notifier);
+					}
+				} catch (StoppedByUserException e) {
+					if (!isMaxFailuresReached() && !abandoned) {
+						throw e;
+					}
+				}
+			}
+			return buffer != null ? buffer : Collections
+					.<JunitTestResult> emptyList();
+		}
+
+		synchronized void setFuture(Future<List<JunitTestResult>> future) {
+			this.future = future;
+			if (abandoned) {
+				future.cancel(true);
+			}
+		}
+
+		@Override
+		public synchronized void testStarted(Description description)
+				throws Exception {
+			long listenerStartTime = System.nanoTime();
+			resultListener.testStarted(description);
+			RunLog.d("Test started: {}", description);
+			stopIfCancelled();
+			result = new JunitTestResult(description, testCount);
+			if (collectMetrics) {
+				result.metrics = TestMetrics.start();
+			}
+			long timeout = watchdog == null ? 0 : getTimeout(description);
+			if (timeout > 0) {
+				timeoutFuture = watchdog.schedule(new Timeout(result, Thread
+						.currentThread(), timeout), timeout,
+						TimeUnit.MILLISECONDS);
+			}
+			failureNanos = 0;
+			startTime = System.nanoTime();
+			result.overheadNanos = startTime - listenerStartTime;
+		}
+
+		@Override
+		public synchronized void testIgnored(Description description)
+				throws Exception {
+			if (abandoned) {
+				return;
+			}
+			RunLog.d("Test ignored: {}", description);
+			stopIfCancelled();
+			String ignoreReason = "";
+			// Getting the reason for the ignore from the Ignore
+			// annotation
+			// http://tech.groups.yahoo.com/group/junit/messages/20125?threaded=1&m=e&var=1&tidx=1
+			Collection<Annotation> annotations = description.getAnnotations();
+			for (Iterator<Annotation> iterator = annotations.iterator(); iterator
+					.hasNext();) {
+				Annotation annotation = iterator.next();
+				if (annotation.annotationType().equals(Ignore.class)) {
+					Ignore ignore = (Ignore) annotation;
+					ignoreReason = ignore.value();
+				}
+			}
+			publish(new JunitTestResult(description, testCount, ignoreReason));
+		}
+
+		@Override
+		public synchronized void testFailure(Failure failure)
+				throws Exception {
+			if (abandoned) {
+				return;
+			}
+			long failureStartTime = System.nanoTime();
+			stopIfCancelled();
+			RecordedFailure recordedFailure = traceStore.record(failure);
+			RunLog.e("Test Failure message: {}", recordedFailure.getMessage());
+			RunLog.e("Test Failure stacktrace:\n{}", recordedFailure.getTrace());
+			result.addFailure(recordedFailure);
+			long elapsed = System.nanoTime() - failureStartTime;
+			failureNanos += elapsed;
+			result.overheadNanos += elapsed;
+		}
+
+		@Override
+		public synchronized void testFinished(Description description)
+				throws Exception {
+			long endTime = System.nanoTime();
+			if (abandoned) {
+				return;
+			}
+			if (timeoutFuture != null) {
+				timeoutFuture.cancel(false);
+				timeoutFuture = null;
+			}
+			if (testInterrupted) {
+				// a test ignoring the interrupt must not leave it to the next
+				// test run on this thread
+				Thread.interrupted();
+				testInterrupted = false;
+			}
+			if (result.metrics != null) {
+				result.metrics.finish();
+			}
+			RunLog.d("Test finished: {}", description);
+			stopIfCancelled();
+			result.finished = true;
+			result.durationNanos = endTime - startTime - failureNanos;
+			// the time of handing the result over is not known before
+			result.overheadNanos += System.nanoTime() - endTime;
+			publish(result);
+			if (!retry && result.hasFailures()
+					&& failedTestCount.incrementAndGet() == maxFailures) {
+				notifier.pleaseStop();
+			}
+		}
+
+		private void publish(JunitTestResult testResult) {
+			if (buffer != null) {
+				buffer.add(testResult);
+			} else {
+				reportResult(testResult);
+			}
+		}
+
+		/**
+		 * @return the results of an abandoned entry: the buffered ones and
+		 *         the result of the test that did not stop
+		 */
+		synchronized List<JunitTestResult> getAbandonedResults() {
+			List<JunitTestResult> results = new ArrayList<JunitTestResult>();
+			if (buffer != null) {
+				results.addAll(buffer);
+			}
+			result.finished = true;
+			result.durationNanos = System.nanoTime() - startTime - failureNanos;
+			results.add(result);
+			return results;
+		}
+
+		/**
+		 * If the run is cancelled or the maximum number of failures has been
+		 * reached (by another thread), stop the test run
+		 */
+		private void stopIfCancelled() {
+			if (resultListener.isCancelled() || isMaxFailuresReached()) {
+				RunLog.d("The TestRunTask has been finished, "
+						+ "asking the testRunner to stop.");
+				notifier.pleaseStop();
+			}
+		}
+
+		/**
+		 * Task of the {@link #watchdog} for a running test. When the test's
+		 * timeout has expired, it records the stacks of all threads as
+		 * failure and interrupts the test. If the test is still running after
+		 * {@link JunitTestRunner#ABANDON_DELAY_MS}, the thread running it is
+		 * abandoned and the run goes on without it.
+		 */
+		private class Timeout implements Runnable {
+
+			private final JunitTestResult timedOutResult;
+			private final Thread thread;
+			private final long timeout;
+			private boolean interrupted = false;
+
+			public Timeout(JunitTestResult timedOutResult, Thread thread,
+					long timeout) {
+				this.timedOutResult = timedOutResult;
+				this.thread = thread;
+				this.timeout = timeout;
+			}
+
+			public void run() {
+				synchronized (TestResultRunListener.this) {
+					if (timedOutResult != result || result.finished) {
+						return;
+					}
+					if (!interrupted) {
+						RunLog.w("Interrupting {} after {}ms",
+								result.getDescription(), timeout);
+						result.addFailure(traceStore.record(new Failure(result
+								.getDescription(), new TestTimeoutException(
+								result.getDescription(), timeout, thread))));
+						interrupted = true;
+						testInterrupted = true;
+						thread.interrupt();
+						timeoutFuture = watchdog.schedule(this,
+								ABANDON_DELAY_MS, TimeUnit.MILLISECONDS);
+					} else {
+						abandoned = true;
+						notifier.pleaseStop();
+						if (future != null) {
+							future.cancel(true);
+						}
+					}
+				}
+			}
+		}
+	}
+}
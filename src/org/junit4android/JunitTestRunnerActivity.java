@@ -16,30 +16,16 @@
 
 package org.junit4android;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
-
-import junit.framework.TestCase;
-import junit.framework.TestSuite;
-
-import org.junit.Ignore;
+import java.io.File;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.runner.Description;
-import org.junit.runner.Request;
-import org.junit.runner.Runner;
 import org.junit.runner.notification.Failure;
-import org.junit.runner.notification.RunListener;
-import org.junit.runner.notification.RunNotifier;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -49,10 +35,12 @@ import android.database.DataSetObserver;
 import android.graphics.Color;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Gravity;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
@@ -75,117 +63,130 @@ public class JunitTestRunnerActivity extends Activity {
 	private static final String LOGTAG = "JUnit4Android";
 
 	/**
-	 * TestResult for display after the test is finished
+	 * {@link AsyncTask} that runs all tests in the background
 	 *
 	 * @author Daniel Thommes
 	 */
-	protected class JunitTestResult {
-
-		Description description;
-		List<Failure> failures = new LinkedList<Failure>();
-
-		int testCount;
-		boolean finished = false;
-		String ignoreReason = null;
-		// duration in ms
-		long duration;
+	private class TestRunTask extends AsyncTask<TestRunSession, Void, Void>
+			implements JunitTestRunner.ResultListener {
 
+		boolean runHasFailures = false;
+		int progress = 0;
 		/**
-		 * @return the duration
+		 * Results waiting to be added to the list view by the next flush
 		 */
-		public long getDuration() {
-			return duration;
-		}
-
+		private final ConcurrentLinkedQueue<JunitTestResult> pendingResults = new ConcurrentLinkedQueue<JunitTestResult>();
+		private final AtomicInteger pendingResultCount = new AtomicInteger();
 		/**
-		 * @param description
-		 * @param testCount
+		 * Flag indicating whether a flush has been posted to the UI thread
 		 */
-		public JunitTestResult(Description description, int testCount) {
-			this.description = description;
-			this.testCount = testCount;
-		}
-
-		public JunitTestResult(Description description, int testCount,
-				String ignoreReason) {
-			this.description = description;
-			this.testCount = testCount;
-			this.ignoreReason = ignoreReason;
-		}
-
+		private final AtomicBoolean flushScheduled = new AtomicBoolean();
 		/**
-		 * @return the description
+		 * Name of the running test to be displayed by the next flush
 		 */
-		public Description getDescription() {
-			return description;
-		}
-
+		private volatile String currentTestName;
 		/**
-		 * @return the failures
+		 * Time in ns the posted flush is due on the UI thread, 0 if none is
+		 * posted
 		 */
-		public List<Failure> getFailures() {
-			return failures;
-		}
-
-		public boolean isIgnored() {
-			return ignoreReason != null;
-		}
-
-		public boolean addFailure(Failure object) {
-			return failures.add(object);
+		private volatile long flushDueTime;
+		private final Runnable flushRunnable = new Runnable() {
+			public void run() {
+				flushPendingResults();
+			}
+		};
+		/**
+		 * {@inheritDoc}
+		 *
+		 * @see android.os.AsyncTask#doInBackground(Params[])
+		 */
+		protected Void doInBackground(TestRunSession... sessions) {
+			for (TestRunSession session : sessions) {
+				session.run(this);
+			}
+			return null;
 		}
 
-		@Override
-		public String toString() {
-			return description.getClassName();
+		/**
+		 * Adds the pending results to the list view and updates the progress
+		 * bar and the name of the current test. Runs on the UI thread.
+		 */
+		private void flushPendingResults() {
+			long startTime = RunnerProfile.start();
+			long dueTime = flushDueTime;
+			if (dueTime != 0) {
+				RunnerProfile.record(RunnerProfile.UI_QUEUE_DELAY,
+						Math.max(0, startTime - dueTime));
+				flushDueTime = 0;
+			}
+			flushScheduled.set(false);
+			if (currentTestName != null) {
+				testNameTextView.setText(currentTestName);
+			}
+			int flushed = 0;
+			JunitTestResult result;
+			while ((result = pendingResults.poll()) != null) {
+				pendingResultCount.decrementAndGet();
+				progressBar.setMax(result.testCount);
+				runHasFailures |= result.hasFailures();
+				testResults.add(result);
+				++progress;
+				++flushed;
+			}
+			if (flushed == 0) {
+				return;
+			}
+			RunLog.d("Test progress: {}/{}", progress, progressBar.getMax());
+			if (runHasFailures) {
+				progressBar.setSecondaryProgress(progress);
+			} else {
+				progressBar.setProgress(progress);
+			}
+			updateTestListView();
+			RunnerProfile.stop(RunnerProfile.ADAPTER_UPDATE, startTime);
 		}
 
-		public boolean hasFailures() {
-			return !failures.isEmpty();
+		/**
+		 * Posts a flush to the UI thread, at most one per frame or directly
+		 * if {@link #MAX_RESULT_BATCH_SIZE} results are waiting.
+		 *
+		 * @param batchFull
+		 */
+		private void scheduleFlush(boolean batchFull) {
+			if (batchFull) {
+				flushScheduled.set(true);
+				uiHandler.removeCallbacks(flushRunnable);
+				flushDueTime = System.nanoTime();
+				uiHandler.post(flushRunnable);
+			} else if (flushScheduled.compareAndSet(false, true)) {
+				flushDueTime = System.nanoTime() + FRAME_INTERVAL_MS * 1000000;
+				uiHandler.postDelayed(flushRunnable, FRAME_INTERVAL_MS);
+			}
 		}
 
-	}
-
-	/**
-	 * {@link AsyncTask} that runs all tests in the background
-	 *
-	 * @author Daniel Thommes
-	 */
-	private class TestRunTask extends
-			AsyncTask<Class<?>, JunitTestResult, Void> {
-
-		boolean runHasFailures = false;
-		int progress = 0;
-		boolean rootTest = true;
-		private int testCount = 0;
-
 		/**
 		 * {@inheritDoc}
 		 *
-		 * @see android.os.AsyncTask#doInBackground(Params[])
+		 * @see org.junit4android.JunitTestRunner.ResultListener#testStarted(org.junit.runner.Description)
 		 */
-		protected Void doInBackground(Class<?>... testClasses) {
-			runTests(testClasses);
-			return null;
+		public void testStarted(Description description) {
+			long startTime = RunnerProfile.start();
+			currentTestName = description.getMethodName();
+			scheduleFlush(false);
+			RunnerProfile.stop(RunnerProfile.UI_HAND_OFF, startTime);
 		}
 
 		/**
 		 * {@inheritDoc}
 		 *
-		 * @see android.os.AsyncTask#onProgressUpdate(Progress[])
+		 * @see org.junit4android.JunitTestRunner.ResultListener#testResult(org.junit4android.JunitTestResult)
 		 */
-		protected void onProgressUpdate(JunitTestResult... results) {
-			JunitTestResult result = results[0];
-			progressBar.setMax(result.testCount);
-			++progress;
-			Log.d(LOGTAG, "Test progress: " + progress + "/" + testCount);
-			runHasFailures |= result.hasFailures();
-			if (runHasFailures) {
-				progressBar.setSecondaryProgress(progress);
-			} else {
-				progressBar.setProgress(progress);
-			}
-			addTestResult(result);
+		public void testResult(JunitTestResult result) {
+			long startTime = RunnerProfile.start();
+			pendingResults.add(result);
+			int pendingCount = pendingResultCount.incrementAndGet();
+			scheduleFlush(pendingCount == MAX_RESULT_BATCH_SIZE);
+			RunnerProfile.stop(RunnerProfile.UI_HAND_OFF, startTime);
 		}
 
 		/**
@@ -195,33 +196,39 @@ public class JunitTestRunnerActivity extends Activity {
 		 */
 		@Override
 		protected void onPostExecute(Void result) {
+			uiHandler.removeCallbacks(flushRunnable);
+			flushPendingResults();
 			synchronized (JunitTestRunnerActivity.this) {
 				startButton.setEnabled(true);
 				setProgressBarIndeterminateVisibility(false);
-				testListView.collapseGroup(testResultMap.size() - 1);
+				testListView.collapseGroup(testResults.getGroupCount() - 1);
 			}
 			setCurrentTestTextView(JunitTestRunnerActivity.this.testClass
 					.getName());
-			Set<Entry<String, List<JunitTestResult>>> entrySet = testResultMap
-					.entrySet();
-			// TEST-org.apache.commons.beanutils.expression.DefaultResolverTestCase
-			String directoryName = "junit4android/reports/";
-			String fileName = "TEST-" + testClass.getName() + ".xml";
-			try {
-				JunitXmlWriter.writeXml(directoryName, fileName, testResultMap);
+			RuntimeException reportException = testRunSession
+					.getReportException();
+			if (reportException == null) {
 				Toast.makeText(
 						JunitTestRunnerActivity.this,
-						"Test Report has been saved as \n" + directoryName
-								+ fileName, Toast.LENGTH_LONG).show();
-			} catch (RuntimeException e) {
-				e.printStackTrace();
+						"Test Report has been saved as \n"
+								+ testRunSession.getReportLocation(),
+						Toast.LENGTH_LONG).show();
+			} else {
+				reportException.printStackTrace();
 				Toast.makeText(
 						JunitTestRunnerActivity.this,
-						e.getCause().getClass().getSimpleName() + ": "
-								+ e.getCause().getMessage(), Toast.LENGTH_LONG)
-						.show();
+						reportException.getCause().getClass().getSimpleName()
+								+ ": " + reportException.getCause().getMessage(),
+						Toast.LENGTH_LONG).show();
+			}
+			DurationStatistics durationStatistics = testRunSession
+					.getDurationStatistics();
+			if (durationStatistics != null && durationStatistics.getCount() > 0) {
+				new AlertDialog.Builder(JunitTestRunnerActivity.this)
+						.setTitle("Test durations")
+						.setMessage(durationStatistics.format())
+						.setPositiveButton(android.R.string.ok, null).show();
 			}
-
 		}
 
 		/**
@@ -235,163 +242,6 @@ public class JunitTestRunnerActivity extends Activity {
 					"JUnit4Android: The test run has been cancelled.",
 					Toast.LENGTH_LONG).show();
 		}
-
-		/**
-		 * Helper to get an Junit3 test suite's static suite method
-		 *
-		 * @param clazz
-		 * @return the suite method
-		 */
-		private Method getSuiteMethod(Class<?> clazz) {
-			Method method;
-			try {
-				method = clazz.getMethod("suite");
-			} catch (Exception e) {
-				return null;
-			}
-			if (Modifier.isStatic(method.getModifiers())) {
-				return method;
-			}
-			return null;
-		}
-
-		/**
-		 * @param testClasses
-		 */
-		@SuppressWarnings("unchecked")
-		private void runTests(Class<?>... testClasses) {
-			for (Class<?> testClass : testClasses) {
-				if (!TestCase.class.isAssignableFrom(testClass)) {
-					/*************************************************************
-					 * JUnit3 TestSuite handling because the below runner
-					 * couldn't do it
-					 *************************************************************/
-					Method suiteMethod = getSuiteMethod(testClass);
-					if (suiteMethod != null) {
-						try {
-							TestSuite suite = (TestSuite) suiteMethod.invoke(
-									null, (Object[]) null);
-							List<?> tests = Collections.list(suite.tests());
-							// Find out the number of tests
-							if (rootTest) {
-								for (Object test : tests) {
-									Request runnerRequest = Request
-											.classWithoutSuiteMethod(test
-													.getClass());
-									Runner runner = runnerRequest.getRunner();
-									testCount += runner.testCount();
-								}
-								rootTest = false;
-							}
-							for (Object test : tests) {
-								Class<? extends Object> testCaseClass = test
-										.getClass();
-								runTests(testCaseClass);
-							}
-							// Test methods will not be considered in a suite
-							continue;
-						} catch (Exception e) {
-							throw new RuntimeException(e);
-						}
-					}
-				}
-
-				/*************************************************************
-				 * JUnit3 TestCases, JUnit4 Tests and Suites are run this way
-				 *************************************************************/
-				Request runnerRequest = Request
-						.classWithoutSuiteMethod(testClass);
-				Runner runner = runnerRequest.getRunner();
-				if (rootTest) {
-					testCount = runner.testCount();
-					rootTest = false;
-				}
-				final RunNotifier notifier = new RunNotifier();
-
-				notifier.addListener(new RunListener() {
-
-					/**
-					 * This result will be filled during the run and then added
-					 * to the result list of this activity
-					 */
-					JunitTestResult result;
-
-					long startTime;
-
-					@Override
-					public void testStarted(Description description)
-							throws Exception {
-						startTime = System.nanoTime();
-						String displayName = description.getDisplayName();
-						setCurrentTestTextView(description.getMethodName());
-						Log.d(LOGTAG, "Test started: " + displayName);
-						stopIfCancelled();
-						result = new JunitTestResult(description, testCount);
-					}
-
-					@Override
-					public void testIgnored(Description description)
-							throws Exception {
-						Log.d(LOGTAG,
-								"Test ignored: " + description.getMethodName());
-						stopIfCancelled();
-						String ignoreReason = "";
-						// Getting the reason for the ignore from the Ignore
-						// annotation
-						// http://tech.groups.yahoo.com/group/junit/messages/20125?threaded=1&m=e&var=1&tidx=1
-						Collection<Annotation> annotations = description
-								.getAnnotations();
-						for (Iterator<Annotation> iterator = annotations
-								.iterator(); iterator.hasNext();) {
-							Annotation annotation = iterator.next();
-							if (annotation.annotationType()
-									.equals(Ignore.class)) {
-								Ignore ignore = (Ignore) annotation;
-								ignoreReason = ignore.value();
-							}
-						}
-						JunitTestResult junitTestResult = new JunitTestResult(
-								description, testCount, ignoreReason);
-						publishProgress(junitTestResult);
-					}
-
-					@Override
-					public void testFailure(Failure failure) throws Exception {
-						stopIfCancelled();
-						Log.e(LOGTAG,
-								"Test Failure message: " + failure.getMessage());
-						Log.e(LOGTAG, "Test Failure stacktrace:\n",
-								failure.getException());
-						result.addFailure(failure);
-					}
-
-					@Override
-					public void testFinished(Description description)
-							throws Exception {
-						Log.d(LOGTAG,
-								"Test finished: "
-										+ description.getDisplayName());
-						stopIfCancelled();
-						result.finished = true;
-						result.duration = (System.nanoTime() - startTime) / 1000000;
-						publishProgress(result);
-					}
-
-					/**
-					 * If the runTask is cancelled, stop the test run
-					 */
-					private void stopIfCancelled() {
-						if (isCancelled()) {
-							Log.d(LOGTAG,
-									"The TestRunTask has been finished, asking the testRunner to stop.");
-							notifier.pleaseStop();
-						}
-					}
-
-				});
-				runner.run(notifier);
-			}
-		}
 	}
 
 	private void setCurrentTestTextView(final String displayName) {
@@ -430,22 +280,18 @@ public class JunitTestRunnerActivity extends Activity {
 		}
 
 		@Override
-		@SuppressWarnings("unchecked")
-		public List<JunitTestResult> getGroup(int groupPosition) {
-			Object[] groups = testResultMap.values().toArray();
-			Object group = groups[groupPosition];
-			return (List<JunitTestResult>) group;
+		public TestResultStore.Group getGroup(int groupPosition) {
+			return testResults.getGroup(groupPosition);
 		}
 
 		@Override
 		public int getGroupCount() {
-			return testResultMap.size();
+			return testResults.getGroupCount();
 		}
 
 		@Override
 		public JunitTestResult getChild(int groupPosition, int childPosition) {
-			List<JunitTestResult> group = getGroup(groupPosition);
-			return group.get(childPosition);
+			return testResults.getResult(groupPosition, childPosition);
 		}
 
 		@Override
@@ -509,13 +355,9 @@ public class JunitTestRunnerActivity extends Activity {
 		public View getGroupView(int groupPosition, boolean isExpanded,
 				View convertView, ViewGroup parent) {
 			TextView textView = getGenericView();
-			List<JunitTestResult> group = getGroup(groupPosition);
-			boolean hasFailures = false;
-			for (JunitTestResult myTestResult : group) {
-				hasFailures |= myTestResult.hasFailures();
-			}
-			textView.setText(group.get(0).description.getClassName());
-			if (hasFailures) {
+			TestResultStore.Group group = getGroup(groupPosition);
+			textView.setText(group.getName());
+			if (group.hasFailures()) {
 				textView.setTextColor(Color.RED);
 			} else {
 				textView.setTextColor(Color.GREEN);
@@ -547,21 +389,39 @@ public class JunitTestRunnerActivity extends Activity {
 	}
 
 	/**
-	 * Key for the extra to enable Autorun
+	 * Minimum interval between two updates of the list view in milliseconds
 	 */
-	private static final String AUTORUN_EXTRA = "autorun";
+	private static final long FRAME_INTERVAL_MS = 16;
 	/**
-	 * Key for the extra naming the test class
+	 * Number of pending results that lead to an update of the list view
+	 * without waiting for the next frame
 	 */
-	private static final String TEST_CLASS_EXTRA = "testClass";
+	private static final int MAX_RESULT_BATCH_SIZE = 100;
 	/**
 	 * ID for the context menu item to rerun a selected test
 	 */
 	private static final int RERUN_MENU_ITEM_ID = 0;
 	/**
-	 * Map with test results being displayed in the listView
+	 * ID for the options menu item showing the runner diagnostics
+	 */
+	private static final int DIAGNOSTICS_MENU_ITEM_ID = 1;
+	/**
+	 * Name of the file in the cache directory long stack traces of the
+	 * displayed results are moved to
+	 */
+	private static final String TRACE_FILE_NAME = "junit4android-traces";
+	/**
+	 * Store with test results being displayed in the listView
+	 */
+	private TestResultStore testResults;
+	/**
+	 * Position of the group expanded in the listView
 	 */
-	private LinkedHashMap<String, List<JunitTestResult>> testResultMap = new LinkedHashMap<String, List<JunitTestRunnerActivity.JunitTestResult>>();
+	private int expandedGroupPosition = -1;
+	/**
+	 * Handler used to post batches of test results to the UI thread
+	 */
+	private final Handler uiHandler = new Handler();
 	/**
 	 * List adapter for the test results
 	 */
@@ -599,7 +459,20 @@ public class JunitTestRunnerActivity extends Activity {
 	 * directly
 	 */
 	private boolean autorun;
+	/**
+	 * Options of the test run, given as extras or meta-data
+	 */
+	private RunOptions runOptions;
+	/**
+	 * The configured test run
+	 */
+	private TestRunSession testRunSession;
 	private TestRunTask testRunTask;
+	/**
+	 * Flag indicating whether the activity is stopped because the runner
+	 * diagnostics are shown, which does not cancel the test run
+	 */
+	private boolean showingDiagnostics = false;
 
 	/**
 	 * {@inheritDoc}
@@ -612,6 +485,8 @@ public class JunitTestRunnerActivity extends Activity {
 		// Progressbar in the status bar
 		requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
 		setContentView(R.layout.junittestrunner);
+		testResults = new TestResultStore(new File(getCacheDir(),
+				TRACE_FILE_NAME), TestResultStore.DEFAULT_TRACE_SIZE_LIMIT);
 
 		// wiring the listview with its adapter
 		testListView = (ExpandableListView) findViewById(R.id.expandableListView);
@@ -640,11 +515,25 @@ public class JunitTestRunnerActivity extends Activity {
 
 		registerForContextMenu(testListView);
 
+		runOptions = new RunOptions(getIntent().getExtras(),
+				getActivityMetadata());
 		loadAutorunFlag();
 
 		try {
-			testClass = loadTestClass();
+			testClass = TestRunSession.loadTestClass(this, runOptions);
 			testNameTextView.setText(testClass.getName());
+			testRunSession = new TestRunSession(this, testClass, runOptions);
+			String testName = testClass.getName();
+			TestSelectionFilter selectionFilter = testRunSession
+					.getSelectionFilter();
+			if (selectionFilter != null) {
+				testName += " (" + selectionFilter.describe() + ")";
+			}
+			ShardingFilter shardingFilter = testRunSession.getShardingFilter();
+			if (shardingFilter != null) {
+				testName += " (" + shardingFilter.describe() + ")";
+			}
+			testNameTextView.setText(testName);
 		} catch (Exception e) {
 			startButton.setEnabled(false);
 			Toast.makeText(
@@ -662,17 +551,7 @@ public class JunitTestRunnerActivity extends Activity {
 	}
 
 	public void loadAutorunFlag() {
-		if (getIntent().hasExtra(AUTORUN_EXTRA)) {
-			autorun = getIntent().getBooleanExtra(AUTORUN_EXTRA, false);
-		} else {
-			/*************************************************************
-			 * Try to load the autoRun info from the activity's metadata
-			 *************************************************************/
-			Bundle bundle = getActivityMetadata();
-			if (bundle != null) {
-				autorun = bundle.getBoolean(AUTORUN_EXTRA);
-			}
-		}
+		autorun = runOptions.getBoolean(RunOptions.AUTORUN, false);
 	}
 
 	/**
@@ -696,7 +575,8 @@ public class JunitTestRunnerActivity extends Activity {
 	@Override
 	protected void onStart() {
 		super.onStart();
-		if (autorun) {
+		showingDiagnostics = false;
+		if (autorun && testRunSession != null) {
 			runTests();
 		}
 	}
@@ -709,11 +589,22 @@ public class JunitTestRunnerActivity extends Activity {
 	@Override
 	protected void onStop() {
 		super.onStop();
-		if (testRunTask != null) {
+		if (testRunTask != null && !showingDiagnostics) {
 			testRunTask.cancel(true);
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see android.app.Activity#onDestroy()
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		testResults.clear();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 *
@@ -745,13 +636,39 @@ public class JunitTestRunnerActivity extends Activity {
 	public boolean onContextItemSelected(MenuItem item) {
 		if (item.getItemId() == RERUN_MENU_ITEM_ID) {
 			Intent intent = new Intent(this, JunitTestRunnerActivity.class);
-			intent.putExtra(TEST_CLASS_EXTRA, selectedTestName);
-			intent.putExtra(AUTORUN_EXTRA, true);
+			intent.putExtra(RunOptions.TEST_CLASS, selectedTestName);
+			intent.putExtra(RunOptions.AUTORUN, true);
 			startActivity(intent);
 		}
 		return true;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see android.app.Activity#onCreateOptionsMenu(android.view.Menu)
+	 */
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		menu.add(0, DIAGNOSTICS_MENU_ITEM_ID, 0, "Runner diagnostics");
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see android.app.Activity#onOptionsItemSelected(android.view.MenuItem)
+	 */
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == DIAGNOSTICS_MENU_ITEM_ID) {
+			showingDiagnostics = true;
+			startActivity(new Intent(this, RunnerDiagnosticsActivity.class));
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
 	/**
 	 * @param view
 	 */
@@ -768,70 +685,28 @@ public class JunitTestRunnerActivity extends Activity {
 		progressBar.setMax(0);
 		progressBar.setProgress(0);
 		progressBar.setSecondaryProgress(0);
-		testResultMap.clear();
+		testResults.clear();
+		expandedGroupPosition = -1;
 		startButton.setEnabled(false);
 		setProgressBarIndeterminateVisibility(true);
 		testRunTask = new TestRunTask();
-		testRunTask.execute(testClass);
+		testRunTask.execute(testRunSession);
 	}
 
 	/**
-	 * Helper to load the test class. First tries to load the class from a
-	 * String Extra in the calling intent, then from the class name as given in
-	 * the meta-data tag of this activity (key 'testClass'). If there is no
-	 * class given via intent or metadata falls back to
-	 * <appPackageName>.AllTests class.
-	 *
-	 * @return The test class to be run by this activity
-	 * @throws NameNotFoundException
-	 * @throws ClassNotFoundException
-	 */
-	private Class<?> loadTestClass() throws NameNotFoundException,
-			ClassNotFoundException {
-		/*************************************************************
-		 * Try to get the testClass name from an extra
-		 *************************************************************/
-		String testSuiteClassName = getIntent()
-				.getStringExtra(TEST_CLASS_EXTRA);
-		if (testSuiteClassName == null) {
-			/*************************************************************
-			 * Try to load the testClass name from the activity's metadata
-			 *************************************************************/
-			Bundle bundle = getActivityMetadata();
-			if (bundle != null) {
-				testSuiteClassName = bundle.getString(TEST_CLASS_EXTRA);
+	 * Updates the list view after results have been added: Expands the group
+	 * of the latest test class and scrolls to its last result.
+	 */
+	private void updateTestListView() {
+		int groupCount = testResults.getGroupCount();
+		if (expandedGroupPosition != groupCount - 1) {
+			if (expandedGroupPosition >= 0) {
+				testListView.collapseGroup(expandedGroupPosition);
 			}
+			expandedGroupPosition = groupCount - 1;
+			testListView.expandGroup(expandedGroupPosition);
 		}
-		if (testSuiteClassName == null) {
-			/*************************************************************
-			 * Fall back to <packagename>.AllTests
-			 *************************************************************/
-			testSuiteClassName = getPackageName() + ".AllTests";
-		}
-		Class<?> suiteClass = Class.forName(testSuiteClassName);
-		return suiteClass;
-	}
-
-	/**
-	 * Adds a result of a test to the list view
-	 *
-	 * @param result
-	 */
-	private void addTestResult(JunitTestResult result) {
-		String className = result.description.getClassName();
-		List<JunitTestRunnerActivity.JunitTestResult> results = testResultMap
-				.get(className);
-		if (results == null) {
-			results = new LinkedList<JunitTestRunnerActivity.JunitTestResult>();
-			testResultMap.put(className, results);
-		}
-		testListView.expandGroup(testResultMap.size() - 1);
-		if (testResultMap.size() > 1) {
-			testListView.collapseGroup(testResultMap.size() - 2);
-		}
-		results.add(result);
 		testListAdapter.notifyDataSetChanged();
-		int groupCount = testListAdapter.getGroupCount();
 		int childrenCount = testListAdapter.getChildrenCount(groupCount - 1);
 		int scrollPosition = groupCount + childrenCount - 1;
 		testListView.smoothScrollToPosition(scrollPosition);
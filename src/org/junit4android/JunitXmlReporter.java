@@ -0,0 +1,463 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Log;
+import android.util.Xml;
+
+/**
+ * Writes JUnit XML reports while the tests are running. The results of a test
+ * class are collected until the class has finished and are then handed to a
+ * background thread writing the class' &lt;testsuite&gt;. So only the results
+ * of the current test class and a limited number of finished classes waiting
+ * to be written are kept in memory.
+ * <p>
+ * The reporter either appends all test suites to a single report file or
+ * writes one TEST-&lt;className&gt;.xml file per test class. The single
+ * report file is written even if the run has no results, so the report of an
+ * earlier run is never mistaken for the current one. Optionally a stack trace
+ * repeated within a report file is written only once and referred to by its
+ * ID in the {@link TraceStore} afterwards.
+ * <p>
+ * Instead of or in addition to the XML the results can be written to a single
+ * file in the compact binary format of the {@link BinaryResultWriter}, named
+ * like the single report file with the extension {@value #BINARY_EXTENSION}.
+ * <p>
+ * If {@link DurationStatistics} are given, their summary is written as a
+ * &lt;durations&gt; element at the end of the single XML report or, if a
+ * file is written per test class, to a file named like the single report
+ * file with the prefix DURATIONS- instead of TEST-.
+ * <p>
+ * The methods of this class are meant to be called from the thread running
+ * the tests.
+ *
+ * @author Daniel Thommes
+ */
+public class JunitXmlReporter {
+
+	private static final String LOGTAG = "Junit4Android-XMLWriter";
+	/**
+	 * Number of finished test suites that may wait for being written before
+	 * the test thread has to wait for the writer
+	 */
+	private static final int MAX_PENDING_SUITES = 16;
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Format flag to write JUnit XML reports
+	 */
+	public static final int FORMAT_XML = 1;
+	/**
+	 * Format flag to write a binary result file
+	 */
+	public static final int FORMAT_BINARY = 2;
+	public static final String BINARY_EXTENSION = ".bin.gz";
+
+	/**
+	 * Results of a test class waiting to be written
+	 */
+	private static class PendingSuite {
+		final String name;
+		final List<JunitTestResult> results;
+
+		PendingSuite(String name, List<JunitTestResult> results) {
+			this.name = name;
+			this.results = results;
+		}
+	}
+
+	/**
+	 * Marker telling the writer thread that the run has finished
+	 */
+	private static final PendingSuite END_OF_RUN = new PendingSuite(null, null);
+
+	private final File reportDir;
+	private final String fileName;
+	private final boolean filePerClass;
+	private final String fileNameSuffix;
+	/**
+	 * Flag indicating whether stack traces already written to a report file
+	 * are replaced by references
+	 */
+	private final boolean traceReferences;
+	/**
+	 * {@link #FORMAT_XML} and {@link #FORMAT_BINARY} flags of the formats to
+	 * be written
+	 */
+	private final int formats;
+	private final BlockingQueue<PendingSuite> pendingSuites = new ArrayBlockingQueue<PendingSuite>(
+			MAX_PENDING_SUITES);
+	private final Thread writerThread;
+	private volatile Exception writeException;
+
+	private String currentClassName;
+	private List<JunitTestResult> currentResults = new ArrayList<JunitTestResult>();
+
+	/**
+	 * Writer and serializer of the single report file, only used by the
+	 * writer thread
+	 */
+	private Writer writer;
+	private XmlSerializer serializer;
+	/**
+	 * Tests whose stack traces have been written to the single report file
+	 * by trace ID, only used by the writer thread
+	 */
+	private final Map<String, String> writtenTraces = new HashMap<String, String>();
+	/**
+	 * Writer of the binary result file, only used by the writer thread
+	 */
+	private BinaryResultWriter binaryWriter;
+	/**
+	 * Statistics whose summary is written when the run has finished or null
+	 */
+	private volatile DurationStatistics durationStatistics;
+
+	/**
+	 * @param reportDir
+	 *            directory the reports are written to
+	 * @param fileName
+	 *            name of the report file if all suites are written to a
+	 *            single file
+	 * @param filePerClass
+	 *            true to write a TEST-&lt;className&gt;&lt;suffix&gt;.xml
+	 *            file per test class
+	 * @param fileNameSuffix
+	 *            suffix of the file names if a file is written per test
+	 *            class, e.g. to tell the shards of a run apart
+	 * @param traceReferences
+	 *            true to write each stack trace of the {@link TraceStore}
+	 *            only once per report file and refer to it by its ID
+	 *            afterwards
+	 * @param formats
+	 *            {@link #FORMAT_XML} and {@link #FORMAT_BINARY} flags of the
+	 *            formats to be written
+	 */
+	public JunitXmlReporter(File reportDir, String fileName,
+			boolean filePerClass, String fileNameSuffix,
+			boolean traceReferences, int formats) {
+		this.traceReferences = traceReferences;
+		this.formats = formats;
+		this.reportDir = reportDir;
+		this.fileName = fileName;
+		this.filePerClass = filePerClass;
+		this.fileNameSuffix = fileNameSuffix;
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writePendingSuites();
+			}
+		}, "JUnit4Android-XmlReporter");
+		writerThread.start();
+	}
+
+	/**
+	 * @param durationStatistics
+	 *            statistics of the run whose summary is written to the XML
+	 *            report when the run has finished, null for none
+	 */
+	public void setDurationStatistics(DurationStatistics durationStatistics) {
+		this.durationStatistics = durationStatistics;
+	}
+
+	/**
+	 * Adds the result of a finished or ignored test. When the first result of
+	 * another test class arrives, the results of the previous class are handed
+	 * to the writer thread.
+	 *
+	 * @param result
+	 */
+	public void testResult(JunitTestResult result) {
+		String className = result.getDescription().getClassName();
+		if (currentClassName != null && !currentClassName.equals(className)) {
+			finishCurrentSuite();
+		}
+		currentClassName = className;
+		currentResults.add(result);
+	}
+
+	/**
+	 * Writes the remaining results, completes the report and waits for the
+	 * writer thread to finish.
+	 *
+	 * @throws RuntimeException
+	 *             if the report could not be written
+	 */
+	public void close() {
+		finishCurrentSuite();
+		enqueue(END_OF_RUN);
+		boolean interrupted = false;
+		while (writerThread.isAlive()) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (writeException != null) {
+			throw new RuntimeException(writeException);
+		}
+	}
+
+	private void finishCurrentSuite() {
+		if (!currentResults.isEmpty()) {
+			enqueue(new PendingSuite(currentClassName, currentResults));
+			currentResults = new ArrayList<JunitTestResult>();
+		}
+	}
+
+	/**
+	 * Hands a suite to the writer thread, waiting if too many suites are
+	 * pending. An interrupt (e.g. by cancelling the test run) does not drop
+	 * the results but is restored afterwards.
+	 *
+	 * @param suite
+	 */
+	private void enqueue(PendingSuite suite) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				pendingSuites.put(suite);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Loop of the writer thread
+	 */
+	private void writePendingSuites() {
+		try {
+			while (true) {
+				PendingSuite suite = pendingSuites.take();
+				if (suite == END_OF_RUN) {
+					break;
+				}
+				// after an error the queue is only drained
+				if (writeException == null) {
+					try {
+						writeSuite(suite);
+					} catch (Exception e) {
+						Log.e(LOGTAG, "Error writing test suite " + suite.name,
+								e);
+						writeException = e;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Log.d(LOGTAG, "The XML reporter has been interrupted.");
+		} finally {
+			try {
+				closeReportFile();
+			} catch (Exception e) {
+				if (writeException == null) {
+					writeException = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param formatNames
+	 *            comma separated names of the formats: xml and binary
+	 * @return the {@link #FORMAT_XML} and {@link #FORMAT_BINARY} flags of the
+	 *         formats
+	 * @throws IllegalArgumentException
+	 *             if a format is unknown
+	 */
+	public static int parseFormats(String formatNames) {
+		int formats = 0;
+		for (String formatName : formatNames.split(",")) {
+			formatName = formatName.trim().toLowerCase();
+			if (formatName.equals("xml")) {
+				formats |= FORMAT_XML;
+			} else if (formatName.equals("binary")) {
+				formats |= FORMAT_BINARY;
+			} else {
+				throw new IllegalArgumentException("Unknown report format: "
+						+ formatName);
+			}
+		}
+		return formats;
+	}
+
+	/**
+	 * @param xmlFileName
+	 * @return the name of the binary result file written instead of the XML
+	 *         file
+	 */
+	public static String getBinaryFileName(String xmlFileName) {
+		if (xmlFileName.endsWith(".xml")) {
+			xmlFileName = xmlFileName.substring(0, xmlFileName.length() - 4);
+		}
+		return xmlFileName + BINARY_EXTENSION;
+	}
+
+	private void writeSuite(PendingSuite suite) throws IOException {
+		if ((formats & FORMAT_BINARY) != 0) {
+			if (binaryWriter == null) {
+				openBinaryFile();
+			}
+			binaryWriter.writeTestSuite(suite.name, suite.results);
+			binaryWriter.flush();
+		}
+		if ((formats & FORMAT_XML) == 0) {
+			return;
+		}
+		if (filePerClass) {
+			Writer suiteWriter = openWriter("TEST-" + suite.name
+					+ fileNameSuffix + ".xml");
+			try {
+				XmlSerializer suiteSerializer = Xml.newSerializer();
+				suiteSerializer.setOutput(suiteWriter);
+				suiteSerializer.startDocument("UTF-8", true);
+				Map<String, String> suiteTraces = traceReferences ? new HashMap<String, String>()
+						: null;
+				long startTime = RunnerProfile.start();
+				JunitXmlWriter.writeTestSuite(suiteSerializer, suite.name,
+						suite.results, suiteTraces);
+				RunnerProfile.stop(RunnerProfile.XML_SERIALIZATION, startTime);
+				suiteSerializer.endDocument();
+				suiteSerializer.flush();
+			} finally {
+				suiteWriter.close();
+			}
+		} else {
+			if (serializer == null) {
+				openXmlFile();
+			}
+			long startTime = RunnerProfile.start();
+			JunitXmlWriter.writeTestSuite(serializer, suite.name,
+					suite.results, traceReferences ? writtenTraces : null);
+			RunnerProfile.stop(RunnerProfile.XML_SERIALIZATION, startTime);
+			// so the suites written so far survive a crash of the process
+			serializer.flush();
+		}
+	}
+
+	/**
+	 * Opens the single report file and starts its &lt;testsuites&gt;
+	 * element
+	 *
+	 * @throws IOException
+	 */
+	private void openXmlFile() throws IOException {
+		writer = openWriter(fileName);
+		serializer = Xml.newSerializer();
+		serializer.setOutput(writer);
+		serializer.startDocument("UTF-8", true);
+		serializer.startTag("", "testsuites");
+	}
+
+	private void openBinaryFile() throws IOException {
+		reportDir.mkdirs();
+		binaryWriter = new BinaryResultWriter(new FileOutputStream(new File(
+				reportDir, getBinaryFileName(fileName))));
+	}
+
+	private void closeReportFile() throws IOException {
+		try {
+			if ((formats & FORMAT_BINARY) != 0) {
+				if (binaryWriter == null) {
+					// like the XML report, written for a run without results
+					openBinaryFile();
+				}
+				binaryWriter.close();
+			}
+		} finally {
+			closeXmlFile();
+		}
+	}
+
+	private void closeXmlFile() throws IOException {
+		if ((formats & FORMAT_XML) == 0) {
+			return;
+		}
+		if (filePerClass) {
+			if (durationStatistics != null) {
+				writeDurationsFile();
+			}
+			return;
+		}
+		if (writer == null) {
+			// a run without results still replaces the report of an earlier
+			// run
+			openXmlFile();
+		}
+		try {
+			if (durationStatistics != null) {
+				long startTime = RunnerProfile.start();
+				JunitXmlWriter.writeDurations(serializer, durationStatistics);
+				RunnerProfile.stop(RunnerProfile.XML_SERIALIZATION, startTime);
+			}
+			serializer.endTag("", "testsuites");
+			serializer.endDocument();
+			serializer.flush();
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void writeDurationsFile() throws IOException {
+		// TEST-<name>.xml -> DURATIONS-<name>.xml
+		String name = fileName.startsWith("TEST-") ? fileName.substring(5)
+				: fileName;
+		Writer durationsWriter = openWriter("DURATIONS-" + name);
+		try {
+			XmlSerializer durationsSerializer = Xml.newSerializer();
+			durationsSerializer.setOutput(durationsWriter);
+			durationsSerializer.startDocument("UTF-8", true);
+			long startTime = RunnerProfile.start();
+			JunitXmlWriter.writeDurations(durationsSerializer,
+					durationStatistics);
+			RunnerProfile.stop(RunnerProfile.XML_SERIALIZATION, startTime);
+			durationsSerializer.endDocument();
+			durationsSerializer.flush();
+		} finally {
+			durationsWriter.close();
+		}
+	}
+
+	private Writer openWriter(String reportFileName) throws IOException {
+		reportDir.mkdirs();
+		File reportFile = new File(reportDir, reportFileName);
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				reportFile), "UTF-8"), BUFFER_SIZE);
+	}
+}
@@ -11,15 +11,14 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.junit.runner.notification.Failure;
-import org.junit4android.JunitTestRunnerActivity.JunitTestResult;
 import org.xmlpull.v1.XmlSerializer;
 
 import android.os.Environment;
-import android.util.Log;
 import android.util.Xml;
 
 /**
@@ -73,18 +72,37 @@ public class JunitXmlWriter {
 
 	public static void writeTestSuite(XmlSerializer serializer,
 			Entry<String, List<JunitTestResult>> testSuite) throws IOException {
-		Log.d("Junit4Android-XMLWriter",
-				"Writing test suite: " + testSuite.getKey());
+		writeTestSuite(serializer, testSuite.getKey(), testSuite.getValue());
+	}
+
+	public static void writeTestSuite(XmlSerializer serializer, String name,
+			List<JunitTestResult> testCases) throws IOException {
+		writeTestSuite(serializer, name, testCases, null);
+	}
+
+	/**
+	 * @param serializer
+	 * @param name
+	 * @param testCases
+	 * @param writtenTraces
+	 *            names of the tests whose stack traces have been written by
+	 *            the IDs of the traces in the {@link TraceStore}. If given, a
+	 *            trace already written is replaced by a reference to the test.
+	 *            Null to write every trace in full.
+	 * @throws IOException
+	 */
+	public static void writeTestSuite(XmlSerializer serializer, String name,
+			List<JunitTestResult> testCases, Map<String, String> writtenTraces)
+			throws IOException {
+		RunLog.d("Writing test suite: {}", name);
 		int tests = 0;
 		int errors = 0;
 		int skipped = 0;
-		long duration = 0;
-
-		List<JunitTestResult> testCases = testSuite.getValue();
+		long durationNanos = 0;
 
 		for (JunitTestResult testCase : testCases) {
 			++tests;
-			duration += testCase.getDuration();
+			durationNanos += testCase.getDurationNanos();
 			if (testCase.isIgnored()) {
 				++skipped;
 			}
@@ -98,51 +116,187 @@ public class JunitXmlWriter {
 		// tests="8"
 		// name="org.apache.commons.beanutils.BeanComparatorTestCase">
 		serializer.attribute("", "failures", "" + 0);
-		serializer.attribute("", "time", "" + ((double) duration) / 1000);
+		serializer.attribute("", "time", formatSeconds(durationNanos / 1000));
 		serializer.attribute("", "errors", "" + errors);
 		serializer.attribute("", "skipped", "" + skipped);
 		serializer.attribute("", "tests", "" + tests);
-		serializer.attribute("", "name", testSuite.getKey());
+		serializer.attribute("", "name", name);
 		for (JunitTestResult testCase : testCases) {
-			writeTestCase(serializer, testCase);
+			writeTestCase(serializer, testCase, writtenTraces);
 		}
 		serializer.endTag("", "testsuite");
 	}
 
 	public static void writeTestCase(XmlSerializer serializer,
 			JunitTestResult result) throws IOException {
+		writeTestCase(serializer, result, null);
+	}
+
+	private static void writeTestCase(XmlSerializer serializer,
+			JunitTestResult result, Map<String, String> writtenTraces)
+			throws IOException {
 		// <testcase time="0.071"
 		// classname="org.apache.commons.beanutils.BeanComparatorTestCase"
 		// name="testSimpleCompare"/>
 		serializer.startTag("", "testcase");
-		serializer.attribute("", "time", "" + ((double) result.getDuration())
-				/ 1000.0);
+		serializer.attribute("", "time",
+				formatSeconds(result.getDurationNanos() / 1000));
 		serializer.attribute("", "classname", result.getDescription()
 				.getClassName());
 		serializer.attribute("", "name", result.getDescription()
 				.getMethodName());
+		if (result.getMetrics() != null) {
+			writeMetrics(serializer, result.getMetrics());
+		}
 		if (result.isIgnored()) {
-			// <skipped/>
-			serializer.startTag("", "skipped").endTag("", "skipped");
+			// <skipped/> or <skipped message="reason"/>
+			serializer.startTag("", "skipped");
+			if (result.ignoreReason.length() > 0) {
+				serializer.attribute("", "message", result.ignoreReason);
+			}
+			serializer.endTag("", "skipped");
 		}
+		String testName = result.getDescription().getDisplayName();
 		if (result.hasFailures()) {
-			for (Failure failure : result.getFailures()) {
-				Throwable throwable = failure.getException();
-				if (throwable != null && throwable instanceof Exception) {
-					serializer.startTag("", "error");
-					serializer.attribute("", "message",
-							"" + throwable.getMessage());
-					serializer.attribute("", "type", throwable.getClass()
-							.getName());
-					serializer.text(failure.getTrace());
-					serializer.endTag("", "error");
-				} else if (throwable != null) {
-					serializer.startTag("", "failure");
+			writeFailures(serializer, result.getFailures(), "error", "failure",
+					testName, writtenTraces);
+		}
+		// failed attempts of retried tests as written by Maven Surefire:
+		// <flakyFailure> if the test has passed finally, <rerunFailure> if not
+		for (JunitTestResult attempt : result.getPreviousAttempts()) {
+			if (result.isFlaky()) {
+				writeFailures(serializer, attempt.getFailures(), "flakyError",
+						"flakyFailure", testName, writtenTraces);
+			} else {
+				writeFailures(serializer, attempt.getFailures(), "rerunError",
+						"rerunFailure", testName, writtenTraces);
+			}
+		}
+		serializer.endTag("", "testcase");
+	}
+
+	private static void writeFailures(XmlSerializer serializer,
+			List<Failure> failures, String errorTag, String failureTag,
+			String testName, Map<String, String> writtenTraces)
+			throws IOException {
+		for (Failure failure : failures) {
+			String type = RecordedFailure.getType(failure);
+			if (type == null) {
+				continue;
+			}
+			boolean error = RecordedFailure.isError(failure);
+			String tag = error ? errorTag : failureTag;
+			serializer.startTag("", tag);
+			if (error) {
+				serializer.attribute("", "message", "" + failure.getMessage());
+				serializer.attribute("", "type", type);
+			}
+			String traceId = writtenTraces == null ? null : RecordedFailure
+					.getTraceId(failure);
+			if (traceId != null) {
+				// <error traceId="3f2a...">Same stack trace as ...</error>
+				serializer.attribute("", "traceId", traceId);
+				String firstTestName = writtenTraces.get(traceId);
+				if (firstTestName != null) {
+					serializer.text("Same stack trace as " + firstTestName);
+				} else {
+					writtenTraces.put(traceId, testName);
 					serializer.text(failure.getTrace());
-					serializer.endTag("", "failure");
 				}
+			} else {
+				serializer.text(failure.getTrace());
 			}
+			serializer.endTag("", tag);
 		}
-		serializer.endTag("", "testcase");
+	}
+
+	/**
+	 * Writes the duration summary of a run
+	 *
+	 * @param serializer
+	 * @param statistics
+	 * @throws IOException
+	 */
+	public static void writeDurations(XmlSerializer serializer,
+			DurationStatistics statistics) throws IOException {
+		// <durations tests="120" time="35.2" overhead="0.04" p50="0.08"
+		// p90="0.9" p99="4.1" max="5.3"><slowestTest .../>
+		// <slowestClass .../></durations>
+		serializer.startTag("", "durations");
+		serializer.attribute("", "tests", "" + statistics.getCount());
+		serializer.attribute("", "time",
+				formatSeconds(statistics.getTotalDurationMicros()));
+		serializer.attribute("", "overhead",
+				formatSeconds(statistics.getOverheadMicros()));
+		serializer.attribute("", "p50",
+				formatSeconds(statistics.getPercentileMicros(50)));
+		serializer.attribute("", "p90",
+				formatSeconds(statistics.getPercentileMicros(90)));
+		serializer.attribute("", "p99",
+				formatSeconds(statistics.getPercentileMicros(99)));
+		serializer.attribute("", "max",
+				formatSeconds(statistics.getMaxDurationMicros()));
+		for (DurationStatistics.Entry entry : statistics.getSlowestTests()) {
+			serializer.startTag("", "slowestTest");
+			serializer.attribute("", "time",
+					formatSeconds(entry.getDurationMicros()));
+			serializer.attribute("", "classname", entry.getClassName());
+			serializer.attribute("", "name", entry.getMethodName());
+			serializer.endTag("", "slowestTest");
+		}
+		for (DurationStatistics.Entry entry : statistics.getSlowestClasses()) {
+			serializer.startTag("", "slowestClass");
+			serializer.attribute("", "time",
+					formatSeconds(entry.getDurationMicros()));
+			serializer.attribute("", "tests", "" + entry.getTestCount());
+			serializer.attribute("", "name", entry.getClassName());
+			serializer.endTag("", "slowestClass");
+		}
+		serializer.endTag("", "durations");
+	}
+
+	/**
+	 * @param micros
+	 * @return the time in seconds with microsecond precision and without
+	 *         trailing zeros, e.g. 0.000125 or 2.5
+	 */
+	public static String formatSeconds(long micros) {
+		StringBuilder time = new StringBuilder();
+		time.append(micros / 1000000).append('.');
+		String fraction = Long.toString(1000000 + micros % 1000000);
+		int end = fraction.length();
+		while (end > 2 && fraction.charAt(end - 1) == '0') {
+			--end;
+		}
+		return time.append(fraction, 1, end).toString();
+	}
+
+	private static void writeMetrics(XmlSerializer serializer,
+			TestMetrics metrics) throws IOException {
+		// <properties><property name="cpuTime" value="0.012"/></properties>
+		serializer.startTag("", "properties");
+		if (metrics.getCpuTimeNanos() >= 0) {
+			// left out if the CPU time is not supported
+			writeProperty(serializer, "cpuTime",
+					formatSeconds(metrics.getCpuTimeNanos() / 1000));
+		}
+		writeProperty(serializer, "allocatedBytes",
+				"" + metrics.getAllocatedBytes());
+		writeProperty(serializer, "allocationCount",
+				"" + metrics.getAllocationCount());
+		writeProperty(serializer, "gcCount", "" + metrics.getGcCount());
+		writeProperty(serializer, "javaHeapBytes",
+				"" + metrics.getJavaHeapBytes());
+		writeProperty(serializer, "nativeHeapBytes",
+				"" + metrics.getNativeHeapBytes());
+		serializer.endTag("", "properties");
+	}
+
+	private static void writeProperty(XmlSerializer serializer, String name,
+			String value) throws IOException {
+		serializer.startTag("", "property");
+		serializer.attribute("", "name", name);
+		serializer.attribute("", "value", value);
+		serializer.endTag("", "property");
 	}
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.junit4android;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * {@link Failure} restored from a record of an earlier run, e.g. from a
+ * {@link TestJournal}, received from a {@link TestWorkerService} or recorded
+ * in a {@link TraceStore}. It has no exception, but keeps the type, message
+ * and stack trace of the original one.
+ *
+ * @author Daniel Thommes
+ */
+public class RecordedFailure extends Failure {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String type;
+	private final String message;
+	private final String trace;
+	private final boolean error;
+	private final String traceId;
+
+	/**
+	 * @param description
+	 *            the failed test
+	 * @param type
+	 *            class name of the original exception
+	 * @param message
+	 *            message of the original exception, may be null
+	 * @param trace
+	 *            stack trace of the original exception
+	 * @param error
+	 *            true, if the original exception has been an
+	 *            {@link Exception}, false for an {@link Error} like a failed
+	 *            assertion
+	 */
+	public RecordedFailure(Description description, String type,
+			String message, String trace, boolean error) {
+		this(description, type, message, trace, error, null);
+	}
+
+	/**
+	 * @param description
+	 *            the failed test
+	 * @param type
+	 *            class name of the original exception
+	 * @param message
+	 *            message of the original exception, may be null
+	 * @param trace
+	 *            stack trace of the original exception
+	 * @param error
+	 *            true, if the original exception has been an
+	 *            {@link Exception}, false for an {@link Error}
+	 * @param traceId
+	 *            ID of the trace in a {@link TraceStore}, may be null
+	 */
+	public RecordedFailure(Description description, String type,
+			String message, String trace, boolean error, String traceId) {
+		super(description, null);
+		this.type = type;
+		this.message = message;
+		this.trace = trace;
+		this.error = error;
+		this.traceId = traceId;
+	}
+
+	/**
+	 * @param failure
+	 * @return the class name of the failure's exception, null if it has none
+	 */
+	public static String getType(Failure failure) {
+		if (failure instanceof RecordedFailure) {
+			return ((RecordedFailure) failure).type;
+		}
+		Throwable throwable = failure.getException();
+		return throwable == null ? null : throwable.getClass().getName();
+	}
+
+	/**
+	 * @param failure
+	 * @return true, if the failure has been caused by an {@link Exception}
+	 *         rather than an {@link Error}
+	 */
+	public static boolean isError(Failure failure) {
+		if (failure instanceof RecordedFailure) {
+			return ((RecordedFailure) failure).error;
+		}
+		return failure.getException() instanceof Exception;
+	}
+
+	/**
+	 * @param failure
+	 * @return the ID of the failure's trace in a {@link TraceStore}, null if
+	 *         it has not been recorded there
+	 */
+	public static String getTraceId(Failure failure) {
+		if (failure instanceof RecordedFailure) {
+			return ((RecordedFailure) failure).traceId;
+		}
+		return null;
+	}
+
+	@Override
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String getTrace() {
+		return trace;
+	}
+
+	@Override
+	public String toString() {
+		return getTestHeader() + ": " + message;
+	}
+}
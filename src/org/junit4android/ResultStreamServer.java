@@ -0,0 +1,386 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import android.util.Log;
+
+/**
+ * Streams the events of a test run as newline delimited JSON to a client
+ * connected to a TCP port on localhost, e.g. through
+ * <code>adb forward tcp:&lt;port&gt; tcp:&lt;port&gt;</code>. The events are:
+ *
+ * <pre>
+ * {"event":"runStarted","name":"com.example.AllTests","testCount":120}
+ * {"event":"testStarted","className":"com.example.FooTest","methodName":"testFoo"}
+ * {"event":"testFailure","className":...,"methodName":...,"type":...,"message":...,"trace":...,"error":true,"previousAttempt":false}
+ * {"event":"testIgnored","className":...,"methodName":...,"reason":...}
+ * {"event":"testFinished","className":...,"methodName":...,"durationMs":12,"durationUs":12345,"overheadUs":80,"flaky":false}
+ * {"event":"eventsDropped","count":3}
+ * {"event":"runFinished","complete":true}
+ * </pre>
+ *
+ * The failures of a test are sent right before its testFinished event. Its
+ * duration is sent in ms and µs, the time the runner spent on its own
+ * bookkeeping for the test in µs.
+ * <p>
+ * Events are put into a queue and written by a background thread, which
+ * accepts one client at a time and also renders the JSON, so a slow or
+ * missing client never stalls the tests. The events are queued until a client
+ * connects, up to {@link #MAX_PENDING_EVENTS}. If the queue is full, further
+ * events are dropped and their number is sent later. Each event is flushed to
+ * the client when it has been written; if the client disconnects, the event
+ * that could not be written is sent to the next client.
+ *
+ * @author Daniel Thommes
+ */
+public class ResultStreamServer {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Maximum number of events waiting for being sent
+	 */
+	public static final int MAX_PENDING_EVENTS = 10000;
+	/**
+	 * Time to wait for the remaining events to be sent when closing
+	 */
+	private static final long CLOSE_TIMEOUT_MS = 10000;
+
+	private static final int RUN_STARTED = 1;
+	private static final int TEST_STARTED = 2;
+	private static final int TEST_RESULT = 3;
+	private static final int RUN_FINISHED = 4;
+
+	/**
+	 * An event waiting to be sent
+	 */
+	private static class Event {
+		final int type;
+		final Object subject;
+		final int count;
+
+		Event(int type, Object subject, int count) {
+			this.type = type;
+			this.subject = subject;
+			this.count = count;
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>(
+			MAX_PENDING_EVENTS);
+	private final AtomicInteger droppedCount = new AtomicInteger();
+	private final Thread senderThread;
+	private volatile Socket clientSocket;
+	/**
+	 * Flag indicating whether a client has connected at all
+	 */
+	private volatile boolean clientAccepted;
+
+	/**
+	 * Opens the port and starts waiting for a client
+	 *
+	 * @param port
+	 * @throws IOException
+	 *             if the port can't be opened
+	 */
+	public ResultStreamServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 1,
+				InetAddress.getByName("127.0.0.1"));
+		senderThread = new Thread(new Runnable() {
+			public void run() {
+				sendEvents();
+			}
+		}, "JUnit4Android-ResultStream");
+		senderThread.start();
+		Log.i(LOGTAG, "Streaming the test results on port " + port);
+	}
+
+	public void runStarted(String name, int testCount) {
+		enqueue(new Event(RUN_STARTED, name, testCount));
+	}
+
+	public void testStarted(Description description) {
+		enqueue(new Event(TEST_STARTED, description, 0));
+	}
+
+	/**
+	 * Sends the failures of a finished test and its testFinished event, or
+	 * the testIgnored event of an ignored test
+	 *
+	 * @param result
+	 */
+	public void testResult(JunitTestResult result) {
+		enqueue(new Event(TEST_RESULT, result, 0));
+	}
+
+	/**
+	 * Sends the runFinished event and the remaining events, waiting a
+	 * limited time for them to be sent, and closes the port. If no client has
+	 * connected during the run, the port is closed right away.
+	 *
+	 * @param complete
+	 *            false, if the run has been stopped before all tests have
+	 *            been run
+	 */
+	public void close(boolean complete) {
+		Event runFinished = new Event(RUN_FINISHED, null, complete ? 1 : 0);
+		boolean interrupted = false;
+		try {
+			if (!clientAccepted) {
+				Log.i(LOGTAG, "No result stream client has connected");
+			} else if (events.offer(runFinished, CLOSE_TIMEOUT_MS,
+					TimeUnit.MILLISECONDS)) {
+				// not dropped like the other events, so the client learns the
+				// end
+				senderThread.join(CLOSE_TIMEOUT_MS);
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			if (clientAccepted && senderThread.isAlive()) {
+				Log.w(LOGTAG, "Not all test results could be streamed");
+			}
+			closeQuietly(clientSocket);
+			closeQuietly(serverSocket);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueue(Event event) {
+		if (!events.offer(event)) {
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Loop of the sender thread
+	 */
+	private void sendEvents() {
+		StringBuilder line = new StringBuilder(256);
+		Event pendingEvent = null;
+		try {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				clientSocket = socket;
+				clientAccepted = true;
+				Log.i(LOGTAG, "Result stream client connected");
+				try {
+					Writer writer = new BufferedWriter(new OutputStreamWriter(
+							socket.getOutputStream(), "UTF-8"));
+					while (true) {
+						if (pendingEvent == null) {
+							pendingEvent = events.take();
+						}
+						int dropped = droppedCount.getAndSet(0);
+						if (dropped > 0) {
+							line.setLength(0);
+							startEvent(line, "eventsDropped");
+							appendNumber(line, "count", dropped);
+							writer.write(line.append("}\n").toString());
+						}
+						line.setLength(0);
+						appendEvent(line, pendingEvent);
+						writer.write(line.toString());
+						// flushed, so no event is left in the buffer if the
+						// client disconnects
+						writer.flush();
+						if (pendingEvent.type == RUN_FINISHED) {
+							return;
+						}
+						pendingEvent = null;
+					}
+				} catch (IOException e) {
+					// the event that could not be written is sent again to
+					// the next client
+					Log.i(LOGTAG, "Result stream client disconnected: " + e);
+				} finally {
+					closeQuietly(socket);
+					clientSocket = null;
+				}
+			}
+		} catch (IOException e) {
+			// the port has been closed
+		} catch (InterruptedException e) {
+			Log.d(LOGTAG, "The result stream has been interrupted.");
+		}
+	}
+
+	private static void appendEvent(StringBuilder line, Event event) {
+		switch (event.type) {
+		case RUN_STARTED:
+			startEvent(line, "runStarted");
+			appendString(line, "name", (String) event.subject);
+			appendNumber(line, "testCount", event.count);
+			line.append("}\n");
+			break;
+		case TEST_STARTED:
+			startEvent(line, "testStarted");
+			appendTest(line, (Description) event.subject);
+			line.append("}\n");
+			break;
+		case TEST_RESULT:
+			appendResult(line, (JunitTestResult) event.subject);
+			break;
+		case RUN_FINISHED:
+			startEvent(line, "runFinished");
+			appendBoolean(line, "complete", event.count != 0);
+			line.append("}\n");
+			break;
+		}
+	}
+
+	private static void appendResult(StringBuilder line, JunitTestResult result) {
+		Description description = result.getDescription();
+		if (result.isIgnored()) {
+			startEvent(line, "testIgnored");
+			appendTest(line, description);
+			appendString(line, "reason", result.ignoreReason);
+			line.append("}\n");
+			return;
+		}
+		for (JunitTestResult attempt : result.getPreviousAttempts()) {
+			appendFailures(line, description, attempt, true);
+		}
+		appendFailures(line, description, result, false);
+		startEvent(line, "testFinished");
+		appendTest(line, description);
+		appendNumber(line, "durationMs", result.getDuration());
+		appendNumber(line, "durationUs", result.getDurationNanos() / 1000);
+		appendNumber(line, "overheadUs", result.getOverheadNanos() / 1000);
+		appendBoolean(line, "flaky", result.isFlaky());
+		line.append("}\n");
+	}
+
+	private static void appendFailures(StringBuilder line,
+			Description description, JunitTestResult result,
+			boolean previousAttempt) {
+		for (Failure failure : result.getFailures()) {
+			String type = RecordedFailure.getType(failure);
+			if (type == null) {
+				continue;
+			}
+			startEvent(line, "testFailure");
+			appendTest(line, description);
+			appendString(line, "type", type);
+			appendString(line, "message", failure.getMessage());
+			appendString(line, "trace", failure.getTrace());
+			appendBoolean(line, "error", RecordedFailure.isError(failure));
+			appendBoolean(line, "previousAttempt", previousAttempt);
+			line.append("}\n");
+		}
+	}
+
+	private static void startEvent(StringBuilder line, String event) {
+		line.append("{\"event\":\"").append(event).append('"');
+	}
+
+	private static void appendTest(StringBuilder line, Description description) {
+		appendString(line, "className", description.getClassName());
+		appendString(line, "methodName", description.getMethodName());
+	}
+
+	private static void appendNumber(StringBuilder line, String name,
+			long value) {
+		line.append(",\"").append(name).append("\":").append(value);
+	}
+
+	private static void appendBoolean(StringBuilder line, String name,
+			boolean value) {
+		line.append(",\"").append(name).append("\":").append(value);
+	}
+
+	/**
+	 * Appends a member with a JSON string or null value
+	 *
+	 * @param line
+	 * @param name
+	 * @param value
+	 */
+	private static void appendString(StringBuilder line, String name,
+			String value) {
+		line.append(",\"").append(name).append("\":");
+		if (value == null) {
+			line.append("null");
+			return;
+		}
+		line.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				line.append("\\\"");
+				break;
+			case '\\':
+				line.append("\\\\");
+				break;
+			case '\n':
+				line.append("\\n");
+				break;
+			case '\r':
+				line.append("\\r");
+				break;
+			case '\t':
+				line.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					line.append("\\u00");
+					line.append(Character.forDigit(c >> 4, 16));
+					line.append(Character.forDigit(c & 0xf, 16));
+				} else {
+					line.append(c);
+				}
+			}
+		}
+		line.append('"');
+	}
+
+	private static void closeQuietly(Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	private static void closeQuietly(ServerSocket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import android.util.Log;
+
+/**
+ * Log of the events of a test run, written to logcat by a background thread,
+ * so logging costs the threads running the tests as little as possible.
+ * <p>
+ * Messages below the configured level are dropped right away. Messages are
+ * given as a pattern with up to three arguments replacing the "{}"s in it,
+ * e.g. <code>RunLog.d("Test started: {}", description)</code>, and are only
+ * built by the background thread. Until then the pattern and arguments are
+ * kept in a ring buffer of fixed size. If the buffer is full, messages are
+ * dropped and their number is logged later.
+ * <p>
+ * With the level {@link #OFF} nothing is logged at all.
+ *
+ * @author Daniel Thommes
+ */
+public final class RunLog {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Level switching the log off
+	 */
+	public static final int OFF = Integer.MAX_VALUE;
+	/**
+	 * Number of messages the ring buffer holds
+	 */
+	private static final int CAPACITY = 1024;
+
+	private static volatile int level = Log.DEBUG;
+
+	private static final Object lock = new Object();
+	// ring buffer of the messages, guarded by lock
+	private static final int[] priorities = new int[CAPACITY];
+	private static final String[] patterns = new String[CAPACITY];
+	private static final int[] argCounts = new int[CAPACITY];
+	private static final Object[] args1 = new Object[CAPACITY];
+	private static final Object[] args2 = new Object[CAPACITY];
+	private static final Object[] args3 = new Object[CAPACITY];
+	private static int head = 0;
+	private static int count = 0;
+	private static int droppedCount = 0;
+	/**
+	 * Flag indicating whether the background thread is writing a message
+	 * taken from the buffer
+	 */
+	private static boolean writing = false;
+	private static Thread writerThread;
+
+	private RunLog() {
+	}
+
+	/**
+	 * @param level
+	 *            priority of the least important messages to be logged, e.g.
+	 *            {@link Log#DEBUG}, or {@link #OFF}
+	 */
+	public static void setLevel(int level) {
+		RunLog.level = level;
+	}
+
+	/**
+	 * @param name
+	 *            name of a level: verbose, debug, info, warn, error or off
+	 * @return the level
+	 * @throws IllegalArgumentException
+	 *             if the name is unknown
+	 */
+	public static int parseLevel(String name) {
+		String levelName = name.trim().toLowerCase();
+		if (levelName.equals("verbose")) {
+			return Log.VERBOSE;
+		} else if (levelName.equals("debug")) {
+			return Log.DEBUG;
+		} else if (levelName.equals("info")) {
+			return Log.INFO;
+		} else if (levelName.equals("warn")) {
+			return Log.WARN;
+		} else if (levelName.equals("error")) {
+			return Log.ERROR;
+		} else if (levelName.equals("off")) {
+			return OFF;
+		}
+		throw new IllegalArgumentException("Unknown log level: " + name);
+	}
+
+	/**
+	 * @param priority
+	 * @return true, if messages of this priority are logged
+	 */
+	public static boolean isLoggable(int priority) {
+		return priority >= level;
+	}
+
+	public static void d(String pattern) {
+		log(Log.DEBUG, pattern, 0, null, null, null);
+	}
+
+	public static void d(String pattern, Object arg) {
+		log(Log.DEBUG, pattern, 1, arg, null, null);
+	}
+
+	public static void d(String pattern, Object arg1, Object arg2) {
+		log(Log.DEBUG, pattern, 2, arg1, arg2, null);
+	}
+
+	public static void i(String pattern, Object arg) {
+		log(Log.INFO, pattern, 1, arg, null, null);
+	}
+
+	public static void i(String pattern, Object arg1, Object arg2) {
+		log(Log.INFO, pattern, 2, arg1, arg2, null);
+	}
+
+	public static void i(String pattern, Object arg1, Object arg2,
+			Object arg3) {
+		log(Log.INFO, pattern, 3, arg1, arg2, arg3);
+	}
+
+	public static void w(String pattern) {
+		log(Log.WARN, pattern, 0, null, null, null);
+	}
+
+	public static void w(String pattern, Object arg) {
+		log(Log.WARN, pattern, 1, arg, null, null);
+	}
+
+	public static void w(String pattern, Object arg1, Object arg2) {
+		log(Log.WARN, pattern, 2, arg1, arg2, null);
+	}
+
+	public static void e(String pattern, Object arg) {
+		log(Log.ERROR, pattern, 1, arg, null, null);
+	}
+
+	/**
+	 * Waits until the messages logged so far have been written
+	 */
+	public static void flush() {
+		boolean interrupted = false;
+		synchronized (lock) {
+			while (count > 0 || writing) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void log(int priority, String pattern, int argCount,
+			Object arg1, Object arg2, Object arg3) {
+		if (priority < level) {
+			return;
+		}
+		long startTime = RunnerProfile.start();
+		synchronized (lock) {
+			if (count == CAPACITY) {
+				++droppedCount;
+				RunnerProfile.stop(RunnerProfile.LOG, startTime);
+				return;
+			}
+			int index = (head + count) % CAPACITY;
+			priorities[index] = priority;
+			patterns[index] = pattern;
+			argCounts[index] = argCount;
+			args1[index] = arg1;
+			args2[index] = arg2;
+			args3[index] = arg3;
+			++count;
+			if (writerThread == null) {
+				writerThread = new Thread(new Runnable() {
+					public void run() {
+						writeMessages();
+					}
+				}, "JUnit4Android-Log");
+				writerThread.setDaemon(true);
+				writerThread.start();
+			} else if (count == 1) {
+				lock.notifyAll();
+			}
+		}
+		RunnerProfile.stop(RunnerProfile.LOG, startTime);
+	}
+
+	/**
+	 * Loop of the background thread
+	 */
+	private static void writeMessages() {
+		while (true) {
+			int priority;
+			String pattern;
+			int argCount;
+			Object arg1;
+			Object arg2;
+			Object arg3;
+			int dropped;
+			synchronized (lock) {
+				writing = false;
+				while (count == 0) {
+					lock.notifyAll();
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// the log is never stopped
+					}
+				}
+				priority = priorities[head];
+				pattern = patterns[head];
+				argCount = argCounts[head];
+				arg1 = args1[head];
+				arg2 = args2[head];
+				arg3 = args3[head];
+				patterns[head] = null;
+				args1[head] = null;
+				args2[head] = null;
+				args3[head] = null;
+				head = (head + 1) % CAPACITY;
+				--count;
+				dropped = droppedCount;
+				droppedCount = 0;
+				writing = true;
+			}
+			long startTime = RunnerProfile.start();
+			if (dropped > 0) {
+				Log.w(LOGTAG, dropped + " log messages have been dropped");
+			}
+			Log.println(priority, LOGTAG,
+					format(pattern, argCount, arg1, arg2, arg3));
+			RunnerProfile.stop(RunnerProfile.LOG_WRITE, startTime);
+		}
+	}
+
+	/**
+	 * @param pattern
+	 * @param argCount
+	 *            number of arguments given
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 * @return the pattern with its "{}"s replaced by the arguments
+	 */
+	static String format(String pattern, int argCount, Object arg1,
+			Object arg2, Object arg3) {
+		if (argCount == 0) {
+			return pattern;
+		}
+		StringBuilder message = new StringBuilder(pattern.length() + 64);
+		Object[] args = { arg1, arg2, arg3 };
+		int start = 0;
+		for (int i = 0; i < argCount; i++) {
+			int index = pattern.indexOf("{}", start);
+			if (index < 0) {
+				break;
+			}
+			message.append(pattern, start, index).append(args[i]);
+			start = index + 2;
+		}
+		message.append(pattern, start, pattern.length());
+		return message.toString();
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import android.os.Bundle;
+
+/**
+ * Options of a test run. Each option is first looked up in the extras (e.g.
+ * of the intent starting the test runner or the arguments of an
+ * instrumentation), then in the meta-data of the test runner's manifest
+ * element. Values may be given as typed values or as strings.
+ *
+ * @author Daniel Thommes
+ */
+public class RunOptions {
+
+	/**
+	 * Key for the option to enable Autorun
+	 */
+	public static final String AUTORUN = "autorun";
+	/**
+	 * Key for the option naming the test class
+	 */
+	public static final String TEST_CLASS = "testClass";
+	/**
+	 * Key for the option giving the number of test classes to be run in
+	 * parallel
+	 */
+	public static final String THREAD_POOL_SIZE = "threadPoolSize";
+	/**
+	 * Key for the option to write a report file per test class instead of a
+	 * single report file
+	 */
+	public static final String REPORT_FILE_PER_CLASS = "reportFilePerClass";
+	/**
+	 * Key for the option to enable or disable caching the discovered tests
+	 */
+	public static final String CACHE_DISCOVERY = "cacheDiscovery";
+	/**
+	 * Key for the option giving the tests to be run, see
+	 * {@link TestSelectionFilter}
+	 */
+	public static final String INCLUDE = "include";
+	/**
+	 * Key for the option giving the tests not to be run, see
+	 * {@link TestSelectionFilter}
+	 */
+	public static final String EXCLUDE = "exclude";
+	/**
+	 * Key for the option giving the index of the shard to be run
+	 */
+	public static final String SHARD_INDEX = "shardIndex";
+	/**
+	 * Key for the option giving the number of shards the tests are split into
+	 */
+	public static final String NUM_SHARDS = "numShards";
+	/**
+	 * Key for the option to collect the resources used by each test
+	 */
+	public static final String COLLECT_METRICS = "collectMetrics";
+	/**
+	 * Key for the option to run recently failed and fast tests first
+	 */
+	public static final String ORDER_BY_HISTORY = "orderByHistory";
+	/**
+	 * Key for the option giving the number of failed tests after which the
+	 * run is stopped
+	 */
+	public static final String MAX_FAILURES = "maxFailures";
+	/**
+	 * Key for the option giving the default timeout of each test in ms
+	 */
+	public static final String TEST_TIMEOUT = "testTimeout";
+	/**
+	 * Key for the option giving the number of times a failed test is run
+	 * again
+	 */
+	public static final String MAX_RETRIES = "maxRetries";
+	/**
+	 * Key for the option to resume an interrupted run, skipping the tests it
+	 * has completed
+	 */
+	public static final String RESUME = "resume";
+	/**
+	 * Key for the option giving the number of worker processes the test
+	 * classes are run in
+	 */
+	public static final String WORKER_PROCESSES = "workerProcesses";
+	/**
+	 * Key for the option giving the number of test classes after which a
+	 * worker process is recycled
+	 */
+	public static final String WORKER_MAX_CLASSES = "workerMaxClasses";
+	/**
+	 * Key for the option giving the heap size in MB above which a worker
+	 * process is recycled
+	 */
+	public static final String WORKER_MAX_HEAP_MB = "workerMaxHeapMb";
+	/**
+	 * Key for the option to write each stack trace only once per report file
+	 */
+	public static final String TRACE_REFERENCES = "traceReferences";
+	/**
+	 * Key for the option giving the formats of the report: xml, binary or
+	 * both, comma separated
+	 */
+	public static final String REPORT_FORMAT = "reportFormat";
+	/**
+	 * Key for the option giving the localhost port the results are streamed
+	 * on
+	 */
+	public static final String STREAM_PORT = "streamPort";
+	/**
+	 * Key for the option giving the level of the run's log: verbose, debug,
+	 * info, warn, error or off
+	 */
+	public static final String LOG_LEVEL = "logLevel";
+	/**
+	 * Key for the option to profile the runner's own stages
+	 */
+	public static final String PROFILE = "profile";
+
+	private final Bundle extras;
+	private final Bundle metaData;
+
+	/**
+	 * @param extras
+	 *            extras or arguments, may be null
+	 * @param metaData
+	 *            meta-data of the test runner, may be null
+	 */
+	public RunOptions(Bundle extras, Bundle metaData) {
+		this.extras = extras;
+		this.metaData = metaData;
+	}
+
+	/**
+	 * @param key
+	 * @return the value of the option or null if it is not given
+	 */
+	private Object get(String key) {
+		if (extras != null && extras.containsKey(key)) {
+			return extras.get(key);
+		}
+		if (metaData != null) {
+			return metaData.get(key);
+		}
+		return null;
+	}
+
+	public String getString(String key) {
+		Object value = get(key);
+		return value == null ? null : value.toString();
+	}
+
+	public int getInt(String key, int defaultValue) {
+		Object value = get(key);
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.toString().trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Option " + key
+						+ " is not a number: " + value);
+			}
+		}
+		return defaultValue;
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) {
+		Object value = get(key);
+		if (value instanceof Boolean) {
+			return ((Boolean) value).booleanValue();
+		}
+		if (value != null) {
+			return Boolean.parseBoolean(value.toString().trim());
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Activity showing the {@link RunnerProfile} of the last or the running test
+ * run: how often each internal stage of the runner has run and how long it
+ * took. Showing it does not cancel a running test run.
+ *
+ * @author Daniel Thommes
+ */
+public class RunnerDiagnosticsActivity extends Activity {
+
+	private TextView profileText;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setTitle("Runner diagnostics");
+		profileText = new TextView(this);
+		profileText.setTypeface(Typeface.MONOSPACE);
+		profileText.setPadding(6, 6, 6, 6);
+		ScrollView scrollView = new ScrollView(this);
+		scrollView.addView(profileText);
+		setContentView(scrollView);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see android.app.Activity#onResume()
+	 */
+	@Override
+	protected void onResume() {
+		super.onResume();
+		// a run may still be going on, so the profile is read each time
+		if (RunnerProfile.isEnabled()) {
+			profileText.setText(RunnerProfile.format());
+		} else {
+			profileText.setText("Profiling is off. Enable it with the option "
+					+ RunOptions.PROFILE + "=true.");
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Profile of the time the runner spends on itself rather than in the tests.
+ * Each internal stage of a run is counted and timed:
+ *
+ * <pre>
+ * long startTime = RunnerProfile.start();
+ * ...
+ * RunnerProfile.stop(RunnerProfile.DISCOVERY, startTime);
+ * </pre>
+ *
+ * The profile is kept in atomic counters, so it can be recorded from any
+ * thread without locking, and is reset at the start of each run. At the end
+ * of a run it is written as JSON next to the report; the
+ * {@link RunnerDiagnosticsActivity} shows it on the device.
+ * <p>
+ * Profiling is off unless it is enabled by the {@link RunOptions#PROFILE}
+ * option, so the stages are not timed in ordinary runs.
+ *
+ * @author Daniel Thommes
+ */
+public final class RunnerProfile {
+
+	/**
+	 * Discovering and filtering the tests of the run
+	 */
+	public static final int DISCOVERY = 0;
+	/**
+	 * Dispatching a test event by the RunNotifier to all listeners,
+	 * including the runner's own bookkeeping
+	 */
+	public static final int NOTIFIER_DISPATCH = 1;
+	/**
+	 * Handing a started test or a result over to the UI thread
+	 */
+	public static final int UI_HAND_OFF = 2;
+	/**
+	 * Delay between the time a hand-off was due on the UI thread and the
+	 * time it ran
+	 */
+	public static final int UI_QUEUE_DELAY = 3;
+	/**
+	 * Adding the handed over results to the list and updating its views
+	 */
+	public static final int ADAPTER_UPDATE = 4;
+	/**
+	 * Queueing a message of the {@link RunLog}, on the calling thread
+	 */
+	public static final int LOG = 5;
+	/**
+	 * Formatting and writing a message of the {@link RunLog}, on its
+	 * background thread
+	 */
+	public static final int LOG_WRITE = 6;
+	/**
+	 * Serializing a test suite or the duration summary to XML, on the
+	 * reporter's background thread
+	 */
+	public static final int XML_SERIALIZATION = 7;
+
+	private static final String[] STAGE_NAMES = { "discovery",
+			"notifierDispatch", "uiHandOff", "uiQueueDelay", "adapterUpdate",
+			"log", "logWrite", "xmlSerialization" };
+
+	private static final AtomicLongArray counts = new AtomicLongArray(
+			STAGE_NAMES.length);
+	private static final AtomicLongArray totalNanos = new AtomicLongArray(
+			STAGE_NAMES.length);
+	private static final AtomicLongArray maxNanos = new AtomicLongArray(
+			STAGE_NAMES.length);
+	private static volatile boolean enabled = false;
+
+	private RunnerProfile() {
+	}
+
+	/**
+	 * @param enabled
+	 *            true to record the stages, false to ignore them
+	 */
+	public static void setEnabled(boolean enabled) {
+		RunnerProfile.enabled = enabled;
+	}
+
+	/**
+	 * @return true, if the stages are recorded
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the start time of a stage to be passed to
+	 *         {@link #stop(int, long)}, 0 if profiling is off
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records a stage that has started at the given time
+	 *
+	 * @param stage
+	 *            e.g. {@link #DISCOVERY}
+	 * @param startTime
+	 *            as returned by {@link #start()}
+	 */
+	public static void stop(int stage, long startTime) {
+		if (enabled) {
+			record(stage, System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * @param stage
+	 *            e.g. {@link #DISCOVERY}
+	 * @param nanos
+	 *            time the stage took
+	 */
+	public static void record(int stage, long nanos) {
+		if (!enabled) {
+			return;
+		}
+		counts.incrementAndGet(stage);
+		totalNanos.addAndGet(stage, nanos);
+		long max;
+		do {
+			max = maxNanos.get(stage);
+		} while (nanos > max && !maxNanos.compareAndSet(stage, max, nanos));
+	}
+
+	/**
+	 * Clears the profile, e.g. at the start of a run
+	 */
+	public static void reset() {
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			counts.set(stage, 0);
+			totalNanos.set(stage, 0);
+			maxNanos.set(stage, 0);
+		}
+	}
+
+	/**
+	 * @return the number of stages, which are numbered from 0
+	 */
+	public static int getStageCount() {
+		return STAGE_NAMES.length;
+	}
+
+	/**
+	 * @param stage
+	 * @return the name of the stage as written to the JSON, e.g. "discovery"
+	 */
+	public static String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+
+	/**
+	 * @param stage
+	 * @return how often the stage has been recorded
+	 */
+	public static long getCount(int stage) {
+		return counts.get(stage);
+	}
+
+	/**
+	 * @param stage
+	 * @return the total time of the stage in ns
+	 */
+	public static long getTotalNanos(int stage) {
+		return totalNanos.get(stage);
+	}
+
+	/**
+	 * @param stage
+	 * @return the longest time of the stage in ns
+	 */
+	public static long getMaxNanos(int stage) {
+		return maxNanos.get(stage);
+	}
+
+	/**
+	 * @param runName
+	 *            name of the run, e.g. the test class
+	 * @return the profile as a JSON object
+	 */
+	public static String toJson(String runName) {
+		// {"run":"com.example.AllTests","stages":{"discovery":
+		// {"count":1,"totalUs":5230,"meanUs":5230,"maxUs":5230},...}}
+		StringBuilder json = new StringBuilder(1024);
+		json.append("{\"run\":\"");
+		for (int i = 0; i < runName.length(); i++) {
+			char c = runName.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\');
+			}
+			json.append(c);
+		}
+		json.append("\",\"stages\":{");
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			long count = getCount(stage);
+			long total = getTotalNanos(stage);
+			if (stage > 0) {
+				json.append(',');
+			}
+			json.append('"').append(STAGE_NAMES[stage]).append("\":{");
+			json.append("\"count\":").append(count);
+			json.append(",\"totalUs\":").append(total / 1000);
+			json.append(",\"meanUs\":")
+					.append(count == 0 ? 0 : total / count / 1000);
+			json.append(",\"maxUs\":").append(getMaxNanos(stage) / 1000);
+			json.append('}');
+		}
+		json.append("}}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the profile as JSON
+	 *
+	 * @param file
+	 * @param runName
+	 *            name of the run, e.g. the test class
+	 * @throws IOException
+	 */
+	public static void writeJson(File file, String runName)
+			throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write(toJson(runName));
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return the profile as a table to be displayed
+	 */
+	public static String format() {
+		StringBuilder text = new StringBuilder();
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			long count = getCount(stage);
+			long total = getTotalNanos(stage);
+			text.append(STAGE_NAMES[stage]).append('\n');
+			text.append("  ").append(count).append(" x, total ")
+					.append(formatMillis(total)).append(", mean ")
+					.append(formatMillis(count == 0 ? 0 : total / count))
+					.append(", max ").append(formatMillis(getMaxNanos(stage)))
+					.append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @param nanos
+	 * @return the time in ms with 3 decimals, e.g. "12.045 ms"
+	 */
+	private static String formatMillis(long nanos) {
+		long micros = nanos / 1000;
+		String fraction = Long.toString(1000 + micros % 1000);
+		return micros / 1000 + "." + fraction.substring(1) + " ms";
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * {@link Filter} selecting the tests of one shard of a test run. Tests are
+ * assigned to shards by the hash code of their display name, so every test
+ * belongs to exactly one shard and the assignment is the same on every device
+ * and every run.
+ *
+ * @author Daniel Thommes
+ */
+public class ShardingFilter extends Filter {
+
+	private final int shardIndex;
+	private final int numShards;
+
+	/**
+	 * @param shardIndex
+	 *            index of the shard to be run, 0 &lt;= shardIndex &lt;
+	 *            numShards
+	 * @param numShards
+	 *            number of shards the tests are split into
+	 */
+	public ShardingFilter(int shardIndex, int numShards) {
+		if (numShards < 1 || shardIndex < 0 || shardIndex >= numShards) {
+			throw new IllegalArgumentException("Invalid shard " + shardIndex
+					+ " of " + numShards + " shards");
+		}
+		this.shardIndex = shardIndex;
+		this.numShards = numShards;
+	}
+
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	public int getNumShards() {
+		return numShards;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit.runner.manipulation.Filter#shouldRun(org.junit.runner.Description)
+	 */
+	@Override
+	public boolean shouldRun(Description description) {
+		if (description.isTest()) {
+			int hash = description.getDisplayName().hashCode() & 0x7fffffff;
+			return hash % numShards == shardIndex;
+		}
+		for (Description child : description.getChildren()) {
+			if (shouldRun(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit.runner.manipulation.Filter#describe()
+	 */
+	@Override
+	public String describe() {
+		return "shard " + shardIndex + " of " + numShards;
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.junit.runner.Request;
+import org.junit.runners.Suite;
+
+import android.util.Log;
+
+/**
+ * Finds the tests of a test class or suite and builds the {@link TestPlan}
+ * for running them. JUnit3 suites (classes with a static suite method) are
+ * expanded into their test classes, as the JUnit runners cannot run them
+ * directly. If requested, JUnit4 suites are split into their classes as well.
+ * <p>
+ * If a cache file is given, the discovered test classes and their test counts
+ * are stored in it together with a cache key (e.g. the version of the APK).
+ * Later discoveries of the same test class with the same key read the plan
+ * from the cache instead of scanning the suites again.
+ *
+ * @author Daniel Thommes
+ */
+public class TestDiscovery {
+
+	private static final String LOGTAG = "JUnit4Android";
+
+	private final File cacheFile;
+	private final String cacheKey;
+
+	/**
+	 * Creates a discovery without cache
+	 */
+	public TestDiscovery() {
+		this(null, null);
+	}
+
+	/**
+	 * @param cacheFile
+	 *            file to cache the discovered test plan in
+	 * @param cacheKey
+	 *            key identifying the version of the tests, the cache is
+	 *            only used if its key matches
+	 */
+	public TestDiscovery(File cacheFile, String cacheKey) {
+		this.cacheFile = cacheFile;
+		this.cacheKey = cacheKey;
+	}
+
+	/**
+	 * @param testClass
+	 *            test class or suite
+	 * @param splitSuites
+	 *            true to split JUnit4 suites into their test classes
+	 * @return the test plan
+	 */
+	public TestPlan discover(Class<?> testClass, boolean splitSuites) {
+		String planName = testClass.getName() + "\t" + splitSuites;
+		if (cacheFile != null && cacheFile.exists()) {
+			try {
+				TestPlan plan = readCache(planName);
+				if (plan != null) {
+					Log.d(LOGTAG, "Test plan read from " + cacheFile);
+					return plan;
+				}
+			} catch (Exception e) {
+				Log.w(LOGTAG, "Could not read the discovery cache " + cacheFile,
+						e);
+			}
+		}
+		TestPlan plan = new TestPlan();
+		collectTestClasses(testClass, splitSuites, plan,
+				new HashSet<Class<?>>());
+		if (cacheFile != null) {
+			try {
+				writeCache(planName, plan);
+			} catch (IOException e) {
+				Log.w(LOGTAG, "Could not write the discovery cache "
+						+ cacheFile, e);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Helper to get an Junit3 test suite's static suite method
+	 *
+	 * @param clazz
+	 * @return the suite method
+	 */
+	private static Method getSuiteMethod(Class<?> clazz) {
+		Method method;
+		try {
+			method = clazz.getMethod("suite");
+		} catch (Exception e) {
+			return null;
+		}
+		if (Modifier.isStatic(method.getModifiers())) {
+			return method;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the test classes of the given class to the plan. Each class is
+	 * added once only.
+	 *
+	 * @param testClass
+	 * @param splitSuites
+	 * @param plan
+	 * @param planned
+	 *            test classes already added to the plan
+	 */
+	private void collectTestClasses(Class<?> testClass, boolean splitSuites,
+			TestPlan plan, Set<Class<?>> planned) {
+		if (!TestCase.class.isAssignableFrom(testClass)) {
+			/*************************************************************
+			 * JUnit3 TestSuite handling because the JUnit runners couldn't
+			 * do it
+			 *************************************************************/
+			Method suiteMethod = getSuiteMethod(testClass);
+			if (suiteMethod != null) {
+				try {
+					Test suite = (Test) suiteMethod.invoke(null,
+							(Object[]) null);
+					collectTests(suite, splitSuites, plan, planned);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				return;
+			}
+			Suite.SuiteClasses suiteClasses = testClass
+					.getAnnotation(Suite.SuiteClasses.class);
+			if (splitSuites && suiteClasses != null) {
+				for (Class<?> clazz : suiteClasses.value()) {
+					collectTestClasses(clazz, splitSuites, plan, planned);
+				}
+				return;
+			}
+		}
+
+		/*************************************************************
+		 * JUnit3 TestCases, JUnit4 Tests and Suites are run this way
+		 *************************************************************/
+		if (planned.add(testClass)) {
+			plan.add(new TestPlan.Entry(testClass, Request
+					.classWithoutSuiteMethod(testClass).getRunner()));
+		}
+	}
+
+	/**
+	 * Adds the test classes of the tests in a JUnit3 suite to the plan
+	 *
+	 * @param test
+	 * @param splitSuites
+	 * @param plan
+	 * @param planned
+	 */
+	private void collectTests(Test test, boolean splitSuites, TestPlan plan,
+			Set<Class<?>> planned) {
+		if (test instanceof TestSuite) {
+			for (Object child : Collections.list(((TestSuite) test).tests())) {
+				collectTests((Test) child, splitSuites, plan, planned);
+			}
+		} else {
+			collectTestClasses(test.getClass(), splitSuites, plan, planned);
+		}
+	}
+
+	private TestPlan readCache(String planName) throws IOException,
+			ClassNotFoundException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(cacheFile), "UTF-8"));
+		try {
+			if (!cacheKey.equals(reader.readLine())
+					|| !planName.equals(reader.readLine())) {
+				return null;
+			}
+			TestPlan plan = new TestPlan();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				plan.add(new TestPlan.Entry(Class.forName(line.substring(0,
+						tab)), Integer.parseInt(line.substring(tab + 1))));
+			}
+			return plan;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void writeCache(String planName, TestPlan plan) throws IOException {
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tmpFile), "UTF-8"));
+		try {
+			writer.write(cacheKey + "\n");
+			writer.write(planName + "\n");
+			for (TestPlan.Entry entry : plan.getEntries()) {
+				writer.write(entry.getTestClass().getName() + "\t"
+						+ entry.getTestCount() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		if (!tmpFile.renameTo(cacheFile)) {
+			throw new IOException("Could not rename " + tmpFile + " to "
+					+ cacheFile);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.runner.Description;
+
+import android.util.Log;
+
+/**
+ * Outcomes and durations of the tests in earlier runs, stored in a file
+ * between runs. The history orders a {@link TestPlan} so that tests that
+ * failed recently are run first, followed by the fastest tests. Test classes
+ * and suites are ordered by the most recent failure and the total duration
+ * of their tests. New tests without history are run right after the recently
+ * failed ones. Tests that have not been run for {@link #STALE_RUNS} runs,
+ * e.g. because they have been deleted, are dropped from the history.
+ *
+ * @author Daniel Thommes
+ */
+public class TestHistory {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Number of runs a failure is considered as recent
+	 */
+	private static final int RECENT_RUNS = 10;
+	/**
+	 * Number of runs after which a test that has not been run is dropped
+	 */
+	private static final int STALE_RUNS = 30;
+	/**
+	 * Version of the file format, written to the first line. A history of
+	 * another version is discarded.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * History of a single test
+	 */
+	private static class Record {
+
+		/**
+		 * Number of runs of the test since its last failure, RECENT_RUNS if
+		 * it has not failed recently
+		 */
+		int runsSinceFailure = RECENT_RUNS;
+		/**
+		 * Number of runs since the test has been run last
+		 */
+		int runsSinceSeen;
+		/**
+		 * Average duration of the test in µs, -1 if it has not finished yet
+		 */
+		long duration = -1;
+		/**
+		 * Whether the test has been recorded in the current run
+		 */
+		boolean seen;
+	}
+
+	private final File historyFile;
+	private final Map<String, Record> records = new HashMap<String, Record>();
+
+	/**
+	 * @param historyFile
+	 *            file the history is stored in
+	 */
+	public TestHistory(File historyFile) {
+		this.historyFile = historyFile;
+	}
+
+	/**
+	 * Loads the history of earlier runs. Starts with an empty history if the
+	 * file does not exist or cannot be read.
+	 */
+	public void load() {
+		records.clear();
+		if (!historyFile.exists()) {
+			return;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(historyFile), "UTF-8"));
+			try {
+				if (!String.valueOf(VERSION).equals(reader.readLine())) {
+					Log.i(LOGTAG, "Discarding the test history " + historyFile
+							+ " of another version");
+					return;
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// runsSinceFailure \t runsSinceSeen \t duration \t name
+					int tab1 = line.indexOf('\t');
+					int tab2 = line.indexOf('\t', tab1 + 1);
+					int tab3 = line.indexOf('\t', tab2 + 1);
+					Record record = new Record();
+					record.runsSinceFailure = Integer.parseInt(line.substring(
+							0, tab1));
+					record.runsSinceSeen = Integer.parseInt(line.substring(
+							tab1 + 1, tab2));
+					record.duration = Long.parseLong(line.substring(tab2 + 1,
+							tab3));
+					records.put(line.substring(tab3 + 1), record);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+			Log.w(LOGTAG, "Could not read the test history " + historyFile, e);
+			records.clear();
+		}
+	}
+
+	/**
+	 * Stores the history, logs an error if it cannot be written. Tests that
+	 * have not been recorded for {@link #STALE_RUNS} runs are dropped.
+	 */
+	public void save() {
+		for (Iterator<Record> iterator = records.values().iterator(); iterator
+				.hasNext();) {
+			Record record = iterator.next();
+			if (record.seen) {
+				record.runsSinceSeen = 0;
+				record.seen = false;
+			} else if (++record.runsSinceSeen >= STALE_RUNS) {
+				iterator.remove();
+			}
+		}
+		try {
+			File tmpFile = new File(historyFile.getPath() + ".tmp");
+			Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmpFile), "UTF-8"));
+			try {
+				writer.write(VERSION + "\n");
+				for (Entry<String, Record> entry : records.entrySet()) {
+					Record record = entry.getValue();
+					writer.write(record.runsSinceFailure + "\t"
+							+ record.runsSinceSeen + "\t" + record.duration
+							+ "\t" + entry.getKey() + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmpFile.renameTo(historyFile)) {
+				throw new IOException("Could not rename " + tmpFile + " to "
+						+ historyFile);
+			}
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not write the test history " + historyFile, e);
+		}
+	}
+
+	/**
+	 * Adds the outcome of a finished test to the history. Ignored tests are
+	 * not recorded.
+	 *
+	 * @param result
+	 */
+	public void record(JunitTestResult result) {
+		if (!result.finished) {
+			return;
+		}
+		String name = result.getDescription().getDisplayName();
+		Record record = records.get(name);
+		if (record == null) {
+			record = new Record();
+			records.put(name, record);
+		}
+		record.seen = true;
+		if (result.hasFailures()) {
+			record.runsSinceFailure = 0;
+		} else if (record.runsSinceFailure < RECENT_RUNS) {
+			++record.runsSinceFailure;
+		}
+		// in µs, so tests taking less than a millisecond are told apart
+		long duration = result.getDurationNanos() / 1000;
+		if (record.duration < 0) {
+			record.duration = duration;
+		} else {
+			// moving average to smooth out single slow runs
+			record.duration = (3 * record.duration + duration) / 4;
+		}
+	}
+
+	/**
+	 * @return comparator ordering the descriptions of tests, test classes and
+	 *         suites by their most recent failure and then by their duration
+	 */
+	public Comparator<Description> getComparator() {
+		return new Comparator<Description>() {
+
+			/**
+			 * Sort keys of the descriptions compared so far
+			 */
+			private final Map<Description, long[]> keys = new HashMap<Description, long[]>();
+
+			public int compare(Description description1,
+					Description description2) {
+				long[] key1 = getKey(description1);
+				long[] key2 = getKey(description2);
+				for (int i = 0; i < key1.length; i++) {
+					if (key1[i] != key2[i]) {
+						return key1[i] < key2[i] ? -1 : 1;
+					}
+				}
+				return 0;
+			}
+
+			/**
+			 * @param description
+			 * @return the runs since the most recent failure and the total
+			 *         duration of the description's tests
+			 */
+			private long[] getKey(Description description) {
+				long[] key = keys.get(description);
+				if (key == null) {
+					if (description.isTest()) {
+						Record record = records.get(description
+								.getDisplayName());
+						key = record == null ? new long[] { RECENT_RUNS, 0 }
+								: new long[] { record.runsSinceFailure,
+										Math.max(record.duration, 0) };
+					} else {
+						key = new long[] { RECENT_RUNS, 0 };
+						for (Description child : description.getChildren()) {
+							long[] childKey = getKey(child);
+							key[0] = Math.min(key[0], childKey[0]);
+							key[1] += childKey[1];
+						}
+					}
+					keys.put(description, key);
+				}
+				return key;
+			}
+		};
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.junit4android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import android.util.Log;
+
+/**
+ * Journal of the tests completed by a run, appended to as the tests finish
+ * so that it survives a crash or kill of the process. A later run with the
+ * same key can read the results from the journal, skip the tests already
+ * completed and continue the journal.
+ * <p>
+ * The journal starts with a version and the key of the run, followed by a
+ * record per test result. Each record is prefixed with its length, so an
+ * incomplete last record written before a crash is detected and dropped.
+ *
+ * @author Daniel Thommes
+ */
+public class TestJournal {
+
+	private static final String LOGTAG = "JUnit4Android";
+	private static final int VERSION = 2;
+
+	private final File journalFile;
+	private final String key;
+	/**
+	 * Length of the journal up to the end of its last complete record, as
+	 * found by {@link #read()}
+	 */
+	private long validLength = 0;
+	private DataOutputStream out;
+
+	/**
+	 * @param journalFile
+	 * @param key
+	 *            key identifying the run, e.g. by its test class and the
+	 *            version of the tests
+	 */
+	public TestJournal(File journalFile, String key) {
+		this.journalFile = journalFile;
+		this.key = key;
+	}
+
+	/**
+	 * Reads the results of an earlier run with the same key
+	 *
+	 * @return the results, an empty list if there is no journal of a run with
+	 *         the same key or it cannot be read
+	 */
+	public List<JunitTestResult> read() {
+		List<JunitTestResult> results = new ArrayList<JunitTestResult>();
+		validLength = 0;
+		if (!journalFile.exists()) {
+			return results;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(journalFile)));
+			try {
+				if (in.readInt() != VERSION || !key.equals(readString(in))) {
+					return results;
+				}
+				long length = 4 + 4 + key.getBytes("UTF-8").length;
+				while (true) {
+					byte[] record;
+					try {
+						record = new byte[in.readInt()];
+						in.readFully(record);
+					} catch (EOFException e) {
+						// end of the journal or incomplete last record
+						break;
+					}
+					results.add(readResult(new DataInputStream(
+							new ByteArrayInputStream(record)), true));
+					length += 4 + record.length;
+				}
+				validLength = length;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not read the test journal " + journalFile, e);
+			results.clear();
+		}
+		return results;
+	}
+
+	/**
+	 * Opens the journal for appending results
+	 *
+	 * @param resume
+	 *            true to continue the journal read by {@link #read()}, false
+	 *            to start a new one
+	 * @throws IOException
+	 */
+	public void open(boolean resume) throws IOException {
+		if (resume && validLength > 0) {
+			// drop an incomplete last record
+			RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+			try {
+				file.setLength(validLength);
+			} finally {
+				file.close();
+			}
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(journalFile, true)));
+		} else {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(journalFile)));
+			out.writeInt(VERSION);
+			writeString(out, key);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Appends a result to the journal and flushes it to the file
+	 *
+	 * @param result
+	 * @throws IOException
+	 */
+	public void append(JunitTestResult result) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		writeResult(new DataOutputStream(record), result, true);
+		out.writeInt(record.size());
+		record.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Closes the journal, keeping it for a later run
+	 */
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				Log.w(LOGTAG, "Could not close the test journal "
+						+ journalFile, e);
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * Closes and deletes the journal, e.g. after a complete run
+	 */
+	public void delete() {
+		close();
+		journalFile.delete();
+	}
+
+	private static void writeResult(DataOutputStream out,
+			JunitTestResult result, boolean withAttempts) throws IOException {
+		writeString(out, result.getDescription().getDisplayName());
+		writeString(out, result.ignoreReason);
+		out.writeLong(result.getDurationNanos());
+		out.writeLong(result.getOverheadNanos());
+		out.writeInt(result.getFailures().size());
+		for (Failure failure : result.getFailures()) {
+			writeString(out, RecordedFailure.getType(failure));
+			writeString(out, failure.getMessage());
+			writeString(out, failure.getTrace());
+			out.writeBoolean(RecordedFailure.isError(failure));
+		}
+		if (withAttempts) {
+			out.writeInt(result.getPreviousAttempts().size());
+			for (JunitTestResult attempt : result.getPreviousAttempts()) {
+				writeResult(out, attempt, false);
+			}
+		}
+	}
+
+	private static JunitTestResult readResult(DataInputStream in,
+			boolean withAttempts) throws IOException {
+		// same format as Description.createTestDescription
+		Description description = Description
+				.createSuiteDescription(readString(in));
+		JunitTestResult result = new JunitTestResult(description, 0,
+				readString(in));
+		result.finished = !result.isIgnored();
+		result.durationNanos = in.readLong();
+		result.overheadNanos = in.readLong();
+		for (int i = in.readInt(); i > 0; i--) {
+			result.addFailure(new RecordedFailure(description, readString(in),
+					readString(in), readString(in), in.readBoolean()));
+		}
+		if (withAttempts) {
+			int attemptCount = in.readInt();
+			if (attemptCount > 0) {
+				result.previousAttempts = new ArrayList<JunitTestResult>(
+						attemptCount);
+				for (int i = 0; i < attemptCount; i++) {
+					result.previousAttempts.add(readResult(in, false));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a string of any length or null
+	 */
+	private static void writeString(DataOutputStream out, String string)
+			throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import android.os.Debug;
+
+/**
+ * Resources used by a single test: CPU time and allocations of the thread
+ * running the test, garbage collections it caused and the size of the Java and
+ * native heap. Allocations are only counted while
+ * {@link Debug#startAllocCounting()} is active.
+ *
+ * @author Daniel Thommes
+ */
+public class TestMetrics {
+
+	private long cpuTimeNanos;
+	private int allocationCount;
+	private long allocatedBytes;
+	private int gcCount;
+	private long javaHeapBytes;
+	private long nativeHeapBytes;
+
+	/**
+	 * Takes the initial values on the thread about to run the test
+	 *
+	 * @return the metrics to be finished after the test
+	 */
+	public static TestMetrics start() {
+		TestMetrics metrics = new TestMetrics();
+		metrics.javaHeapBytes = usedJavaHeapBytes();
+		metrics.nativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+		metrics.gcCount = Debug.getThreadGcInvocationCount();
+		metrics.allocatedBytes = Debug.getThreadAllocSize();
+		metrics.allocationCount = Debug.getThreadAllocCount();
+		metrics.cpuTimeNanos = Debug.threadCpuTimeNanos();
+		return metrics;
+	}
+
+	/**
+	 * Turns the initial values into the resources used by the test. Must be
+	 * called on the thread that has called {@link #start()}. The heap sizes
+	 * are the larger of the values before and after the test.
+	 */
+	public void finish() {
+		if (cpuTimeNanos >= 0) {
+			cpuTimeNanos = Debug.threadCpuTimeNanos() - cpuTimeNanos;
+		}
+		allocationCount = Debug.getThreadAllocCount() - allocationCount;
+		allocatedBytes = Debug.getThreadAllocSize() - allocatedBytes;
+		gcCount = Debug.getThreadGcInvocationCount() - gcCount;
+		javaHeapBytes = Math.max(javaHeapBytes, usedJavaHeapBytes());
+		nativeHeapBytes = Math.max(nativeHeapBytes,
+				Debug.getNativeHeapAllocatedSize());
+	}
+
+	private static long usedJavaHeapBytes() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return the CPU time of the test's thread in ns, -1 if not supported
+	 */
+	public long getCpuTimeNanos() {
+		return cpuTimeNanos;
+	}
+
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return the number of garbage collections caused by the test's thread
+	 */
+	public int getGcCount() {
+		return gcCount;
+	}
+
+	/**
+	 * @return bytes used on the Java heap
+	 */
+	public long getJavaHeapBytes() {
+		return javaHeapBytes;
+	}
+
+	/**
+	 * @return bytes allocated on the native heap
+	 */
+	public long getNativeHeapBytes() {
+		return nativeHeapBytes;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sorter;
+
+/**
+ * The tests to be run, as found by {@link TestDiscovery}: An ordered list of
+ * test classes (or suites) with their number of tests. Each entry creates its
+ * {@link Runner} only once, so the runner used for counting is also used for
+ * running the tests.
+ *
+ * @author Daniel Thommes
+ */
+public class TestPlan {
+
+	/**
+	 * A test class or suite of the plan
+	 *
+	 * @author Daniel Thommes
+	 */
+	public static class Entry {
+
+		private final Class<?> testClass;
+		private Runner runner;
+		private int testCount;
+
+		/**
+		 * Creates an entry for a discovered runner
+		 *
+		 * @param testClass
+		 * @param runner
+		 */
+		Entry(Class<?> testClass, Runner runner) {
+			this.testClass = testClass;
+			this.runner = runner;
+			this.testCount = runner.testCount();
+		}
+
+		/**
+		 * Creates an entry loaded from the discovery cache. Its runner is
+		 * created when it is needed first.
+		 *
+		 * @param testClass
+		 * @param testCount
+		 */
+		Entry(Class<?> testClass, int testCount) {
+			this.testClass = testClass;
+			this.testCount = testCount;
+		}
+
+		public Class<?> getTestClass() {
+			return testClass;
+		}
+
+		public int getTestCount() {
+			return testCount;
+		}
+
+		/**
+		 * @return the runner for this entry, which is created on the first
+		 *         call if the entry has been loaded from the cache
+		 */
+		public Runner getRunner() {
+			if (runner == null) {
+				runner = Request.classWithoutSuiteMethod(testClass).getRunner();
+				testCount = runner.testCount();
+			}
+			return runner;
+		}
+
+		/**
+		 * Creates a new entry for the test class of this entry with its own
+		 * runner, e.g. to run some of the tests again
+		 *
+		 * @param filter
+		 *            filter selecting the tests of the new entry
+		 * @return the new entry or null, if no tests pass the filter
+		 */
+		Entry copy(Filter filter) {
+			Entry copy = new Entry(testClass, Request.classWithoutSuiteMethod(
+					testClass).getRunner());
+			return copy.filter(filter) ? copy : null;
+		}
+
+		/**
+		 * Applies the filter to the runner of this entry
+		 *
+		 * @param filter
+		 * @return false, if no tests of this entry remain
+		 */
+		boolean filter(Filter filter) {
+			Runner filteredRunner = getRunner();
+			try {
+				filter.apply(filteredRunner);
+			} catch (NoTestsRemainException e) {
+				return false;
+			}
+			testCount = filteredRunner.testCount();
+			return true;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	void add(Entry entry) {
+		entries.add(entry);
+	}
+
+	/**
+	 * Applies a filter to all entries of this plan and removes the entries
+	 * without any remaining tests. Filtering requires the runners of all
+	 * entries to be created.
+	 *
+	 * @param filter
+	 */
+	public void filter(Filter filter) {
+		for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+			if (!iterator.next().filter(filter)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Orders the entries of this plan and the tests within each entry.
+	 * Entries and tests the comparator considers equal keep their order.
+	 * Sorting requires the runners of all entries to be created.
+	 *
+	 * @param comparator
+	 *            comparator for the descriptions of test classes, suites and
+	 *            tests
+	 */
+	public void sort(final Comparator<Description> comparator) {
+		Sorter sorter = new Sorter(comparator);
+		for (Entry entry : entries) {
+			sorter.apply(entry.getRunner());
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry entry1, Entry entry2) {
+				return comparator.compare(entry1.getRunner().getDescription(),
+						entry2.getRunner().getDescription());
+			}
+		});
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the number of tests in this plan
+	 */
+	public int getTestCount() {
+		int testCount = 0;
+		for (Entry entry : entries) {
+			testCount += entry.getTestCount();
+		}
+		return testCount;
+	}
+}
@@ -20,7 +20,6 @@ import java.util.List;
 
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
-import org.junit4android.JunitTestRunnerActivity.JunitTestResult;
 
 import android.app.Activity;
 import android.content.Context;
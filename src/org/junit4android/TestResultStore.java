@@ -0,0 +1,410 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import android.util.Log;
+
+/**
+ * Indexed store of the test results being displayed. Results are grouped by
+ * their test class. Groups are kept in an array list, so they can be looked
+ * up by position in constant time, and each group counts its failed and
+ * ignored results as they are added.
+ * <p>
+ * As runs can have a huge number of tests, the results are not kept as
+ * {@link JunitTestResult}s, but in a compact form: Each group keeps the
+ * interned method names, the durations and the states of its results in arrays.
+ * Only ignore reasons and failures are kept per result, the failures without
+ * their exceptions. Stack traces above a size limit are moved to a file, once
+ * per trace ID of the {@link TraceStore}, and only read again when they are
+ * displayed. Results are created from this form when they are looked up,
+ * without their annotations, metrics and earlier attempts.
+ *
+ * @author Daniel Thommes
+ */
+public class TestResultStore {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Size in chars above which stack traces are moved to the trace file
+	 */
+	public static final int DEFAULT_TRACE_SIZE_LIMIT = 2048;
+
+	private static final int INITIAL_CAPACITY = 8;
+	private static final byte PASSED = 0;
+	private static final byte FAILED = 1;
+	private static final byte IGNORED = 2;
+
+	/**
+	 * Results of one test class
+	 *
+	 * @author Daniel Thommes
+	 */
+	public class Group {
+
+		private final String name;
+		private String[] methodNames = new String[INITIAL_CAPACITY];
+		private long[] durations = new long[INITIAL_CAPACITY];
+		private byte[] states = new byte[INITIAL_CAPACITY];
+		private int size = 0;
+		/**
+		 * Ignore reasons of the ignored results by position
+		 */
+		private final Map<Integer, String> ignoreReasons = new HashMap<Integer, String>();
+		/**
+		 * Failures of the failed results by position
+		 */
+		private final Map<Integer, Failure[]> failures = new HashMap<Integer, Failure[]>();
+		private int failureCount = 0;
+		private int ignoredCount = 0;
+
+		Group(String name) {
+			this.name = name;
+		}
+
+		void add(JunitTestResult result) {
+			if (size == states.length) {
+				grow();
+			}
+			int position = size++;
+			methodNames[position] = intern(result.getDescription()
+					.getMethodName());
+			durations[position] = result.getDurationNanos();
+			if (result.hasFailures()) {
+				states[position] = FAILED;
+				failures.put(position, storeFailures(result.getFailures()));
+				++failureCount;
+			} else if (result.isIgnored()) {
+				states[position] = IGNORED;
+				ignoreReasons.put(position, intern(result.ignoreReason));
+				++ignoredCount;
+			} else {
+				states[position] = PASSED;
+			}
+		}
+
+		private void grow() {
+			int capacity = states.length * 2;
+			String[] newMethodNames = new String[capacity];
+			System.arraycopy(methodNames, 0, newMethodNames, 0, size);
+			methodNames = newMethodNames;
+			long[] newDurations = new long[capacity];
+			System.arraycopy(durations, 0, newDurations, 0, size);
+			durations = newDurations;
+			byte[] newStates = new byte[capacity];
+			System.arraycopy(states, 0, newStates, 0, size);
+			states = newStates;
+		}
+
+		/**
+		 * @return the name of the test class
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Creates the result at the given position. Its stack traces are read
+		 * from the trace file when they are needed.
+		 *
+		 * @param position
+		 * @return the result
+		 */
+		public JunitTestResult get(int position) {
+			if (position >= size) {
+				throw new IndexOutOfBoundsException("Position " + position
+						+ ", size " + size);
+			}
+			JunitTestResult result = new JunitTestResult(getDescription(
+					name, methodNames[position]), 0, ignoreReasons.get(position));
+			result.finished = true;
+			result.durationNanos = durations[position];
+			if (states[position] == FAILED) {
+				for (Failure failure : failures.get(position)) {
+					result.addFailure(failure);
+				}
+			}
+			return result;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getFailureCount() {
+			return failureCount;
+		}
+
+		public int getIgnoredCount() {
+			return ignoredCount;
+		}
+
+		public int getPassedCount() {
+			return size - failureCount - ignoredCount;
+		}
+
+		public boolean hasFailures() {
+			return failureCount > 0;
+		}
+	}
+
+	/**
+	 * {@link RecordedFailure} whose stack trace has been moved to the trace
+	 * file
+	 *
+	 * @author Daniel Thommes
+	 */
+	private class StoredTraceFailure extends RecordedFailure {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long offset;
+		private final int length;
+
+		public StoredTraceFailure(Description description, String type,
+				String message, boolean error, String traceId, long offset,
+				int length) {
+			super(description, type, message, null, error, traceId);
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public String getTrace() {
+			return readTrace(offset, length);
+		}
+	}
+
+	private final List<Group> groups = new ArrayList<Group>();
+	private final HashMap<String, Group> groupsByName = new HashMap<String, Group>();
+	/**
+	 * Pool of the class and method names and ignore reasons, so equal ones
+	 * are kept only once
+	 */
+	private final HashMap<String, String> strings = new HashMap<String, String>();
+	/**
+	 * File the long stack traces are moved to, null to keep them in memory
+	 */
+	private final File traceFile;
+	/**
+	 * Offset and length of the traces in the trace file by the ID of the
+	 * failures' trace, so each trace is written once
+	 */
+	private final HashMap<String, long[]> storedTraces = new HashMap<String, long[]>();
+	private final int traceSizeLimit;
+	private RandomAccessFile traceAccess;
+
+	/**
+	 * Creates a store keeping all stack traces in memory
+	 */
+	public TestResultStore() {
+		this(null, 0);
+	}
+
+	/**
+	 * @param traceFile
+	 *            file the stack traces exceeding the limit are moved to, null
+	 *            to keep them in memory. It is overwritten.
+	 * @param traceSizeLimit
+	 *            size in chars above which stack traces are moved to the file
+	 */
+	public TestResultStore(File traceFile, int traceSizeLimit) {
+		this.traceFile = traceFile;
+		this.traceSizeLimit = traceSizeLimit;
+	}
+
+	/**
+	 * Adds a result to the group of its test class, creating the group if
+	 * necessary.
+	 *
+	 * @param result
+	 * @return the group the result has been added to
+	 */
+	public Group add(JunitTestResult result) {
+		String className = result.getDescription().getClassName();
+		Group group = groupsByName.get(className);
+		if (group == null) {
+			group = new Group(intern(className));
+			groupsByName.put(group.getName(), group);
+			groups.add(group);
+		}
+		group.add(result);
+		return group;
+	}
+
+	public Group getGroup(int groupPosition) {
+		return groups.get(groupPosition);
+	}
+
+	public int getGroupCount() {
+		return groups.size();
+	}
+
+	public JunitTestResult getResult(int groupPosition, int childPosition) {
+		return groups.get(groupPosition).get(childPosition);
+	}
+
+	/**
+	 * Removes all results and their stack traces
+	 */
+	public synchronized void clear() {
+		groups.clear();
+		groupsByName.clear();
+		strings.clear();
+		storedTraces.clear();
+		if (traceAccess != null) {
+			try {
+				traceAccess.close();
+			} catch (IOException e) {
+				Log.w(LOGTAG, "Could not close the trace file", e);
+			}
+			traceAccess = null;
+		}
+		if (traceFile != null) {
+			traceFile.delete();
+		}
+	}
+
+	private String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		String interned = strings.get(string);
+		if (interned == null) {
+			strings.put(string, string);
+			interned = string;
+		}
+		return interned;
+	}
+
+	private static Description getDescription(String className,
+			String methodName) {
+		if (methodName == null) {
+			// failure of the whole class
+			return Description.createSuiteDescription(className);
+		}
+		// same format as Description.createTestDescription
+		return Description.createSuiteDescription(methodName + "("
+				+ className + ")");
+	}
+
+	/**
+	 * @param failures
+	 * @return the failures without their exceptions, their long stack traces
+	 *         moved to the trace file
+	 */
+	private Failure[] storeFailures(List<Failure> failures) {
+		Failure[] storedFailures = new Failure[failures.size()];
+		for (int i = 0; i < storedFailures.length; i++) {
+			Failure failure = failures.get(i);
+			Description description = getDescription(
+					intern(failure.getDescription().getClassName()),
+					intern(failure.getDescription().getMethodName()));
+			String type = RecordedFailure.getType(failure);
+			boolean error = RecordedFailure.isError(failure);
+			String traceId = RecordedFailure.getTraceId(failure);
+			String trace = failure.getTrace();
+			if (traceFile != null && trace.length() > traceSizeLimit) {
+				long[] storedTrace = traceId == null ? null : storedTraces
+						.get(traceId);
+				if (storedTrace == null) {
+					byte[] bytes = toBytes(trace);
+					long offset = writeTrace(bytes);
+					if (offset >= 0) {
+						storedTrace = new long[] { offset, bytes.length };
+						if (traceId != null) {
+							storedTraces.put(traceId, storedTrace);
+						}
+					}
+				}
+				if (storedTrace != null) {
+					storedFailures[i] = new StoredTraceFailure(description,
+							type, failure.getMessage(), error, traceId,
+							storedTrace[0], (int) storedTrace[1]);
+					continue;
+				}
+			}
+			storedFailures[i] = new RecordedFailure(description, type,
+					failure.getMessage(), trace, error, traceId);
+		}
+		return storedFailures;
+	}
+
+	private static byte[] toBytes(String trace) {
+		try {
+			return trace.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Appends a stack trace to the trace file
+	 *
+	 * @param trace
+	 *            the stack trace in UTF-8
+	 * @return its offset in the file or -1 if it could not be written
+	 */
+	private synchronized long writeTrace(byte[] trace) {
+		try {
+			if (traceAccess == null) {
+				traceAccess = new RandomAccessFile(traceFile, "rw");
+				traceAccess.setLength(0);
+			}
+			long offset = traceAccess.length();
+			traceAccess.seek(offset);
+			traceAccess.write(trace);
+			return offset;
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not write the trace file, keeping the trace",
+					e);
+			return -1;
+		}
+	}
+
+	/**
+	 * @param offset
+	 * @param length
+	 *            number of bytes
+	 * @return the stack trace read from the trace file
+	 */
+	private synchronized String readTrace(long offset, int length) {
+		if (traceAccess == null) {
+			return "(The stack trace has been removed)";
+		}
+		try {
+			traceAccess.seek(offset);
+			byte[] trace = new byte[length];
+			traceAccess.readFully(trace);
+			return new String(trace, "UTF-8");
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not read the trace file", e);
+			return "(The stack trace could not be read: " + e + ")";
+		}
+	}
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runners.Suite;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * A run of the tests as configured by {@link RunOptions}: Discovers the tests,
+ * selects the tests and the shard to be run, orders the tests by their history,
+ * runs them and writes the XML report while they are running. The results are
+ * passed on to a {@link JunitTestRunner.ResultListener}, e.g. to be displayed.
+ * Used by the {@link JunitTestRunnerActivity} as well as by the headless
+ * {@link JunitInstrumentation}.
+ * <p>
+ * The completed tests are recorded in a {@link TestJournal}. If a run is
+ * interrupted, e.g. by a crash, a run with the resume option skips the tests
+ * already completed and reports their results from the journal.
+ * <p>
+ * With the workerProcesses option the test classes are run in a
+ * {@link TestWorkerPool} of separate processes. With the streamPort option
+ * the results are also streamed to the host by a {@link ResultStreamServer}.
+ *
+ * @author Daniel Thommes
+ */
+public class TestRunSession implements JunitTestRunner.ResultListener {
+
+	private static final String LOGTAG = "JUnit4Android";
+
+	/**
+	 * Directory on the external storage the test reports are written to
+	 */
+	public static final String REPORT_DIRECTORY_NAME = "junit4android/reports/";
+	/**
+	 * Name of the file in the cache directory the discovered tests are cached
+	 * in
+	 */
+	private static final String DISCOVERY_CACHE_FILE_NAME = "junit4android-discovery";
+	/**
+	 * Name of the file in the cache directory the test history is stored in
+	 */
+	private static final String HISTORY_FILE_NAME = "junit4android-history";
+	/**
+	 * Name of the file in the files directory the completed tests are
+	 * recorded in
+	 */
+	private static final String JOURNAL_FILE_NAME = "junit4android-journal";
+
+	private final Context context;
+	private final Class<?> testClass;
+	/**
+	 * Number of test classes being run in parallel, 1 for a sequential run
+	 */
+	private final int threadPoolSize;
+	/**
+	 * Flag indicating whether a report file is written per test class
+	 */
+	private final boolean reportFilePerClass;
+	/**
+	 * Flag indicating whether the discovered tests are cached between runs
+	 */
+	private final boolean cacheDiscovery;
+	/**
+	 * Filter selecting the tests by the include and exclude options, null if
+	 * all tests are run
+	 */
+	private final TestSelectionFilter selectionFilter;
+	/**
+	 * Filter selecting the tests of the shard to be run, null if the tests
+	 * are not sharded
+	 */
+	private final ShardingFilter shardingFilter;
+	/**
+	 * Flag indicating whether the resources used by each test are collected
+	 */
+	private final boolean collectMetrics;
+	/**
+	 * Flag indicating whether the tests are ordered by their history
+	 */
+	private final boolean orderByHistory;
+	/**
+	 * Number of failed tests after which the run is stopped, 0 for no limit
+	 */
+	private final int maxFailures;
+	/**
+	 * Default timeout of each test in ms, 0 for no timeout
+	 */
+	private final int testTimeout;
+	/**
+	 * Number of times a failed test is run again, 0 for no retries
+	 */
+	private final int maxRetries;
+	/**
+	 * Flag indicating whether an interrupted run is resumed
+	 */
+	private final boolean resume;
+	/**
+	 * Number of worker processes the test classes are run in, 0 to run them
+	 * in this process
+	 */
+	private final int workerProcesses;
+	/**
+	 * Number of test classes after which a worker process is recycled, 0 for
+	 * no limit
+	 */
+	private final int workerMaxClasses;
+	/**
+	 * Heap size in MB above which a worker process is recycled, 0 for no
+	 * limit
+	 */
+	private final int workerMaxHeapMb;
+	/**
+	 * Flag indicating whether repeated stack traces are written as
+	 * references to the report
+	 */
+	private final boolean traceReferences;
+	/**
+	 * {@link JunitXmlReporter#FORMAT_XML} and
+	 * {@link JunitXmlReporter#FORMAT_BINARY} flags of the report formats
+	 */
+	private final int reportFormats;
+	/**
+	 * Port the results are streamed on, 0 if they are not streamed
+	 */
+	private final int streamPort;
+	/**
+	 * Level of the {@link RunLog} during the run
+	 */
+	private final int logLevel;
+	/**
+	 * Flag indicating whether the {@link RunnerProfile} is recorded
+	 */
+	private final boolean profile;
+
+	private JunitTestRunner.ResultListener resultListener;
+	/**
+	 * History of the tests the results are recorded in, null if the tests
+	 * are not ordered by their history
+	 */
+	private TestHistory history;
+	/**
+	 * Journal of the completed tests, null if it cannot be written
+	 */
+	private TestJournal journal;
+	/**
+	 * Results of tests completed by an interrupted run by class name, removed
+	 * when they have been reported
+	 */
+	private final Map<String, List<JunitTestResult>> journaledResults = new LinkedHashMap<String, List<JunitTestResult>>();
+	/**
+	 * Number of tests of the run including the tests completed before
+	 */
+	private int totalTestCount;
+	/**
+	 * Reporter writing the XML report while the tests are running
+	 */
+	private JunitXmlReporter reporter;
+	/**
+	 * Server streaming the results to the host, null if they are not
+	 * streamed
+	 */
+	private ResultStreamServer streamServer;
+	/**
+	 * Statistics of the test durations of the run
+	 */
+	private DurationStatistics durationStatistics;
+	/**
+	 * Exception that occurred when writing the report
+	 */
+	private RuntimeException reportException;
+	/**
+	 * Flag indicating whether the run has been stopped because of too many
+	 * failures
+	 */
+	private boolean maxFailuresReached;
+
+	/**
+	 * @param context
+	 * @param testClass
+	 *            the test class to be run - can also be a test suite
+	 * @param options
+	 * @throws IllegalArgumentException
+	 *             if the options are invalid
+	 */
+	public TestRunSession(Context context, Class<?> testClass,
+			RunOptions options) {
+		this.context = context;
+		this.testClass = testClass;
+		threadPoolSize = options.getInt(RunOptions.THREAD_POOL_SIZE, 1);
+		reportFilePerClass = options.getBoolean(
+				RunOptions.REPORT_FILE_PER_CLASS, false);
+		cacheDiscovery = options.getBoolean(RunOptions.CACHE_DISCOVERY, true);
+		collectMetrics = options.getBoolean(RunOptions.COLLECT_METRICS, false);
+		orderByHistory = options.getBoolean(RunOptions.ORDER_BY_HISTORY, false);
+		maxFailures = options.getInt(RunOptions.MAX_FAILURES, 0);
+		testTimeout = options.getInt(RunOptions.TEST_TIMEOUT, 0);
+		maxRetries = options.getInt(RunOptions.MAX_RETRIES, 0);
+		resume = options.getBoolean(RunOptions.RESUME, false);
+		workerProcesses = options.getInt(RunOptions.WORKER_PROCESSES, 0);
+		workerMaxClasses = options.getInt(RunOptions.WORKER_MAX_CLASSES, 0);
+		workerMaxHeapMb = options.getInt(RunOptions.WORKER_MAX_HEAP_MB, 0);
+		traceReferences = options.getBoolean(RunOptions.TRACE_REFERENCES,
+				false);
+		String reportFormatNames = options.getString(RunOptions.REPORT_FORMAT);
+		reportFormats = reportFormatNames == null ? JunitXmlReporter.FORMAT_XML
+				: JunitXmlReporter.parseFormats(reportFormatNames);
+		streamPort = options.getInt(RunOptions.STREAM_PORT, 0);
+		String logLevelName = options.getString(RunOptions.LOG_LEVEL);
+		logLevel = logLevelName == null ? Log.DEBUG : RunLog
+				.parseLevel(logLevelName);
+		profile = options.getBoolean(RunOptions.PROFILE, false);
+		if (workerProcesses > TestWorkerPool.MAX_SIZE) {
+			throw new IllegalArgumentException("Option "
+					+ RunOptions.WORKER_PROCESSES + " must not exceed "
+					+ TestWorkerPool.MAX_SIZE);
+		}
+		String include = options.getString(RunOptions.INCLUDE);
+		String exclude = options.getString(RunOptions.EXCLUDE);
+		if (include != null || exclude != null) {
+			selectionFilter = new TestSelectionFilter(include, exclude);
+		} else {
+			selectionFilter = null;
+		}
+		int numShards = options.getInt(RunOptions.NUM_SHARDS, 1);
+		if (numShards > 1) {
+			shardingFilter = new ShardingFilter(options.getInt(
+					RunOptions.SHARD_INDEX, 0), numShards);
+		} else {
+			shardingFilter = null;
+		}
+	}
+
+	/**
+	 * Helper to load the test class. First tries to load the class from the
+	 * 'testClass' option given as extra or meta-data. If there is no class
+	 * given falls back to &lt;appPackageName&gt;.AllTests class.
+	 *
+	 * @param context
+	 * @param options
+	 * @return The test class to be run
+	 * @throws ClassNotFoundException
+	 */
+	public static Class<?> loadTestClass(Context context, RunOptions options)
+			throws ClassNotFoundException {
+		String testSuiteClassName = options.getString(RunOptions.TEST_CLASS);
+		if (testSuiteClassName == null) {
+			/*************************************************************
+			 * Fall back to <packagename>.AllTests
+			 *************************************************************/
+			testSuiteClassName = context.getPackageName() + ".AllTests";
+		}
+		return Class.forName(testSuiteClassName);
+	}
+
+	/**
+	 * Runs the tests and writes the report. Must not be called on the UI
+	 * thread.
+	 *
+	 * @param resultListener
+	 *            listener the results are passed on to
+	 */
+	public void run(JunitTestRunner.ResultListener resultListener) {
+		this.resultListener = resultListener;
+		// the session may be run again, e.g. by the activity
+		reportException = null;
+		maxFailuresReached = false;
+		RunLog.setLevel(logLevel);
+		RunnerProfile.reset();
+		RunnerProfile.setEnabled(profile);
+		File reportDir = new File(Environment.getExternalStorageDirectory(),
+				REPORT_DIRECTORY_NAME);
+		reporter = new JunitXmlReporter(reportDir, getReportFileName(),
+				reportFilePerClass, getReportFileNameSuffix(), traceReferences,
+				reportFormats);
+		durationStatistics = new DurationStatistics();
+		reporter.setDurationStatistics(durationStatistics);
+		TestWorkerPool workerPool = null;
+		boolean complete = false;
+		try {
+			if (streamPort > 0) {
+				// opened first, so the client can connect during discovery
+				try {
+					streamServer = new ResultStreamServer(streamPort);
+				} catch (IOException e) {
+					throw new RuntimeException(
+							"Could not open the result stream port "
+									+ streamPort, e);
+				}
+			}
+			long discoveryStartTime = RunnerProfile.start();
+			TestDiscovery discovery = cacheDiscovery ? new TestDiscovery(
+					new File(context.getCacheDir(), DISCOVERY_CACHE_FILE_NAME),
+					getApkVersion()) : new TestDiscovery();
+			TestPlan plan = discovery.discover(testClass, threadPoolSize > 1);
+			// filtered before counting, so the totals match the tests run
+			if (selectionFilter != null) {
+				plan.filter(selectionFilter);
+			}
+			if (shardingFilter != null) {
+				plan.filter(shardingFilter);
+			}
+			RunnerProfile.stop(RunnerProfile.DISCOVERY, discoveryStartTime);
+			openJournal(plan);
+			if (orderByHistory) {
+				history = new TestHistory(new File(context.getCacheDir(),
+						HISTORY_FILE_NAME));
+				history.load();
+				plan.sort(history.getComparator());
+			}
+			JunitTestRunner runner = new JunitTestRunner(this, threadPoolSize);
+			runner.setCollectMetrics(collectMetrics);
+			runner.setMaxFailures(maxFailures);
+			runner.setTestTimeout(testTimeout);
+			runner.setMaxRetries(maxRetries);
+			if (workerProcesses > 0) {
+				if (collectMetrics) {
+					RunLog.w("Metrics are not collected in worker processes");
+					runner.setCollectMetrics(false);
+				}
+				workerPool = new TestWorkerPool(context, workerProcesses,
+						workerMaxClasses, workerMaxHeapMb * 1024L * 1024L);
+				runner.setRunnerFactory(workerPool);
+			}
+			if (streamServer != null) {
+				streamServer.runStarted(testClass.getName(), totalTestCount);
+			}
+			reportJournaledResults(plan);
+			runner.run(plan);
+			reportJournaledResults(null);
+			maxFailuresReached = runner.isMaxFailuresReached();
+			complete = !maxFailuresReached && !isCancelled();
+			if (history != null) {
+				history.save();
+			}
+			if (journal != null && !isCancelled()) {
+				journal.delete();
+			}
+		} finally {
+			if (workerPool != null) {
+				workerPool.close();
+			}
+			if (journal != null) {
+				journal.close();
+			}
+			try {
+				reporter.close();
+			} catch (RuntimeException e) {
+				reportException = e;
+			}
+			if (streamServer != null) {
+				streamServer.close(complete);
+			}
+			RunLog.flush();
+			if (profile) {
+				writeProfile(reportDir);
+			}
+		}
+	}
+
+	/**
+	 * Writes the {@link RunnerProfile} of the run next to the report as
+	 * PROFILE-&lt;testClass&gt;.json. A failure is only logged, as the
+	 * profile is not part of the results.
+	 *
+	 * @param reportDir
+	 */
+	private void writeProfile(File reportDir) {
+		// TEST-<testClass><suffix>.xml -> PROFILE-<testClass><suffix>.json
+		String reportFileName = getReportFileName();
+		File profileFile = new File(reportDir, "PROFILE-"
+				+ reportFileName.substring(5, reportFileName.length() - 4)
+				+ ".json");
+		try {
+			RunnerProfile.writeJson(profileFile, testClass.getName());
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not write the runner profile", e);
+		}
+	}
+
+	/**
+	 * Opens the journal of the completed tests. If the run is resumed, the
+	 * tests completed before are removed from the plan and their results are
+	 * kept for the report.
+	 *
+	 * @param plan
+	 */
+	private void openJournal(TestPlan plan) {
+		journal = new TestJournal(new File(context.getFilesDir(),
+				JOURNAL_FILE_NAME), testClass.getName()
+				+ getReportFileNameSuffix() + "-" + getApkVersion());
+		List<JunitTestResult> completedResults = resume ? journal.read()
+				: new ArrayList<JunitTestResult>();
+		if (!completedResults.isEmpty()) {
+			RunLog.i("Resuming the test run, skipping {} completed tests",
+					completedResults.size());
+			plan.filter(new CompletedTestsFilter(completedResults));
+		}
+		try {
+			journal.open(!completedResults.isEmpty());
+		} catch (IOException e) {
+			Log.w(LOGTAG, "Could not open the test journal", e);
+			journal = null;
+		}
+		totalTestCount = plan.getTestCount() + completedResults.size();
+		for (JunitTestResult result : completedResults) {
+			result.testCount = totalTestCount;
+			String className = result.getDescription().getClassName();
+			List<JunitTestResult> results = journaledResults.get(className);
+			if (results == null) {
+				results = new ArrayList<JunitTestResult>();
+				journaledResults.put(className, results);
+			}
+			results.add(result);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#testStarted(org.junit.runner.Description)
+	 */
+	public void testStarted(Description description) {
+		if (streamServer != null) {
+			streamServer.testStarted(description);
+		}
+		resultListener.testStarted(description);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#testResult(org.junit4android.JunitTestResult)
+	 */
+	public void testResult(JunitTestResult result) {
+		List<JunitTestResult> completedResults = journaledResults
+				.remove(result.getDescription().getClassName());
+		if (completedResults != null) {
+			for (JunitTestResult completedResult : completedResults) {
+				reportResult(completedResult);
+			}
+		}
+		if (journal != null) {
+			try {
+				journal.append(result);
+			} catch (IOException e) {
+				Log.w(LOGTAG, "Could not write the test journal", e);
+				journal.close();
+				journal = null;
+			}
+		}
+		if (history != null) {
+			history.record(result);
+		}
+		result.testCount = totalTestCount;
+		reportResult(result);
+	}
+
+	private void reportResult(JunitTestResult result) {
+		reporter.testResult(result);
+		durationStatistics.add(result);
+		if (streamServer != null) {
+			streamServer.testResult(result);
+		}
+		resultListener.testResult(result);
+	}
+
+	/**
+	 * Reports the results of test classes completed by an interrupted run.
+	 * The results of classes with tests left to run are reported together
+	 * with the first new result of the class, so each class is reported in
+	 * one piece.
+	 *
+	 * @param plan
+	 *            plan of the tests left to run or null to report all
+	 *            remaining results
+	 */
+	private void reportJournaledResults(TestPlan plan) {
+		if (journaledResults.isEmpty()) {
+			return;
+		}
+		Set<String> classNamesToRun = new HashSet<String>();
+		if (plan != null) {
+			for (TestPlan.Entry entry : plan.getEntries()) {
+				// runners are only created for entries of journaled classes
+				if (containsJournaledClass(entry.getTestClass(),
+						new HashSet<Class<?>>())) {
+					collectClassNames(entry.getRunner().getDescription(),
+							classNamesToRun);
+				}
+			}
+		}
+		for (Iterator<List<JunitTestResult>> iterator = journaledResults
+				.values().iterator(); iterator.hasNext();) {
+			List<JunitTestResult> results = iterator.next();
+			if (!classNamesToRun.contains(results.get(0).getDescription()
+					.getClassName())) {
+				for (JunitTestResult result : results) {
+					reportResult(result);
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param testClass
+	 * @param checkedClasses
+	 * @return true, if results of the class or one of the classes of its
+	 *         {@link Suite.SuiteClasses} have been journaled
+	 */
+	private boolean containsJournaledClass(Class<?> testClass,
+			Set<Class<?>> checkedClasses) {
+		if (!checkedClasses.add(testClass)) {
+			return false;
+		}
+		if (journaledResults.containsKey(testClass.getName())) {
+			return true;
+		}
+		Suite.SuiteClasses suiteClasses = testClass
+				.getAnnotation(Suite.SuiteClasses.class);
+		if (suiteClasses != null) {
+			for (Class<?> suiteClass : suiteClasses.value()) {
+				if (containsJournaledClass(suiteClass, checkedClasses)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void collectClassNames(Description description,
+			Set<String> classNames) {
+		if (description.isTest()) {
+			classNames.add(description.getClassName());
+		}
+		for (Description child : description.getChildren()) {
+			collectClassNames(child, classNames);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit4android.JunitTestRunner.ResultListener#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return resultListener.isCancelled();
+	}
+
+	public Class<?> getTestClass() {
+		return testClass;
+	}
+
+	/**
+	 * @return the filter selecting the tests by the include and exclude
+	 *         options or null
+	 */
+	public TestSelectionFilter getSelectionFilter() {
+		return selectionFilter;
+	}
+
+	/**
+	 * @return the filter selecting the shard to be run or null
+	 */
+	public ShardingFilter getShardingFilter() {
+		return shardingFilter;
+	}
+
+	/**
+	 * @return true, if the run has been stopped because the maximum number of
+	 *         failed tests has been reached
+	 */
+	public boolean isMaxFailuresReached() {
+		return maxFailuresReached;
+	}
+
+	/**
+	 * @return the statistics of the test durations of the run, null before
+	 *         the run
+	 */
+	public DurationStatistics getDurationStatistics() {
+		return durationStatistics;
+	}
+
+	/**
+	 * @return the exception that occurred when writing the report or null
+	 */
+	public RuntimeException getReportException() {
+		return reportException;
+	}
+
+	/**
+	 * @return the report file or directory relative to the external storage
+	 */
+	public String getReportLocation() {
+		if ((reportFormats & JunitXmlReporter.FORMAT_XML) == 0) {
+			return REPORT_DIRECTORY_NAME
+					+ JunitXmlReporter.getBinaryFileName(getReportFileName());
+		}
+		if (reportFilePerClass) {
+			return REPORT_DIRECTORY_NAME;
+		}
+		return REPORT_DIRECTORY_NAME + getReportFileName();
+	}
+
+	/**
+	 * @return a key identifying the installed version of the APK containing
+	 *         the tests
+	 */
+	private String getApkVersion() {
+		try {
+			PackageInfo packageInfo = context.getPackageManager()
+					.getPackageInfo(context.getPackageName(), 0);
+			return packageInfo.versionCode + "-"
+					+ new File(context.getPackageCodePath()).lastModified();
+		} catch (NameNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return name of the report file if a single file is written for the
+	 *         whole run
+	 */
+	private String getReportFileName() {
+		// TEST-org.apache.commons.beanutils.expression.DefaultResolverTestCase
+		return "TEST-" + testClass.getName() + getReportFileNameSuffix()
+				+ ".xml";
+	}
+
+	/**
+	 * @return suffix of the report file names telling the shards of a run
+	 *         apart, e.g. "-shard1of4"
+	 */
+	private String getReportFileNameSuffix() {
+		if (shardingFilter == null) {
+			return "";
+		}
+		return "-shard" + shardingFilter.getShardIndex() + "of"
+				+ shardingFilter.getNumShards();
+	}
+
+	/**
+	 * {@link Filter} skipping the tests completed by an interrupted run
+	 *
+	 * @author Daniel Thommes
+	 */
+	private static class CompletedTestsFilter extends Filter {
+
+		private final Set<String> completedTests = new HashSet<String>();
+
+		public CompletedTestsFilter(List<JunitTestResult> completedResults) {
+			for (JunitTestResult result : completedResults) {
+				completedTests.add(result.getDescription().getDisplayName());
+			}
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return !completedTests.contains(description.getDisplayName());
+			}
+			for (Description child : description.getChildren()) {
+				if (shouldRun(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String describe() {
+			return "tests not completed yet";
+		}
+	}
+}
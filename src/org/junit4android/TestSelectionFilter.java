@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.experimental.categories.Category;
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * {@link Filter} selecting tests by include and exclude lists. A test is run
+ * if it matches any term of the include list (or the include list is empty)
+ * and none of the exclude list. The lists are comma separated terms of the
+ * following kinds:
+ * <ul>
+ * <li><code>com.example.*Test</code> - glob pattern of the class name, where
+ * <code>*</code> matches any number of characters and <code>?</code> a single
+ * one</li>
+ * <li><code>com.example.*Test#test*</code> - glob patterns of the class and
+ * the method name</li>
+ * <li><code>@LargeTest</code> or <code>@com.example.LargeTest</code> - an
+ * annotation of the test method or class, by its simple or full name</li>
+ * <li><code>category:com.example.SlowTests</code> - a JUnit
+ * {@link Category} of the test method or class or a subtype of it</li>
+ * </ul>
+ * The terms are compiled once when the filter is created.
+ *
+ * @author Daniel Thommes
+ */
+public class TestSelectionFilter extends Filter {
+
+	private static final String CATEGORY_PREFIX = "category:";
+
+	/**
+	 * A compiled term of the include or exclude list
+	 */
+	private abstract class Term {
+
+		abstract boolean matches(Description test);
+	}
+
+	private class NameTerm extends Term {
+
+		private final Pattern classPattern;
+		private final Pattern methodPattern;
+
+		NameTerm(String term) {
+			int separator = term.indexOf('#');
+			if (separator < 0) {
+				classPattern = compileGlob(term);
+				methodPattern = null;
+			} else {
+				classPattern = compileGlob(term.substring(0, separator));
+				methodPattern = compileGlob(term.substring(separator + 1));
+			}
+		}
+
+		@Override
+		boolean matches(Description test) {
+			if (!classPattern.matcher(test.getClassName()).matches()) {
+				return false;
+			}
+			if (methodPattern == null) {
+				return true;
+			}
+			String methodName = test.getMethodName();
+			return methodName != null
+					&& methodPattern.matcher(methodName).matches();
+		}
+	}
+
+	private class AnnotationTerm extends Term {
+
+		private final String name;
+
+		AnnotationTerm(String name) {
+			this.name = name;
+		}
+
+		@Override
+		boolean matches(Description test) {
+			for (Annotation annotation : getAnnotations(test)) {
+				Class<? extends Annotation> type = annotation.annotationType();
+				if (type.getName().equals(name)
+						|| type.getSimpleName().equals(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private class CategoryTerm extends Term {
+
+		private final Class<?> category;
+
+		CategoryTerm(String categoryName) {
+			try {
+				category = Class.forName(categoryName);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Unknown category: "
+						+ categoryName);
+			}
+		}
+
+		@Override
+		boolean matches(Description test) {
+			for (Annotation annotation : getAnnotations(test)) {
+				if (annotation instanceof Category) {
+					for (Class<?> testCategory : ((Category) annotation)
+							.value()) {
+						if (category.isAssignableFrom(testCategory)) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private final String include;
+	private final String exclude;
+	private final List<Term> includeTerms;
+	private final List<Term> excludeTerms;
+	/**
+	 * Annotations of the test classes by class name, looked up once per class
+	 */
+	private final Map<String, Annotation[]> classAnnotations = new HashMap<String, Annotation[]>();
+
+	/**
+	 * @param include
+	 *            comma separated terms selecting the tests to be run, null or
+	 *            empty to run all tests not excluded
+	 * @param exclude
+	 *            comma separated terms selecting the tests not to be run, may
+	 *            be null
+	 * @throws IllegalArgumentException
+	 *             if a term is invalid
+	 */
+	public TestSelectionFilter(String include, String exclude) {
+		this.include = include;
+		this.exclude = exclude;
+		includeTerms = compile(include);
+		excludeTerms = compile(exclude);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit.runner.manipulation.Filter#shouldRun(org.junit.runner.Description)
+	 */
+	@Override
+	public boolean shouldRun(Description description) {
+		if (description.isTest()) {
+			return (includeTerms.isEmpty() || matchesAny(includeTerms,
+					description)) && !matchesAny(excludeTerms, description);
+		}
+		for (Description child : description.getChildren()) {
+			if (shouldRun(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see org.junit.runner.manipulation.Filter#describe()
+	 */
+	@Override
+	public String describe() {
+		String description = "";
+		if (!includeTerms.isEmpty()) {
+			description += "include " + include;
+		}
+		if (!excludeTerms.isEmpty()) {
+			description += (description.length() > 0 ? ", " : "")
+					+ "exclude " + exclude;
+		}
+		return description;
+	}
+
+	private static boolean matchesAny(List<Term> terms, Description test) {
+		for (Term term : terms) {
+			if (term.matches(test)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<Term> compile(String terms) {
+		List<Term> compiledTerms = new ArrayList<Term>();
+		if (terms == null) {
+			return compiledTerms;
+		}
+		for (String term : terms.split(",")) {
+			term = term.trim();
+			if (term.length() == 0) {
+				continue;
+			}
+			if (term.startsWith("@")) {
+				compiledTerms.add(new AnnotationTerm(term.substring(1)));
+			} else if (term.startsWith(CATEGORY_PREFIX)) {
+				compiledTerms.add(new CategoryTerm(term.substring(
+						CATEGORY_PREFIX.length()).trim()));
+			} else {
+				compiledTerms.add(new NameTerm(term));
+			}
+		}
+		return compiledTerms;
+	}
+
+	/**
+	 * @param glob
+	 * @return a pattern matching the same strings as the glob
+	 */
+	private static Pattern compileGlob(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > start) {
+					regex.append(Pattern.quote(glob.substring(start, i)));
+				}
+				regex.append(c == '*' ? ".*" : ".");
+				start = i + 1;
+			}
+		}
+		if (start < glob.length()) {
+			regex.append(Pattern.quote(glob.substring(start)));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * @param test
+	 * @return the annotations of the test method and its class
+	 */
+	private List<Annotation> getAnnotations(Description test) {
+		Collection<Annotation> methodAnnotations = test.getAnnotations();
+		Annotation[] annotations = classAnnotations.get(test.getClassName());
+		if (annotations == null) {
+			Class<?> testClass = test.getTestClass();
+			annotations = testClass == null ? new Annotation[0] : testClass
+					.getAnnotations();
+			classAnnotations.put(test.getClassName(), annotations);
+		}
+		List<Annotation> allAnnotations = new ArrayList<Annotation>(
+				methodAnnotations.size() + annotations.length);
+		allAnnotations.addAll(methodAnnotations);
+		for (Annotation annotation : annotations) {
+			allAnnotations.add(annotation);
+		}
+		return allAnnotations;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.junit4android;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Overrides the default timeout of the tests of a test class, e.g. for
+ * classes with long running tests:
+ *
+ * <pre>
+ * &#064;TestTimeout(600000)
+ * public class DatabaseMigrationTest {
+ * </pre>
+ *
+ * A test exceeding its timeout is interrupted and fails with a
+ * {@link TestTimeoutException}. A value of 0 disables the timeout for the
+ * tests of the class.
+ *
+ * @author Daniel Thommes
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface TestTimeout {
+
+	/**
+	 * @return timeout of each test of the class in ms
+	 */
+	long value();
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.junit4android;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.runner.Description;
+
+/**
+ * Failure of a test that has exceeded its timeout. Its stack trace is the
+ * stack of the thread running the test at the time of the timeout, followed
+ * by the stacks of all other threads to help finding deadlocks. For a test
+ * run by a {@link WorkerProcessRunner}, these are the threads of the runner's
+ * process, the stacks of the worker process are added as a failure of their
+ * own.
+ *
+ * @author Daniel Thommes
+ */
+public class TestTimeoutException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String otherThreadStacks;
+
+	/**
+	 * Takes the stacks of all threads
+	 *
+	 * @param description
+	 *            the test
+	 * @param timeout
+	 *            the timeout of the test in ms
+	 * @param testThread
+	 *            the thread running the test
+	 */
+	public TestTimeoutException(Description description, long timeout,
+			Thread testThread) {
+		super(description.getDisplayName() + " timed out after " + timeout
+				+ "ms");
+		Map<Thread, StackTraceElement[]> stackTraces = Thread
+				.getAllStackTraces();
+		StackTraceElement[] testThreadStack = stackTraces.remove(testThread);
+		setStackTrace(testThreadStack != null ? testThreadStack : testThread
+				.getStackTrace());
+		otherThreadStacks = "Stacks of all other threads:\n"
+				+ formatStacks(stackTraces);
+	}
+
+	/**
+	 * @param stackTraces
+	 *            stacks by thread, e.g. from {@link Thread#getAllStackTraces()}
+	 * @return the stacks in the format of a thread dump
+	 */
+	static String formatStacks(Map<Thread, StackTraceElement[]> stackTraces) {
+		StringBuilder builder = new StringBuilder();
+		for (Entry<Thread, StackTraceElement[]> entry : stackTraces.entrySet()) {
+			Thread thread = entry.getKey();
+			builder.append('"').append(thread.getName()).append("\" ")
+					.append(thread.getState()).append('\n');
+			for (StackTraceElement element : entry.getValue()) {
+				builder.append("\tat ").append(element).append('\n');
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return the stacks of all threads except the one running the test
+	 */
+	public String getOtherThreadStacks() {
+		return otherThreadStacks;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.lang.Throwable#printStackTrace(java.io.PrintStream)
+	 */
+	@Override
+	public void printStackTrace(PrintStream s) {
+		super.printStackTrace(s);
+		s.print(otherThreadStacks);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.lang.Throwable#printStackTrace(java.io.PrintWriter)
+	 */
+	@Override
+	public void printStackTrace(PrintWriter s) {
+		super.printStackTrace(s);
+		s.print(otherThreadStacks);
+	}
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Runner;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Pool of worker processes running test classes, see
+ * {@link TestWorkerService}. A worker is taken from the pool for each test
+ * class and returned when the class has finished. Its process is started when
+ * it is taken for the first time and recycled after a number of classes or
+ * when its heap has grown above a threshold, so leaks and static state of
+ * tests don't pile up.
+ *
+ * @author Daniel Thommes
+ */
+public class TestWorkerPool implements JunitTestRunner.RunnerFactory {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Time to wait for a worker process to start
+	 */
+	private static final long CONNECT_TIMEOUT_MS = 30000;
+	/**
+	 * Time to wait for a worker process to exit
+	 */
+	private static final long EXIT_TIMEOUT_MS = 10000;
+
+	private static final Class<?>[] WORKER_SERVICES = {
+			TestWorkerService.Worker0.class, TestWorkerService.Worker1.class,
+			TestWorkerService.Worker2.class, TestWorkerService.Worker3.class };
+
+	/**
+	 * Maximum number of worker processes
+	 */
+	public static final int MAX_SIZE = WORKER_SERVICES.length;
+
+	private final Context context;
+	/**
+	 * Number of test classes after which a worker is recycled, 0 for no limit
+	 */
+	private final int maxClasses;
+	/**
+	 * Heap size in bytes above which a worker is recycled, 0 for no limit
+	 */
+	private final long maxHeapBytes;
+	/**
+	 * Thread receiving the messages of the workers
+	 */
+	private final HandlerThread replyThread;
+	private final List<Worker> allWorkers = new ArrayList<Worker>();
+	private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<Worker>();
+
+	/**
+	 * @param context
+	 *            context declaring the {@link TestWorkerService}s
+	 * @param size
+	 *            number of worker processes, at most {@link #MAX_SIZE}
+	 * @param maxClasses
+	 *            number of test classes after which a worker is recycled, 0
+	 *            for no limit
+	 * @param maxHeapBytes
+	 *            heap size in bytes above which a worker is recycled, 0 for no
+	 *            limit
+	 */
+	public TestWorkerPool(Context context, int size, int maxClasses,
+			long maxHeapBytes) {
+		if (size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Number of worker processes "
+					+ size + " is not between 1 and " + MAX_SIZE);
+		}
+		this.context = context;
+		this.maxClasses = maxClasses;
+		this.maxHeapBytes = maxHeapBytes;
+		replyThread = new HandlerThread("JUnit4Android-WorkerReplies");
+		replyThread.start();
+		for (int i = 0; i < size; i++) {
+			Worker worker = new Worker(WORKER_SERVICES[i]);
+			allWorkers.add(worker);
+			idleWorkers.add(worker);
+		}
+	}
+
+	/**
+	 * Takes a worker from the pool, waiting until one is idle. Starts its
+	 * process if it is not running.
+	 *
+	 * @return the worker, to be given back with {@link #release(Worker, long)}
+	 *         or {@link #discard(Worker)}
+	 * @throws InterruptedException
+	 */
+	Worker acquire() throws InterruptedException {
+		Worker worker = idleWorkers.take();
+		try {
+			worker.connect();
+		} catch (InterruptedException e) {
+			idleWorkers.add(worker);
+			throw e;
+		} catch (RuntimeException e) {
+			idleWorkers.add(worker);
+			throw e;
+		}
+		return worker;
+	}
+
+	/**
+	 * Gives back a worker that has finished a test class. The worker is
+	 * recycled if it has reached one of its limits.
+	 *
+	 * @param worker
+	 * @param heapBytes
+	 *            heap size of the worker after the test class
+	 */
+	void release(Worker worker, long heapBytes) {
+		++worker.classCount;
+		if ((maxClasses > 0 && worker.classCount >= maxClasses)
+				|| (maxHeapBytes > 0 && heapBytes > maxHeapBytes)) {
+			Log.d(LOGTAG, "Recycling the worker process after "
+					+ worker.classCount + " classes, heap size: " + heapBytes);
+			worker.disconnect();
+		}
+		idleWorkers.add(worker);
+	}
+
+	/**
+	 * Gives back a worker whose process is hung or has died. Its process is
+	 * killed and restarted when it is needed again.
+	 *
+	 * @param worker
+	 */
+	void discard(Worker worker) {
+		worker.disconnect();
+		idleWorkers.add(worker);
+	}
+
+	/**
+	 * @return a {@link WorkerProcessRunner} running the tests in this pool
+	 * @see org.junit4android.JunitTestRunner.RunnerFactory#createRunner(java.lang.Class,
+	 *      org.junit.runner.Runner)
+	 */
+	public Runner createRunner(Class<?> testClass, Runner runner) {
+		return new WorkerProcessRunner(this, testClass, runner);
+	}
+
+	/**
+	 * Stops all worker processes
+	 */
+	public void close() {
+		for (Worker worker : allWorkers) {
+			worker.disconnect();
+		}
+		replyThread.quit();
+	}
+
+	/**
+	 * Connection to one worker process
+	 *
+	 * @author Daniel Thommes
+	 */
+	class Worker implements ServiceConnection {
+
+		private final Class<?> serviceClass;
+		/**
+		 * Messages received from the worker process
+		 */
+		private final BlockingQueue<Message> replies = new LinkedBlockingQueue<Message>();
+		private final Messenger replyMessenger;
+		private volatile CountDownLatch connected;
+		private volatile CountDownLatch exited;
+		private volatile Messenger service;
+		/**
+		 * Whether the service is bound, also after its process has died
+		 */
+		private boolean bound;
+		/**
+		 * Number of test classes run by the current process
+		 */
+		int classCount;
+
+		public Worker(Class<?> serviceClass) {
+			this.serviceClass = serviceClass;
+			replyMessenger = new Messenger(new Handler(replyThread.getLooper()) {
+				@Override
+				public void handleMessage(Message msg) {
+					replies.add(Message.obtain(msg));
+				}
+			});
+		}
+
+		/**
+		 * Binds to the worker service unless it is bound, starting its
+		 * process
+		 *
+		 * @throws InterruptedException
+		 */
+		void connect() throws InterruptedException {
+			Messenger messenger = service;
+			if (messenger != null && messenger.getBinder().isBinderAlive()) {
+				// replies left over from an earlier test class must not be
+				// taken for the next one
+				replies.clear();
+				return;
+			}
+			if (bound) {
+				// the process has died since the last test class
+				service = null;
+				context.unbindService(this);
+				bound = false;
+				classCount = 0;
+			}
+			replies.clear();
+			connected = new CountDownLatch(1);
+			exited = new CountDownLatch(1);
+			if (!context.bindService(new Intent(context, serviceClass), this,
+					Context.BIND_AUTO_CREATE)) {
+				throw new IllegalStateException(serviceClass.getName()
+						+ " is not declared in the manifest");
+			}
+			bound = true;
+			if (!connected.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				context.unbindService(this);
+				bound = false;
+				throw new IllegalStateException("The worker process "
+						+ serviceClass.getName() + " did not start");
+			}
+		}
+
+		/**
+		 * Makes the worker process exit and waits until it has exited
+		 */
+		void disconnect() {
+			Messenger messenger = service;
+			if (messenger == null) {
+				return;
+			}
+			service = null;
+			try {
+				messenger.send(Message.obtain(null,
+						TestWorkerService.MSG_EXIT));
+			} catch (RemoteException e) {
+				// it has died already
+			}
+			context.unbindService(this);
+			bound = false;
+			try {
+				if (!exited.await(EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					Log.w(LOGTAG, "The worker process " + serviceClass.getName()
+							+ " did not exit");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			classCount = 0;
+		}
+
+		/**
+		 * Asks the worker to run tests
+		 *
+		 * @param className
+		 *            name of the test class
+		 * @param testNames
+		 *            display names of the tests in the order to be run
+		 * @throws RemoteException
+		 *             if the worker process has died
+		 */
+		void runTests(String className, ArrayList<String> testNames)
+				throws RemoteException {
+			Messenger messenger = service;
+			if (messenger == null) {
+				throw new RemoteException();
+			}
+			Message msg = Message.obtain(null, TestWorkerService.MSG_RUN_TESTS);
+			Bundle data = new Bundle();
+			data.putString(TestWorkerService.KEY_CLASS_NAME, className);
+			data.putStringArrayList(TestWorkerService.KEY_TEST_NAMES, testNames);
+			msg.setData(data);
+			msg.replyTo = replyMessenger;
+			messenger.send(msg);
+		}
+
+		/**
+		 * Asks the worker process for the stacks of its threads, e.g. of a
+		 * test that has timed out. Events of the tests received meanwhile are
+		 * dropped, so the worker has to be discarded afterwards.
+		 *
+		 * @param timeoutMs
+		 *            time to wait for the stacks in ms
+		 * @return the stacks, null if the worker has not sent them in time
+		 * @throws InterruptedException
+		 */
+		String dumpThreads(long timeoutMs) throws InterruptedException {
+			Messenger messenger = service;
+			if (messenger == null) {
+				return null;
+			}
+			Message msg = Message.obtain(null,
+					TestWorkerService.MSG_DUMP_THREADS);
+			msg.replyTo = replyMessenger;
+			try {
+				messenger.send(msg);
+			} catch (RemoteException e) {
+				return null;
+			}
+			long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (true) {
+				Message reply = replies.poll(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS);
+				if (reply == null
+						|| reply.what == TestWorkerService.MSG_WORKER_DIED) {
+					return null;
+				}
+				if (reply.what == TestWorkerService.MSG_THREAD_DUMP) {
+					return reply.getData().getString(
+							TestWorkerService.KEY_TRACE);
+				}
+			}
+		}
+
+		/**
+		 * @return the next message of the worker, a message
+		 *         {@link TestWorkerService#MSG_WORKER_DIED} if its process has
+		 *         died
+		 * @throws InterruptedException
+		 */
+		Message takeReply() throws InterruptedException {
+			return replies.take();
+		}
+
+		public void onServiceConnected(ComponentName name, final IBinder binder) {
+			// a service restarted after its process has died is not used
+			final CountDownLatch exitedLatch = exited;
+			if (connected.getCount() == 0) {
+				return;
+			}
+			try {
+				binder.linkToDeath(new IBinder.DeathRecipient() {
+					public void binderDied() {
+						// a process that has been disconnected or replaced is
+						// not waited for
+						Messenger messenger = service;
+						if (messenger != null && messenger.getBinder() == binder) {
+							service = null;
+							replies.add(Message.obtain(null,
+									TestWorkerService.MSG_WORKER_DIED));
+						}
+						exitedLatch.countDown();
+					}
+				}, 0);
+			} catch (RemoteException e) {
+				// it has died already, requesting tests will fail
+				exitedLatch.countDown();
+			}
+			service = new Messenger(binder);
+			connected.countDown();
+		}
+
+		public void onServiceDisconnected(ComponentName name) {
+			// handled by the death recipient
+		}
+	}
+}
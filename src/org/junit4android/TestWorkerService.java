@@ -0,0 +1,321 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Service running test classes in a separate process on behalf of a
+ * {@link TestWorkerPool}. Each worker of the pool is one of the subclasses
+ * {@link Worker0} to {@link Worker3}, which have to be declared in the
+ * manifest with their own process, e.g.
+ *
+ * <pre>
+ * &lt;service android:name="org.junit4android.TestWorkerService$Worker0"
+ *     android:process=":junit4android.worker0" android:exported="false" /&gt;
+ * </pre>
+ *
+ * The tests are requested and their events are sent back as {@link Message}s
+ * via {@link Messenger}s. The tests are run on a thread of their own, so the
+ * process can still be asked for its stacks or told to exit while a test
+ * hangs.
+ *
+ * @author Daniel Thommes
+ */
+public class TestWorkerService extends Service {
+
+	private static final String LOGTAG = "JUnit4Android";
+
+	/**
+	 * Request to run tests, the reply messenger receives their events
+	 */
+	static final int MSG_RUN_TESTS = 1;
+	/**
+	 * Request to exit the worker process
+	 */
+	static final int MSG_EXIT = 2;
+	static final int MSG_TEST_STARTED = 3;
+	static final int MSG_TEST_FAILURE = 4;
+	static final int MSG_TEST_FINISHED = 5;
+	static final int MSG_TEST_IGNORED = 6;
+	/**
+	 * Sent after all requested tests have been run
+	 */
+	static final int MSG_TESTS_FINISHED = 7;
+	/**
+	 * Posted by the {@link TestWorkerPool} when a worker process has died
+	 */
+	static final int MSG_WORKER_DIED = 8;
+	/**
+	 * Request for the stacks of all threads of the worker process, e.g. of a
+	 * test that has timed out, answered with {@link #MSG_THREAD_DUMP}
+	 */
+	static final int MSG_DUMP_THREADS = 9;
+	/**
+	 * Stacks of all threads of the worker process in {@link #KEY_TRACE}
+	 */
+	static final int MSG_THREAD_DUMP = 10;
+
+	static final String KEY_CLASS_NAME = "className";
+	static final String KEY_TEST_NAMES = "testNames";
+	static final String KEY_TEST_NAME = "testName";
+	static final String KEY_TYPE = "type";
+	static final String KEY_MESSAGE = "message";
+	static final String KEY_TRACE = "trace";
+	static final String KEY_ERROR = "error";
+	static final String KEY_HEAP_BYTES = "heapBytes";
+
+	public static class Worker0 extends TestWorkerService {
+	}
+
+	public static class Worker1 extends TestWorkerService {
+	}
+
+	public static class Worker2 extends TestWorkerService {
+	}
+
+	public static class Worker3 extends TestWorkerService {
+	}
+
+	private HandlerThread testThread;
+	private Handler testHandler;
+	private Messenger messenger;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		testThread = new HandlerThread("JUnit4Android-Worker");
+		testThread.start();
+		testHandler = new Handler(testThread.getLooper()) {
+			@Override
+			public void handleMessage(Message msg) {
+				runTests(msg.getData(), msg.replyTo);
+			}
+		};
+		// requests are received on the main thread, which is never blocked by
+		// a test
+		messenger = new Messenger(new Handler() {
+			@Override
+			public void handleMessage(Message msg) {
+				switch (msg.what) {
+				case MSG_RUN_TESTS:
+					testHandler.sendMessage(Message.obtain(msg));
+					break;
+				case MSG_EXIT:
+					Process.killProcess(Process.myPid());
+					break;
+				case MSG_DUMP_THREADS:
+					Bundle data = new Bundle();
+					data.putString(KEY_TRACE, dumpThreads());
+					send(msg.replyTo, MSG_THREAD_DUMP, null, data);
+					break;
+				default:
+					super.handleMessage(msg);
+				}
+			}
+		});
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return messenger.getBinder();
+	}
+
+	@Override
+	public void onDestroy() {
+		testThread.quit();
+		super.onDestroy();
+	}
+
+	/**
+	 * Runs the requested tests of a class in the given order
+	 *
+	 * @param data
+	 *            the request
+	 * @param replyTo
+	 *            messenger receiving the events of the tests
+	 */
+	private void runTests(Bundle data, final Messenger replyTo) {
+		String className = data.getString(KEY_CLASS_NAME);
+		List<String> testNames = data.getStringArrayList(KEY_TEST_NAMES);
+		Log.d(LOGTAG, "Worker " + Process.myPid() + " running " + className);
+		try {
+			Runner runner = Request.classWithoutSuiteMethod(
+					Class.forName(className)).getRunner();
+			new RequestedTestsFilter(testNames).apply(runner);
+			new Sorter(new RequestedTestsFilter(testNames)).apply(runner);
+			RunNotifier notifier = new RunNotifier();
+			notifier.addListener(new RunListener() {
+				@Override
+				public void testStarted(Description description) {
+					send(replyTo, MSG_TEST_STARTED, description);
+				}
+
+				@Override
+				public void testFailure(Failure failure) {
+					sendFailure(replyTo, failure);
+				}
+
+				@Override
+				public void testFinished(Description description) {
+					send(replyTo, MSG_TEST_FINISHED, description);
+				}
+
+				@Override
+				public void testIgnored(Description description) {
+					send(replyTo, MSG_TEST_IGNORED, description);
+				}
+			});
+			runner.run(notifier);
+		} catch (NoTestsRemainException e) {
+			Log.w(LOGTAG, "None of the requested tests found in " + className);
+		} catch (Throwable t) {
+			Log.e(LOGTAG, "Could not run " + className, t);
+			sendFailure(replyTo, new Failure(
+					Description.createSuiteDescription(className), t));
+		}
+		Bundle finishedData = new Bundle();
+		Runtime runtime = Runtime.getRuntime();
+		finishedData.putLong(KEY_HEAP_BYTES,
+				runtime.totalMemory() - runtime.freeMemory());
+		send(replyTo, MSG_TESTS_FINISHED, null, finishedData);
+	}
+
+	/**
+	 * @return the stacks of all threads, the one running the tests first
+	 */
+	private String dumpThreads() {
+		Map<Thread, StackTraceElement[]> stackTraces = new LinkedHashMap<Thread, StackTraceElement[]>();
+		stackTraces.put(testThread, testThread.getStackTrace());
+		stackTraces.putAll(Thread.getAllStackTraces());
+		return "Stacks of the worker process " + Process.myPid() + ":\n"
+				+ TestTimeoutException.formatStacks(stackTraces);
+	}
+
+	private static void sendFailure(Messenger replyTo, Failure failure) {
+		Bundle data = new Bundle();
+		data.putString(KEY_TYPE, RecordedFailure.getType(failure));
+		data.putString(KEY_MESSAGE, failure.getMessage());
+		data.putString(KEY_TRACE, failure.getTrace());
+		data.putBoolean(KEY_ERROR, RecordedFailure.isError(failure));
+		send(replyTo, MSG_TEST_FAILURE, failure.getDescription(), data);
+	}
+
+	private static void send(Messenger replyTo, int what,
+			Description description) {
+		send(replyTo, what, description, new Bundle());
+	}
+
+	private static void send(Messenger replyTo, int what,
+			Description description, Bundle data) {
+		if (description != null) {
+			data.putString(KEY_TEST_NAME, description.getDisplayName());
+		}
+		Message msg = Message.obtain(null, what);
+		msg.setData(data);
+		try {
+			replyTo.send(msg);
+		} catch (RemoteException e) {
+			// the runner has gone, there is no one left to tell
+			Log.w(LOGTAG, "Could not send the test event", e);
+		}
+	}
+
+	/**
+	 * {@link Filter} selecting the requested tests, also ordering them as
+	 * requested
+	 *
+	 * @author Daniel Thommes
+	 */
+	private static class RequestedTestsFilter extends Filter implements
+			Comparator<Description> {
+
+		private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+		public RequestedTestsFilter(List<String> testNames) {
+			if (testNames == null) {
+				testNames = new ArrayList<String>();
+			}
+			for (int i = 0; i < testNames.size(); i++) {
+				positions.put(testNames.get(i), i);
+			}
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return positions.containsKey(description.getDisplayName());
+			}
+			for (Description child : description.getChildren()) {
+				if (shouldRun(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public String describe() {
+			return "requested tests";
+		}
+
+		public int compare(Description description1, Description description2) {
+			return getPosition(description1) - getPosition(description2);
+		}
+
+		/**
+		 * @param description
+		 * @return position of the test or of the first requested test of a
+		 *         suite
+		 */
+		private int getPosition(Description description) {
+			Integer position = positions.get(description.getDisplayName());
+			int result = position != null ? position : Integer.MAX_VALUE;
+			for (Description child : description.getChildren()) {
+				result = Math.min(result, getPosition(child));
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.runner.notification.Failure;
+
+/**
+ * Store of the rendered stack traces of a test run. Each failure's stack
+ * trace is rendered once when the failure is recorded and kept under an ID
+ * derived from its content, so identical traces, e.g. of all tests of a class
+ * with a broken fixture, are kept only once. The recorded failures refer to
+ * their trace by this ID.
+ * <p>
+ * The methods of this class are thread safe.
+ *
+ * @author Daniel Thommes
+ */
+public class TraceStore {
+
+	/**
+	 * Number of hex digits of the content hash used as ID
+	 */
+	private static final int ID_LENGTH = 16;
+
+	private final Map<String, String> tracesById = new HashMap<String, String>();
+	private int failureCount = 0;
+
+	/**
+	 * Renders the stack trace of the failure and stores it, unless the same
+	 * trace has been stored before
+	 *
+	 * @param failure
+	 * @return a failure without exception referring to the stored trace
+	 */
+	public RecordedFailure record(Failure failure) {
+		String trace = failure.getTrace();
+		String traceId;
+		synchronized (this) {
+			++failureCount;
+			String hash = hash(trace);
+			traceId = hash;
+			String storedTrace = tracesById.get(traceId);
+			// another trace with the same hash gets the next free ID
+			for (int i = 1; storedTrace != null
+					&& !storedTrace.equals(trace); i++) {
+				traceId = hash + "-" + i;
+				storedTrace = tracesById.get(traceId);
+			}
+			if (storedTrace == null) {
+				tracesById.put(traceId, trace);
+			} else {
+				trace = storedTrace;
+			}
+		}
+		return new RecordedFailure(failure.getDescription(),
+				RecordedFailure.getType(failure), failure.getMessage(), trace,
+				RecordedFailure.isError(failure), traceId);
+	}
+
+	/**
+	 * @param traceId
+	 * @return the stored trace or null if there is none with this ID
+	 */
+	public synchronized String getTrace(String traceId) {
+		return tracesById.get(traceId);
+	}
+
+	/**
+	 * @return the number of distinct traces stored
+	 */
+	public synchronized int size() {
+		return tracesById.size();
+	}
+
+	/**
+	 * @return the number of failures recorded
+	 */
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @param trace
+	 * @return the beginning of the SHA-1 hash of the trace in hex
+	 */
+	String hash(String trace) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+					trace.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(ID_LENGTH);
+			for (int i = 0; i < ID_LENGTH / 2; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
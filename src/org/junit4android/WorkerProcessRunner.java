@@ -0,0 +1,264 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * {@link Runner} running the tests of another runner in a worker process of a
+ * {@link TestWorkerPool}. The events of the tests are fired on the calling
+ * thread with the descriptions of the local runner, so listeners can't tell
+ * the difference, except that failures are {@link RecordedFailure}s.
+ * <p>
+ * If the worker process dies, the running test fails and the remaining tests
+ * are run in a new process. If the calling thread is interrupted, e.g.
+ * because a test has exceeded its timeout, the stacks of the threads of the
+ * worker process are added to the failures of the running test and the
+ * process is killed the same way.
+ *
+ * @author Daniel Thommes
+ */
+public class WorkerProcessRunner extends Runner {
+
+	private static final String LOGTAG = "JUnit4Android";
+	/**
+	 * Time to wait for the stacks of a worker process running a test that
+	 * has been interrupted
+	 */
+	private static final long THREAD_DUMP_TIMEOUT_MS = 2000;
+
+	private final TestWorkerPool pool;
+	private final Class<?> testClass;
+	private final Runner localRunner;
+
+	/**
+	 * @param pool
+	 * @param testClass
+	 *            the class to be run by the worker
+	 * @param localRunner
+	 *            runner of the class describing the tests to be run
+	 */
+	public WorkerProcessRunner(TestWorkerPool pool, Class<?> testClass,
+			Runner localRunner) {
+		this.pool = pool;
+		this.testClass = testClass;
+		this.localRunner = localRunner;
+	}
+
+	@Override
+	public Description getDescription() {
+		return localRunner.getDescription();
+	}
+
+	@Override
+	public void run(RunNotifier notifier) {
+		Map<String, Description> remainingTests = new LinkedHashMap<String, Description>();
+		collectTests(getDescription(), remainingTests);
+		while (!remainingTests.isEmpty()) {
+			TestWorkerPool.Worker worker;
+			try {
+				worker = pool.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			boolean released = false;
+			try {
+				released = runTests(worker, remainingTests, notifier);
+			} finally {
+				if (!released) {
+					pool.discard(worker);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lets the worker run the remaining tests and fires their events
+	 *
+	 * @param worker
+	 * @param remainingTests
+	 *            tests not run yet by display name, the tests started are
+	 *            removed
+	 * @param notifier
+	 * @return true, if the worker has been given back to the pool
+	 */
+	private boolean runTests(TestWorkerPool.Worker worker,
+			Map<String, Description> remainingTests, RunNotifier notifier) {
+		Description runningTest = null;
+		boolean progress = false;
+		try {
+			worker.runTests(testClass.getName(), new ArrayList<String>(
+					remainingTests.keySet()));
+			while (true) {
+				Message reply = worker.takeReply();
+				Bundle data = reply.getData();
+				String testName = data.getString(TestWorkerService.KEY_TEST_NAME);
+				switch (reply.what) {
+				case TestWorkerService.MSG_TEST_STARTED:
+					runningTest = findTest(testName, remainingTests, null);
+					remainingTests.remove(testName);
+					progress = true;
+					notifier.fireTestStarted(runningTest);
+					break;
+				case TestWorkerService.MSG_TEST_IGNORED:
+					Description ignoredTest = findTest(testName, remainingTests,
+							null);
+					remainingTests.remove(testName);
+					progress = true;
+					notifier.fireTestIgnored(ignoredTest);
+					break;
+				case TestWorkerService.MSG_TEST_FAILURE:
+					notifier.fireTestFailure(new RecordedFailure(findTest(
+							testName, remainingTests, runningTest), data
+							.getString(TestWorkerService.KEY_TYPE), data
+							.getString(TestWorkerService.KEY_MESSAGE), data
+							.getString(TestWorkerService.KEY_TRACE), data
+							.getBoolean(TestWorkerService.KEY_ERROR)));
+					break;
+				case TestWorkerService.MSG_TEST_FINISHED:
+					notifier.fireTestFinished(findTest(testName, remainingTests,
+							runningTest));
+					runningTest = null;
+					break;
+				case TestWorkerService.MSG_TESTS_FINISHED:
+					// tests requested but not found by the worker are dropped
+					remainingTests.clear();
+					pool.release(worker,
+							data.getLong(TestWorkerService.KEY_HEAP_BYTES));
+					return true;
+				case TestWorkerService.MSG_WORKER_DIED:
+					Log.w(LOGTAG, "The worker process running " + testClass
+							+ " has died");
+					failRunningTest(runningTest, notifier);
+					if (!progress) {
+						failRemainingTests(remainingTests, notifier);
+					}
+					return false;
+				}
+			}
+		} catch (RemoteException e) {
+			Log.w(LOGTAG, "The worker process for " + testClass
+					+ " has died before running it");
+			failRemainingTests(remainingTests, notifier);
+		} catch (InterruptedException e) {
+			// the test has been failed by whoever interrupted it, the stacks
+			// of the worker process are added before it is killed
+			Log.w(LOGTAG, "Killing the worker process running " + testClass);
+			if (runningTest != null) {
+				String stacks = dumpThreads(worker);
+				if (stacks != null) {
+					notifier.fireTestFailure(new RecordedFailure(runningTest,
+							TestTimeoutException.class.getName(),
+							"Stacks of the worker process at the interrupt",
+							stacks, true));
+				}
+				notifier.fireTestFinished(runningTest);
+			}
+			// the watchdog clears the interrupt again when the test finishes
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * @param worker
+	 *            worker running a test that has been interrupted
+	 * @return the stacks of the threads of the worker process, null if they
+	 *         could not be taken
+	 */
+	private static String dumpThreads(TestWorkerPool.Worker worker) {
+		try {
+			return worker.dumpThreads(THREAD_DUMP_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param testName
+	 *            display name sent by the worker
+	 * @param remainingTests
+	 * @param runningTest
+	 *            the running test, may be null
+	 * @return the local description of the test, the running test or the
+	 *         description of the whole class
+	 */
+	private Description findTest(String testName,
+			Map<String, Description> remainingTests, Description runningTest) {
+		if (runningTest != null
+				&& runningTest.getDisplayName().equals(testName)) {
+			return runningTest;
+		}
+		Description test = remainingTests.get(testName);
+		if (test != null) {
+			return test;
+		}
+		if (runningTest != null) {
+			return runningTest;
+		}
+		return getDescription();
+	}
+
+	private void failRunningTest(Description runningTest, RunNotifier notifier) {
+		if (runningTest != null) {
+			notifier.fireTestFailure(new Failure(runningTest,
+					new IllegalStateException("The worker process has died")));
+			notifier.fireTestFinished(runningTest);
+		}
+	}
+
+	/**
+	 * Fails the remaining tests, if a worker process dies before running any
+	 * of them, which will most likely happen again
+	 *
+	 * @param remainingTests
+	 * @param notifier
+	 */
+	private void failRemainingTests(Map<String, Description> remainingTests,
+			RunNotifier notifier) {
+		for (Description test : remainingTests.values()) {
+			notifier.fireTestStarted(test);
+			notifier.fireTestFailure(new Failure(test, new IllegalStateException(
+					"The worker process has died before running the test")));
+			notifier.fireTestFinished(test);
+		}
+		remainingTests.clear();
+	}
+
+	private static void collectTests(Description description,
+			Map<String, Description> tests) {
+		if (description.isTest()) {
+			tests.put(description.getDisplayName(), description);
+		}
+		for (Description child : description.getChildren()) {
+			collectTests(child, tests);
+		}
+	}
+}
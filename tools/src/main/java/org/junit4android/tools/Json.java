@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parser of the flat JSON objects of the runner's result stream: objects whose
+ * members are strings, integers, booleans or null.
+ *
+ * @author Daniel Thommes
+ */
+final class Json {
+
+	private final String text;
+	private int position = 0;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @param text
+	 * @return the members of the object, integers as {@link Long}s
+	 * @throws IllegalArgumentException
+	 *             if the text is not a flat JSON object
+	 */
+	static Map<String, Object> parseObject(String text) {
+		return new Json(text).parseObject();
+	}
+
+	private Map<String, Object> parseObject() {
+		Map<String, Object> members = new LinkedHashMap<String, Object>();
+		expect('{');
+		if (peek() == '}') {
+			++position;
+			return members;
+		}
+		while (true) {
+			String name = parseString();
+			expect(':');
+			members.put(name, parseValue());
+			char c = next();
+			if (c == '}') {
+				return members;
+			} else if (c != ',') {
+				throw error("Expected , or }");
+			}
+		}
+	}
+
+	private Object parseValue() {
+		char c = peek();
+		if (c == '"') {
+			return parseString();
+		} else if (text.startsWith("true", position)) {
+			position += 4;
+			return Boolean.TRUE;
+		} else if (text.startsWith("false", position)) {
+			position += 5;
+			return Boolean.FALSE;
+		} else if (text.startsWith("null", position)) {
+			position += 4;
+			return null;
+		}
+		int start = position;
+		if (c == '-') {
+			++position;
+		}
+		while (position < text.length()
+				&& Character.isDigit(text.charAt(position))) {
+			++position;
+		}
+		if (position == start) {
+			throw error("Unexpected value");
+		}
+		return Long.valueOf(text.substring(start, position));
+	}
+
+	private String parseString() {
+		expect('"');
+		StringBuilder string = new StringBuilder();
+		while (true) {
+			char c = nextRaw();
+			if (c == '"') {
+				return string.toString();
+			} else if (c != '\\') {
+				string.append(c);
+				continue;
+			}
+			c = nextRaw();
+			switch (c) {
+			case 'n':
+				string.append('\n');
+				break;
+			case 'r':
+				string.append('\r');
+				break;
+			case 't':
+				string.append('\t');
+				break;
+			case 'b':
+				string.append('\b');
+				break;
+			case 'f':
+				string.append('\f');
+				break;
+			case 'u':
+				if (position + 4 > text.length()) {
+					throw error("Incomplete escape");
+				}
+				string.append((char) Integer.parseInt(
+						text.substring(position, position + 4), 16));
+				position += 4;
+				break;
+			default:
+				// \" \\ \/
+				string.append(c);
+			}
+		}
+	}
+
+	private void expect(char expected) {
+		if (next() != expected) {
+			throw error("Expected " + expected);
+		}
+	}
+
+	/**
+	 * @return the next char that is not white space, without consuming it
+	 */
+	private char peek() {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error("Unexpected end");
+		}
+		return text.charAt(position);
+	}
+
+	private char next() {
+		char c = peek();
+		++position;
+		return c;
+	}
+
+	private char nextRaw() {
+		if (position >= text.length()) {
+			throw error("Unterminated string");
+		}
+		return text.charAt(position++);
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()
+				&& Character.isWhitespace(text.charAt(position))) {
+			++position;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + position
+				+ " of " + text);
+	}
+}
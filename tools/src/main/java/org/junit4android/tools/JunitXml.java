@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the elements of JUnit XML reports the same way the runner's
+ * JunitXmlWriter does, so the reports of the tools can't be told apart from
+ * those written on the device.
+ *
+ * @author Daniel Thommes
+ */
+final class JunitXml {
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory
+			.newInstance();
+
+	private JunitXml() {
+	}
+
+	/**
+	 * @param out
+	 * @return a writer of a new UTF-8 document
+	 * @throws XMLStreamException
+	 */
+	static XMLStreamWriter startDocument(OutputStream out)
+			throws XMLStreamException {
+		XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out,
+				"UTF-8");
+		writer.writeStartDocument("UTF-8", "1.0");
+		return writer;
+	}
+
+	static void startTestSuite(XMLStreamWriter writer, String name,
+			int tests, int errors, int skipped, long durationMicros)
+			throws XMLStreamException {
+		writer.writeStartElement("testsuite");
+		writer.writeAttribute("failures", "0");
+		writer.writeAttribute("time", formatSeconds(durationMicros));
+		writer.writeAttribute("errors", "" + errors);
+		writer.writeAttribute("skipped", "" + skipped);
+		writer.writeAttribute("tests", "" + tests);
+		writer.writeAttribute("name", name);
+	}
+
+	static void startTestCase(XMLStreamWriter writer, String className,
+			String methodName, long durationMicros) throws XMLStreamException {
+		writer.writeStartElement("testcase");
+		writer.writeAttribute("time", formatSeconds(durationMicros));
+		writer.writeAttribute("classname", className);
+		writer.writeAttribute("name", "" + methodName);
+	}
+
+	/**
+	 * @param micros
+	 * @return the time in seconds with microsecond precision and without
+	 *         trailing zeros, e.g. 0.000125 or 2.5
+	 */
+	static String formatSeconds(long micros) {
+		StringBuilder time = new StringBuilder();
+		time.append(micros / 1000000).append('.');
+		String fraction = Long.toString(1000000 + micros % 1000000);
+		int end = fraction.length();
+		while (end > 2 && fraction.charAt(end - 1) == '0') {
+			--end;
+		}
+		return time.append(fraction, 1, end).toString();
+	}
+
+	/**
+	 * @param time
+	 *            time attribute in seconds, may be null
+	 * @return the time in µs, 0 if it is missing or malformed
+	 */
+	static long parseSeconds(String time) {
+		if (time == null) {
+			return 0;
+		}
+		try {
+			return new BigDecimal(time.trim()).movePointRight(6)
+					.setScale(0, RoundingMode.HALF_UP).longValue();
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param writer
+	 * @param metrics
+	 *            CPU time in ns (-1 if not supported), allocated bytes,
+	 *            allocation count, GC count, Java and native heap bytes
+	 * @throws XMLStreamException
+	 */
+	static void writeMetrics(XMLStreamWriter writer, long[] metrics)
+			throws XMLStreamException {
+		writer.writeStartElement("properties");
+		if (metrics[0] >= 0) {
+			// left out if the CPU time is not supported
+			writeProperty(writer, "cpuTime", formatSeconds(metrics[0] / 1000));
+		}
+		writeProperty(writer, "allocatedBytes", "" + metrics[1]);
+		writeProperty(writer, "allocationCount", "" + metrics[2]);
+		writeProperty(writer, "gcCount", "" + metrics[3]);
+		writeProperty(writer, "javaHeapBytes", "" + metrics[4]);
+		writeProperty(writer, "nativeHeapBytes", "" + metrics[5]);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * @param writer
+	 * @param reason
+	 *            may be null or empty
+	 * @throws XMLStreamException
+	 */
+	static void writeSkipped(XMLStreamWriter writer, String reason)
+			throws XMLStreamException {
+		writer.writeStartElement("skipped");
+		if (reason != null && reason.length() > 0) {
+			writer.writeAttribute("message", reason);
+		}
+		writer.writeEndElement();
+	}
+
+	/**
+	 * @param writer
+	 * @param error
+	 * @param previousAttempt
+	 *            true for a failure of an earlier attempt of the test
+	 * @param flaky
+	 *            true, if the test has passed after failed attempts
+	 * @param type
+	 * @param message
+	 * @param trace
+	 * @throws XMLStreamException
+	 */
+	static void writeFailure(XMLStreamWriter writer, boolean error,
+			boolean previousAttempt, boolean flaky, String type,
+			String message, String trace) throws XMLStreamException {
+		String tag;
+		if (!previousAttempt) {
+			tag = error ? "error" : "failure";
+		} else if (flaky) {
+			tag = error ? "flakyError" : "flakyFailure";
+		} else {
+			tag = error ? "rerunError" : "rerunFailure";
+		}
+		writer.writeStartElement(tag);
+		if (error) {
+			writer.writeAttribute("message", "" + message);
+			writer.writeAttribute("type", type);
+		}
+		writer.writeCharacters(trace);
+		writer.writeEndElement();
+	}
+
+	private static void writeProperty(XMLStreamWriter writer, String name,
+			String value) throws XMLStreamException {
+		writer.writeStartElement("property");
+		writer.writeAttribute("name", name);
+		writer.writeAttribute("value", value);
+		writer.writeEndElement();
+	}
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Merges any number of JUnit XML reports, e.g. of the shards of a run on
+ * several devices, into a single &lt;testsuites&gt; document.
+ *
+ * <pre>
+ * java -cp junit4android-tools.jar org.junit4android.tools.ReportMerger \
+ *     TEST-merged.xml reports/device1 reports/device2/TEST-com.example.AllTests.xml
+ * </pre>
+ *
+ * Directories are searched for TEST-*.xml files. The reports are read
+ * in the order of their paths with a streaming parser, twice: The first pass
+ * decides which test cases are kept, the second copies them to the merged
+ * report. So no report is ever loaded as a whole; only an entry per distinct
+ * test and per test suite is kept in memory.
+ * <p>
+ * Test cases with the same class and method name, e.g. from a rerun of the
+ * failed tests, are collapsed into one: A passed test case is preferred to a
+ * failed one, a failed one to a skipped one and, among equal ones, the one
+ * read last. Test suites with the same name, e.g. of the shards of a suite,
+ * are merged into one, written where the name appears first. The tests,
+ * errors, skipped and time attributes of each test suite are recomputed from
+ * the test cases kept. Suites left without test cases are dropped.
+ * <p>
+ * The second pass reads each report forward while the suites of the reports
+ * are in the same order. A report is only read again from its start if a
+ * suite is needed that lies before the one read last.
+ * <p>
+ * Failures written with a traceId attribute (see the option traceReferences)
+ * may only refer to a trace written by another test case, which may have
+ * been dropped or be written later. So the first pass also keeps the text of
+ * each distinct trace, and the second one writes it where the traceId
+ * appears first in the merged report and refers to that test case afterwards.
+ *
+ * @author Daniel Thommes
+ */
+public class ReportMerger {
+
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Start of the text of a failure referring to the trace of another one
+	 */
+	private static final String TRACE_REFERENCE = "Same stack trace as ";
+
+	private static final int SKIPPED = 0;
+	private static final int FAILED = 1;
+	private static final int PASSED = 2;
+
+	/**
+	 * The test case kept so far for a test
+	 */
+	private static class Winner {
+		int caseIndex;
+		int suiteIndex;
+		int state;
+		long durationMicros;
+	}
+
+	/**
+	 * A test case as read by the first pass
+	 */
+	private static class TestCase {
+		String key;
+		int state = PASSED;
+		long durationMicros;
+	}
+
+	/**
+	 * A test suite of a report as read by the first pass
+	 */
+	private static class Suite {
+		int reportIndex;
+		/**
+		 * Index of the suite among the suites of its report
+		 */
+		int ordinal;
+		/**
+		 * Index of the first test case of the suite
+		 */
+		int firstCaseIndex;
+		/**
+		 * Number of test cases of the suite that are kept
+		 */
+		int keptCount;
+	}
+
+	/**
+	 * The test suites with the same name, merged into one
+	 */
+	private static class SuiteGroup {
+		final List<Suite> suites = new ArrayList<Suite>();
+		/**
+		 * Tests, errors, skipped tests and duration in µs of the kept test
+		 * cases
+		 */
+		final long[] totals = new long[4];
+	}
+
+	/**
+	 * A report read by the second pass
+	 */
+	private class ReportCursor {
+		final InputStream stream;
+		final XMLStreamReader reader;
+		/**
+		 * Number of suites whose start has been read
+		 */
+		int suiteCount = 0;
+
+		ReportCursor(File report) throws IOException, XMLStreamException {
+			stream = new BufferedInputStream(new FileInputStream(report),
+					BUFFER_SIZE);
+			try {
+				reader = inputFactory.createXMLStreamReader(stream);
+			} catch (XMLStreamException e) {
+				stream.close();
+				throw e;
+			}
+		}
+
+		void close() throws IOException, XMLStreamException {
+			try {
+				reader.close();
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	private final List<File> reports;
+
+	/**
+	 * Kept test cases by class and method name, only used by the first pass
+	 */
+	private Map<String, Winner> winners = new HashMap<String, Winner>();
+	/**
+	 * Texts of the traces by traceId
+	 */
+	private final Map<String, String> traces = new HashMap<String, String>();
+	/**
+	 * Test written first with each traceId by traceId, only used by the
+	 * second pass
+	 */
+	private final Map<String, String> writtenTraces = new HashMap<String, String>();
+	/**
+	 * Indexes of the test cases kept, in the order they are read
+	 */
+	private final BitSet keptCases = new BitSet();
+	/**
+	 * Test suites by name in the order the names appear first
+	 */
+	private final Map<String, SuiteGroup> suiteGroups = new LinkedHashMap<String, SuiteGroup>();
+	/**
+	 * All test suites in the order they are read
+	 */
+	private final List<Suite> suites = new ArrayList<Suite>();
+	/**
+	 * Number of test suites of each report
+	 */
+	private int[] reportSuiteCounts;
+	private int caseCount = 0;
+	private int duplicateCount = 0;
+
+	/**
+	 * @param reports
+	 *            the reports, read in the order of their paths
+	 */
+	public ReportMerger(List<File> reports) {
+		this.reports = new ArrayList<File>(reports);
+		Collections.sort(this.reports);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ReportMerger <merged.xml> "
+					+ "<report or directory>...");
+			System.exit(2);
+		}
+		File output = new File(args[0]);
+		List<File> reports = new ArrayList<File>();
+		for (int i = 1; i < args.length; i++) {
+			File input = new File(args[i]);
+			if (input.isDirectory()) {
+				File[] files = input.listFiles();
+				Arrays.sort(files);
+				for (File file : files) {
+					String name = file.getName();
+					if (name.startsWith("TEST-") && name.endsWith(".xml")
+							&& !file.getAbsoluteFile().equals(
+									output.getAbsoluteFile())) {
+						reports.add(file);
+					}
+				}
+			} else {
+				reports.add(input);
+			}
+		}
+		ReportMerger merger = new ReportMerger(reports);
+		merger.merge(output);
+		System.out.println("Merged " + reports.size() + " reports with "
+				+ merger.keptCases.cardinality() + " tests into " + output
+				+ " (" + merger.duplicateCount + " duplicates collapsed)");
+	}
+
+	/**
+	 * Writes the merged report
+	 *
+	 * @param output
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 *             if a report is not well formed
+	 */
+	public void merge(File output) throws IOException, XMLStreamException {
+		caseCount = 0;
+		writtenTraces.clear();
+		reportSuiteCounts = new int[reports.size()];
+		for (int reportIndex = 0; reportIndex < reports.size(); reportIndex++) {
+			readReport(reportIndex);
+		}
+		Map<Suite, SuiteGroup> groupsBySuite = new HashMap<Suite, SuiteGroup>();
+		for (SuiteGroup group : suiteGroups.values()) {
+			for (Suite suite : group.suites) {
+				groupsBySuite.put(suite, group);
+			}
+		}
+		for (Winner winner : winners.values()) {
+			keptCases.set(winner.caseIndex);
+			Suite suite = suites.get(winner.suiteIndex);
+			++suite.keptCount;
+			long[] totals = groupsBySuite.get(suite).totals;
+			++totals[0];
+			if (winner.state == FAILED) {
+				++totals[1];
+			} else if (winner.state == SKIPPED) {
+				++totals[2];
+			}
+			totals[3] += winner.durationMicros;
+		}
+		winners = null;
+
+		ReportCursor[] cursors = new ReportCursor[reports.size()];
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(
+				output), BUFFER_SIZE);
+		try {
+			XMLStreamWriter writer = JunitXml.startDocument(stream);
+			writer.writeStartElement("testsuites");
+			for (Map.Entry<String, SuiteGroup> entry : suiteGroups.entrySet()) {
+				long[] totals = entry.getValue().totals;
+				if (totals[0] == 0) {
+					continue;
+				}
+				JunitXml.startTestSuite(writer, entry.getKey(),
+						(int) totals[0], (int) totals[1], (int) totals[2],
+						totals[3]);
+				for (Suite suite : entry.getValue().suites) {
+					if (suite.keptCount > 0) {
+						copySuite(suite, cursors, writer);
+					}
+				}
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} finally {
+			for (ReportCursor cursor : cursors) {
+				if (cursor != null) {
+					cursor.close();
+				}
+			}
+			stream.close();
+		}
+	}
+
+	/**
+	 * First pass: Reads the test cases of a report and decides which ones
+	 * are kept so far
+	 *
+	 * @param reportIndex
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void readReport(int reportIndex) throws IOException,
+			XMLStreamException {
+		InputStream stream = new BufferedInputStream(new FileInputStream(
+				reports.get(reportIndex)), BUFFER_SIZE);
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(stream);
+		try {
+			int suiteIndex = -1;
+			TestCase testCase = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("testsuite")) {
+						Suite suite = new Suite();
+						suite.reportIndex = reportIndex;
+						suite.ordinal = reportSuiteCounts[reportIndex]++;
+						suite.firstCaseIndex = caseCount;
+						String suiteName = reader.getAttributeValue(null,
+								"name");
+						SuiteGroup group = suiteGroups.get(suiteName);
+						if (group == null) {
+							group = new SuiteGroup();
+							suiteGroups.put(suiteName, group);
+						}
+						group.suites.add(suite);
+						suiteIndex = suites.size();
+						suites.add(suite);
+					} else if (name.equals("testcase") && suiteIndex >= 0) {
+						testCase = new TestCase();
+						testCase.key = reader.getAttributeValue(null,
+								"classname")
+								+ "#"
+								+ reader.getAttributeValue(null, "name");
+						testCase.durationMicros = JunitXml.parseSeconds(reader
+								.getAttributeValue(null, "time"));
+					} else if (testCase != null
+							&& (name.equals("failure") || name.equals("error"))) {
+						testCase.state = FAILED;
+					} else if (testCase != null && name.equals("skipped")
+							&& testCase.state == PASSED) {
+						testCase.state = SKIPPED;
+					}
+					String traceId = reader.getAttributeValue(null, "traceId");
+					if (traceId != null && !traces.containsKey(traceId)) {
+						// moves to the end of the element
+						String trace = reader.getElementText();
+						if (!trace.startsWith(TRACE_REFERENCE)) {
+							traces.put(traceId, trace);
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String name = reader.getLocalName();
+					if (name.equals("testcase") && testCase != null) {
+						addTestCase(testCase, suiteIndex);
+						testCase = null;
+					} else if (name.equals("testsuite")) {
+						suiteIndex = -1;
+					}
+				}
+			}
+		} finally {
+			reader.close();
+			stream.close();
+		}
+	}
+
+	private void addTestCase(TestCase testCase, int suiteIndex) {
+		int caseIndex = caseCount++;
+		Winner winner = winners.get(testCase.key);
+		if (winner == null) {
+			winner = new Winner();
+			winners.put(testCase.key, winner);
+		} else {
+			++duplicateCount;
+			if (testCase.state < winner.state) {
+				return;
+			}
+		}
+		winner.caseIndex = caseIndex;
+		winner.suiteIndex = suiteIndex;
+		winner.state = testCase.state;
+		winner.durationMicros = testCase.durationMicros;
+	}
+
+	/**
+	 * Second pass: Copies the kept test cases of a suite into the suite
+	 * being written
+	 *
+	 * @param suite
+	 * @param cursors
+	 *            the reports being read by report index, a report is opened
+	 *            when it is needed and closed after its last suite
+	 * @param writer
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	private void copySuite(Suite suite, ReportCursor[] cursors,
+			XMLStreamWriter writer) throws IOException, XMLStreamException {
+		ReportCursor cursor = cursors[suite.reportIndex];
+		if (cursor != null && cursor.suiteCount > suite.ordinal) {
+			// the suite has been passed already
+			cursors[suite.reportIndex] = null;
+			cursor.close();
+			cursor = null;
+		}
+		if (cursor == null) {
+			cursor = new ReportCursor(reports.get(suite.reportIndex));
+			cursors[suite.reportIndex] = cursor;
+		}
+		XMLStreamReader reader = cursor.reader;
+		while (cursor.suiteCount <= suite.ordinal) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT
+					&& reader.getLocalName().equals("testsuite")) {
+				++cursor.suiteCount;
+			}
+		}
+		int caseIndex = suite.firstCaseIndex;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT
+					&& reader.getLocalName().equals("testcase")) {
+				if (keptCases.get(caseIndex++)) {
+					copyTestCase(reader, writer);
+				} else {
+					skipElement(reader);
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT
+					&& reader.getLocalName().equals("testsuite")) {
+				break;
+			}
+		}
+		if (cursor.suiteCount == reportSuiteCounts[suite.reportIndex]) {
+			cursors[suite.reportIndex] = null;
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Copies the test case the reader is at with its content. The text of a
+	 * failure with a traceId is replaced by the trace, if the traceId is
+	 * written for the first time, otherwise by a reference to the test case
+	 * written first with it.
+	 *
+	 * @param reader
+	 * @param writer
+	 * @throws XMLStreamException
+	 */
+	private void copyTestCase(XMLStreamReader reader, XMLStreamWriter writer)
+			throws XMLStreamException {
+		// display name of the test, as referred to by JunitXmlWriter
+		String testName = reader.getAttributeValue(null, "name") + "("
+				+ reader.getAttributeValue(null, "classname") + ")";
+		int depth = 0;
+		do {
+			switch (reader.getEventType()) {
+			case XMLStreamConstants.START_ELEMENT:
+				writer.writeStartElement(reader.getLocalName());
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					writer.writeAttribute(reader.getAttributeLocalName(i),
+							reader.getAttributeValue(i));
+				}
+				String traceId = reader.getAttributeValue(null, "traceId");
+				if (traceId != null && traces.containsKey(traceId)) {
+					String firstTestName = writtenTraces.get(traceId);
+					if (firstTestName != null) {
+						writer.writeCharacters(TRACE_REFERENCE + firstTestName);
+					} else {
+						writtenTraces.put(traceId, testName);
+						writer.writeCharacters(traces.get(traceId));
+					}
+					skipElement(reader);
+					writer.writeEndElement();
+				} else {
+					++depth;
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				--depth;
+				writer.writeEndElement();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				writer.writeCharacters(reader.getTextCharacters(),
+						reader.getTextStart(), reader.getTextLength());
+				break;
+			}
+			if (depth > 0) {
+				reader.next();
+			}
+		} while (depth > 0);
+	}
+
+	private static void skipElement(XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			}
+		}
+	}
+}
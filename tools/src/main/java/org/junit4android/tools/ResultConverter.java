@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit4android.BinaryResultReader;
+
+/**
+ * Converts a binary result file written with the reportFormat option
+ * "binary" back to a JUnit XML report in the format of the runner's XML
+ * reports. Suites and test cases are converted one at a time, so files of any
+ * size are converted with little memory.
+ *
+ * <pre>
+ * java -cp junit4android-tools.jar org.junit4android.tools.ResultConverter \
+ *     [-perClass] TEST-com.example.AllTests.bin.gz [output]
+ * </pre>
+ *
+ * The output is the XML file to be written, by default the input file with
+ * the extension .xml, or the directory of the TEST-&lt;className&gt;.xml files
+ * written with -perClass.
+ *
+ * @author Daniel Thommes
+ */
+public class ResultConverter {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final boolean filePerClass;
+	private final File output;
+
+	private OutputStream stream;
+	private XMLStreamWriter writer;
+	private boolean suiteOpen = false;
+
+	/**
+	 * @param filePerClass
+	 *            true to write a file per test suite
+	 * @param output
+	 *            the XML file or, with a file per suite, the directory to be
+	 *            written
+	 */
+	public ResultConverter(boolean filePerClass, File output) {
+		this.filePerClass = filePerClass;
+		this.output = output;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean filePerClass = false;
+		int i = 0;
+		if (args.length > 0 && args[0].equals("-perClass")) {
+			filePerClass = true;
+			++i;
+		}
+		if (args.length - i < 1 || args.length - i > 2) {
+			System.err.println("Usage: ResultConverter [-perClass] "
+					+ "<results.bin.gz> [<output file or directory>]");
+			System.exit(2);
+		}
+		File input = new File(args[i]);
+		File output;
+		if (args.length - i == 2) {
+			output = new File(args[i + 1]);
+		} else if (filePerClass) {
+			output = input.getAbsoluteFile().getParentFile();
+		} else {
+			String name = input.getName();
+			if (name.endsWith(".bin.gz")) {
+				name = name.substring(0, name.length() - 7);
+			}
+			output = new File(input.getAbsoluteFile().getParentFile(), name
+					+ ".xml");
+		}
+		if (!new ResultConverter(filePerClass, output).convert(input)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param input
+	 *            the binary result file
+	 * @return true, if the file has been converted completely, false if it
+	 *         has been truncated, e.g. by a crash of the test run, and only
+	 *         its complete records have been converted
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public boolean convert(File input) throws IOException, XMLStreamException {
+		BinaryResultReader reader = new BinaryResultReader(new FileInputStream(
+				input));
+		boolean complete = true;
+		try {
+			if (!filePerClass) {
+				openDocument(output);
+				writer.writeStartElement("testsuites");
+			}
+			try {
+				int next;
+				while ((next = reader.next()) != BinaryResultReader.END) {
+					if (next == BinaryResultReader.SUITE) {
+						startSuite(reader.getSuite());
+					} else if (suiteOpen) {
+						writeTestCase(reader.getTestCase());
+					}
+				}
+			} catch (EOFException e) {
+				System.err.println("Warning: " + input
+						+ " is truncated, converted up to its last complete "
+						+ "test case");
+				complete = false;
+			}
+			endSuite();
+			if (!filePerClass) {
+				writer.writeEndElement();
+				closeDocument();
+			}
+		} finally {
+			reader.close();
+			if (stream != null) {
+				stream.close();
+			}
+		}
+		return complete;
+	}
+
+	private void startSuite(BinaryResultReader.Suite suite)
+			throws IOException, XMLStreamException {
+		endSuite();
+		if (filePerClass) {
+			output.mkdirs();
+			openDocument(new File(output, "TEST-" + suite.getName() + ".xml"));
+		}
+		JunitXml.startTestSuite(writer, suite.getName(), suite.getTests(),
+				suite.getErrors(), suite.getSkipped(),
+				suite.getDurationMicros());
+		suiteOpen = true;
+	}
+
+	private void endSuite() throws IOException, XMLStreamException {
+		if (!suiteOpen) {
+			return;
+		}
+		writer.writeEndElement();
+		suiteOpen = false;
+		if (filePerClass) {
+			closeDocument();
+		}
+	}
+
+	private void writeTestCase(BinaryResultReader.TestCase testCase)
+			throws XMLStreamException {
+		JunitXml.startTestCase(writer, testCase.getClassName(),
+				testCase.getMethodName(), testCase.getDurationMicros());
+		if (testCase.getMetrics() != null) {
+			JunitXml.writeMetrics(writer, testCase.getMetrics());
+		}
+		if (testCase.isIgnored()) {
+			JunitXml.writeSkipped(writer, testCase.getIgnoreReason());
+		}
+		for (BinaryResultReader.Failure failure : testCase.getFailures()) {
+			JunitXml.writeFailure(writer, failure.isError(),
+					failure.isPreviousAttempt(), testCase.isFlaky(),
+					failure.getType(), failure.getMessage(), failure.getTrace());
+		}
+		writer.writeEndElement();
+	}
+
+	private void openDocument(File file) throws IOException,
+			XMLStreamException {
+		stream = new BufferedOutputStream(new FileOutputStream(file),
+				BUFFER_SIZE);
+		writer = JunitXml.startDocument(stream);
+	}
+
+	private void closeDocument() throws IOException, XMLStreamException {
+		writer.writeEndDocument();
+		writer.close();
+		stream.close();
+		stream = null;
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Client of the runner's result stream (streamPort option). Connects to the
+ * port forwarded with <code>adb forward</code>, prints the progress of the
+ * run as the events arrive and writes a JUnit XML report when the run has
+ * finished.
+ *
+ * <pre>
+ * adb forward tcp:9090 tcp:9090
+ * java -cp junit4android-tools.jar org.junit4android.tools.ResultStreamClient \
+ *     9090 TEST-com.example.AllTests.xml
+ * </pre>
+ *
+ * The client waits up to a minute for the run to open the port. If the
+ * stream ends before the run has finished, the report contains the tests
+ * finished so far and the client exits with status 1.
+ *
+ * @author Daniel Thommes
+ */
+public class ResultStreamClient {
+
+	private static final long CONNECT_TIMEOUT_MS = 60000;
+	private static final long CONNECT_RETRY_MS = 500;
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * A finished or ignored test
+	 */
+	private static class TestRecord {
+		String methodName;
+		long durationMicros;
+		boolean ignored;
+		String ignoreReason;
+		boolean flaky;
+		final List<Map<String, Object>> failures = new ArrayList<Map<String, Object>>();
+
+		boolean hasFailures() {
+			for (Map<String, Object> failure : failures) {
+				if (!Boolean.TRUE.equals(failure.get("previousAttempt"))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final PrintStream progress;
+	/**
+	 * Finished tests by class name in the order their classes have started
+	 */
+	private final Map<String, List<TestRecord>> testsByClass = new LinkedHashMap<String, List<TestRecord>>();
+	/**
+	 * Failures of the running tests by test name
+	 */
+	private final Map<String, List<Map<String, Object>>> pendingFailures = new HashMap<String, List<Map<String, Object>>>();
+	private String runName;
+	private int testCount;
+	private int finishedCount = 0;
+	private int failedCount = 0;
+	private int ignoredCount = 0;
+	private boolean runFinished = false;
+	private boolean complete = false;
+
+	/**
+	 * @param progress
+	 *            stream the progress is printed to
+	 */
+	public ResultStreamClient(PrintStream progress) {
+		this.progress = progress;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ResultStreamClient <port> [<report.xml>]");
+			System.exit(2);
+		}
+		ResultStreamClient client = new ResultStreamClient(System.out);
+		client.receive(Integer.parseInt(args[0]));
+		File report = new File(args.length == 2 ? args[1] : "TEST-"
+				+ (client.runName != null ? client.runName : "results")
+				+ ".xml");
+		client.writeReport(report);
+		System.out.println("Report written to " + report);
+		if (!client.runFinished) {
+			System.err.println("Warning: the stream has ended before the run");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Receives the events of a run until it has finished or the stream ends
+	 *
+	 * @param port
+	 *            port on localhost
+	 * @throws IOException
+	 *             if the stream could not be received
+	 */
+	public void receive(int port) throws IOException {
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+		while (true) {
+			boolean received = false;
+			try {
+				Socket socket = new Socket("127.0.0.1", port);
+				try {
+					BufferedReader reader = new BufferedReader(
+							new InputStreamReader(socket.getInputStream(),
+									"UTF-8"), BUFFER_SIZE);
+					String line;
+					while ((line = reader.readLine()) != null) {
+						received = true;
+						handleEvent(Json.parseObject(line));
+						if (runFinished) {
+							return;
+						}
+					}
+				} finally {
+					socket.close();
+				}
+			} catch (ConnectException e) {
+				// the port is not forwarded yet
+			}
+			// adb accepts forwarded connections before the device does, so
+			// a connection closed without any event is tried again
+			if (received || System.currentTimeMillis() > deadline) {
+				return;
+			}
+			try {
+				Thread.sleep(CONNECT_RETRY_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the tests finished so far as JUnit XML
+	 *
+	 * @param report
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void writeReport(File report) throws IOException,
+			XMLStreamException {
+		OutputStream stream = new BufferedOutputStream(new FileOutputStream(
+				report), BUFFER_SIZE);
+		try {
+			XMLStreamWriter writer = JunitXml.startDocument(stream);
+			writer.writeStartElement("testsuites");
+			for (Map.Entry<String, List<TestRecord>> entry : testsByClass
+					.entrySet()) {
+				// classes whose tests have not finished are left out
+				if (!entry.getValue().isEmpty()) {
+					writeTestSuite(writer, entry.getKey(), entry.getValue());
+				}
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} finally {
+			stream.close();
+		}
+	}
+
+	private void handleEvent(Map<String, Object> event) {
+		String type = (String) event.get("event");
+		String className = (String) event.get("className");
+		String methodName = (String) event.get("methodName");
+		String testName = methodName + "(" + className + ")";
+		if ("runStarted".equals(type)) {
+			runName = (String) event.get("name");
+			testCount = ((Long) event.get("testCount")).intValue();
+			progress.println("Running " + runName + " (" + testCount
+					+ " tests)");
+		} else if ("testStarted".equals(type)) {
+			getTests(className);
+		} else if ("testFailure".equals(type)) {
+			List<Map<String, Object>> failures = pendingFailures.get(testName);
+			if (failures == null) {
+				failures = new ArrayList<Map<String, Object>>();
+				pendingFailures.put(testName, failures);
+			}
+			failures.add(event);
+		} else if ("testIgnored".equals(type)) {
+			TestRecord test = new TestRecord();
+			test.methodName = methodName;
+			test.ignored = true;
+			test.ignoreReason = (String) event.get("reason");
+			getTests(className).add(test);
+			++ignoredCount;
+			printProgress(testName, "IGNORED");
+		} else if ("testFinished".equals(type)) {
+			TestRecord test = new TestRecord();
+			test.methodName = methodName;
+			Long durationMicros = (Long) event.get("durationUs");
+			// runners before the µs field only send ms
+			test.durationMicros = durationMicros != null ? durationMicros
+					: (Long) event.get("durationMs") * 1000;
+			test.flaky = Boolean.TRUE.equals(event.get("flaky"));
+			List<Map<String, Object>> failures = pendingFailures
+					.remove(testName);
+			if (failures != null) {
+				test.failures.addAll(failures);
+			}
+			getTests(className).add(test);
+			String state = "passed";
+			if (test.hasFailures()) {
+				++failedCount;
+				state = "FAILED";
+			} else if (test.flaky) {
+				state = "passed (flaky)";
+			}
+			printProgress(testName, state + " (" + test.durationMicros / 1000
+					+ " ms)");
+		} else if ("eventsDropped".equals(type)) {
+			progress.println("Warning: " + event.get("count")
+					+ " events have been dropped by the runner");
+		} else if ("runFinished".equals(type)) {
+			runFinished = true;
+			complete = Boolean.TRUE.equals(event.get("complete"));
+			progress.println((complete ? "Finished: " : "Stopped: ")
+					+ finishedCount + " tests, " + failedCount + " failed, "
+					+ ignoredCount + " ignored");
+		}
+	}
+
+	private void printProgress(String testName, String state) {
+		++finishedCount;
+		progress.println("[" + finishedCount + "/" + testCount + "] "
+				+ testName + ": " + state);
+	}
+
+	private List<TestRecord> getTests(String className) {
+		List<TestRecord> tests = testsByClass.get(className);
+		if (tests == null) {
+			tests = new ArrayList<TestRecord>();
+			testsByClass.put(className, tests);
+		}
+		return tests;
+	}
+
+	private static void writeTestSuite(XMLStreamWriter writer,
+			String className, List<TestRecord> tests)
+			throws XMLStreamException {
+		int errors = 0;
+		int skipped = 0;
+		long duration = 0;
+		for (TestRecord test : tests) {
+			duration += test.durationMicros;
+			if (test.ignored) {
+				++skipped;
+			}
+			if (test.hasFailures()) {
+				++errors;
+			}
+		}
+		JunitXml.startTestSuite(writer, className, tests.size(), errors,
+				skipped, duration);
+		for (TestRecord test : tests) {
+			JunitXml.startTestCase(writer, className, test.methodName,
+					test.durationMicros);
+			if (test.ignored) {
+				JunitXml.writeSkipped(writer, test.ignoreReason);
+			}
+			for (Map<String, Object> failure : test.failures) {
+				JunitXml.writeFailure(writer,
+						Boolean.TRUE.equals(failure.get("error")),
+						Boolean.TRUE.equals(failure.get("previousAttempt")),
+						test.flaky, (String) failure.get("type"),
+						(String) failure.get("message"),
+						(String) failure.get("trace"));
+			}
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+	}
+}
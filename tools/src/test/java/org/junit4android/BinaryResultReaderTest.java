@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link BinaryResultReader} with files written by hand in the
+ * {@link BinaryResultFormat}
+ *
+ * @author Daniel Thommes
+ */
+public class BinaryResultReaderTest {
+
+	@Test
+	public void readsVersion2() throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		writeStrings(records, "com.example.FooTest", "testFoo",
+				"java.lang.AssertionError", "at Foo.testFoo(Foo.java:12)");
+		writeSuite(records, 1, 2, 1, 0, 1250);
+		// a failed test: 1250 µs, 80 µs overhead
+		ByteArrayOutputStream testCase = new ByteArrayOutputStream();
+		BinaryResultFormat.writeVarLong(testCase, 0);
+		BinaryResultFormat.writeVarLong(testCase, 1);
+		BinaryResultFormat.writeVarLong(testCase, 2);
+		BinaryResultFormat.writeVarLong(testCase, 1250);
+		BinaryResultFormat.writeVarLong(testCase, 80);
+		BinaryResultFormat.writeVarLong(testCase, 1);
+		BinaryResultFormat.writeVarLong(testCase,
+				BinaryResultFormat.FAILURE_ERROR);
+		BinaryResultFormat.writeVarLong(testCase, 3);
+		BinaryResultFormat.writeString(testCase, "expected:<1>");
+		BinaryResultFormat.writeVarLong(testCase, 4);
+		writeRecord(records, BinaryResultFormat.RECORD_TEST_CASE, testCase);
+		// an ignored test with metrics, the trace not in the string table
+		testCase = new ByteArrayOutputStream();
+		BinaryResultFormat.writeVarLong(testCase,
+				BinaryResultFormat.TEST_CASE_IGNORED
+						| BinaryResultFormat.TEST_CASE_METRICS);
+		BinaryResultFormat.writeVarLong(testCase, 1);
+		BinaryResultFormat.writeVarLong(testCase, 2);
+		BinaryResultFormat.writeVarLong(testCase, 0);
+		BinaryResultFormat.writeVarLong(testCase, 3);
+		BinaryResultFormat.writeString(testCase, "not yet");
+		for (int i = 1; i <= 6; i++) {
+			BinaryResultFormat.writeVarLong(testCase, i * 1000L);
+		}
+		BinaryResultFormat.writeVarLong(testCase, 1);
+		BinaryResultFormat.writeVarLong(testCase,
+				BinaryResultFormat.FAILURE_PREVIOUS_ATTEMPT);
+		BinaryResultFormat.writeVarLong(testCase, 3);
+		BinaryResultFormat.writeString(testCase, null);
+		BinaryResultFormat.writeVarLong(testCase, 0);
+		BinaryResultFormat.writeString(testCase, "inline trace");
+		writeRecord(records, BinaryResultFormat.RECORD_TEST_CASE, testCase);
+
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(compress(2, records)));
+		assertEquals(BinaryResultReader.SUITE, reader.next());
+		BinaryResultReader.Suite suite = reader.getSuite();
+		assertEquals("com.example.FooTest", suite.getName());
+		assertEquals(2, suite.getTests());
+		assertEquals(1, suite.getErrors());
+		assertEquals(0, suite.getSkipped());
+		assertEquals(1250, suite.getDurationMicros());
+
+		assertEquals(BinaryResultReader.TEST_CASE, reader.next());
+		BinaryResultReader.TestCase failed = reader.getTestCase();
+		assertEquals("com.example.FooTest", failed.getClassName());
+		assertEquals("testFoo", failed.getMethodName());
+		assertEquals(1250, failed.getDurationMicros());
+		assertEquals(80, failed.getOverheadMicros());
+		assertFalse(failed.isIgnored());
+		assertNull(failed.getMetrics());
+		assertTrue(failed.hasFailures());
+		BinaryResultReader.Failure failure = failed.getFailures().get(0);
+		assertTrue(failure.isError());
+		assertFalse(failure.isPreviousAttempt());
+		assertEquals("java.lang.AssertionError", failure.getType());
+		assertEquals("expected:<1>", failure.getMessage());
+		assertEquals("at Foo.testFoo(Foo.java:12)", failure.getTrace());
+
+		assertEquals(BinaryResultReader.TEST_CASE, reader.next());
+		BinaryResultReader.TestCase ignored = reader.getTestCase();
+		assertTrue(ignored.isIgnored());
+		assertEquals("not yet", ignored.getIgnoreReason());
+		assertEquals(3, ignored.getOverheadMicros());
+		assertTrue(Arrays.equals(new long[] { 1000, 2000, 3000, 4000, 5000,
+				6000 }, ignored.getMetrics()));
+		assertFalse(ignored.hasFailures());
+		failure = ignored.getFailures().get(0);
+		assertTrue(failure.isPreviousAttempt());
+		assertNull(failure.getMessage());
+		assertEquals("inline trace", failure.getTrace());
+
+		assertEquals(BinaryResultReader.END, reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void readsVersion1DurationsAsMicroseconds() throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		writeStrings(records, "com.example.FooTest", "testFoo");
+		writeSuite(records, 1, 1, 0, 0, 12);
+		// version 1 has no runner overhead
+		ByteArrayOutputStream testCase = new ByteArrayOutputStream();
+		BinaryResultFormat.writeVarLong(testCase, 0);
+		BinaryResultFormat.writeVarLong(testCase, 1);
+		BinaryResultFormat.writeVarLong(testCase, 2);
+		BinaryResultFormat.writeVarLong(testCase, 12);
+		BinaryResultFormat.writeVarLong(testCase, 0);
+		writeRecord(records, BinaryResultFormat.RECORD_TEST_CASE, testCase);
+
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(compress(1, records)));
+		assertEquals(BinaryResultReader.SUITE, reader.next());
+		assertEquals(12000, reader.getSuite().getDurationMicros());
+		assertEquals(BinaryResultReader.TEST_CASE, reader.next());
+		BinaryResultReader.TestCase passed = reader.getTestCase();
+		assertEquals("testFoo", passed.getMethodName());
+		assertEquals(12000, passed.getDurationMicros());
+		assertEquals(0, passed.getOverheadMicros());
+		assertTrue(passed.getFailures().isEmpty());
+		assertEquals(BinaryResultReader.END, reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void skipsRecordsOfLaterVersions() throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		writeRecord(records, 99, new ByteArrayOutputStream());
+		writeStrings(records, "Suite");
+		writeSuite(records, 1, 0, 0, 0, 0);
+
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(compress(2, records)));
+		assertEquals(BinaryResultReader.SUITE, reader.next());
+		assertEquals("Suite", reader.getSuite().getName());
+		reader.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsLaterVersions() throws Exception {
+		new BinaryResultReader(new ByteArrayInputStream(compress(
+				BinaryResultFormat.VERSION + 1, new ByteArrayOutputStream())));
+	}
+
+	@Test
+	public void readsATruncatedFileUpToTheLastCompleteRecord()
+			throws Exception {
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		writeStrings(records, "Suite");
+		writeSuite(records, 1, 3, 0, 0, 5);
+		ByteArrayOutputStream suite = new ByteArrayOutputStream();
+		BinaryResultFormat.writeVarLong(suite, 1);
+		BinaryResultFormat.writeVarLong(suite, 3);
+		records.write(BinaryResultFormat.RECORD_SUITE);
+		BinaryResultFormat.writeVarLong(records, 10);
+		records.write(suite.toByteArray());
+
+		BinaryResultReader reader = new BinaryResultReader(
+				new ByteArrayInputStream(compress(2, records)));
+		assertEquals(BinaryResultReader.SUITE, reader.next());
+		assertEquals(3, reader.getSuite().getTests());
+		try {
+			reader.next();
+			fail("The truncated record has been read");
+		} catch (EOFException e) {
+			// expected
+		}
+		reader.close();
+	}
+
+	private static void writeStrings(ByteArrayOutputStream records,
+			String... strings) throws IOException {
+		for (String string : strings) {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			payload.write(string.getBytes("UTF-8"));
+			writeRecord(records, BinaryResultFormat.RECORD_STRING, payload);
+		}
+	}
+
+	private static void writeSuite(ByteArrayOutputStream records, int name,
+			int tests, int errors, int skipped, long duration)
+			throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		BinaryResultFormat.writeVarLong(payload, name);
+		BinaryResultFormat.writeVarLong(payload, tests);
+		BinaryResultFormat.writeVarLong(payload, errors);
+		BinaryResultFormat.writeVarLong(payload, skipped);
+		BinaryResultFormat.writeVarLong(payload, duration);
+		writeRecord(records, BinaryResultFormat.RECORD_SUITE, payload);
+	}
+
+	private static void writeRecord(ByteArrayOutputStream records, int type,
+			ByteArrayOutputStream payload) throws IOException {
+		records.write(type);
+		BinaryResultFormat.writeVarLong(records, payload.size());
+		records.write(payload.toByteArray());
+	}
+
+	/**
+	 * @param version
+	 * @param records
+	 * @return the compressed file with the header of the given version
+	 * @throws IOException
+	 */
+	private static byte[] compress(int version, ByteArrayOutputStream records)
+			throws IOException {
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(file);
+		out.write(BinaryResultFormat.MAGIC);
+		BinaryResultFormat.writeVarLong(out, version);
+		out.write(records.toByteArray());
+		out.close();
+		return file.toByteArray();
+	}
+}
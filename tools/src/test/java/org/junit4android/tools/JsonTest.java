@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link Json} parser reading the events of the result stream
+ *
+ * @author Daniel Thommes
+ */
+public class JsonTest {
+
+	@Test
+	public void parsesAnEvent() {
+		Map<String, Object> event = Json.parseObject("{\"event\":"
+				+ "\"testFinished\",\"className\":\"com.example.FooTest\","
+				+ "\"methodName\":null,\"durationUs\":-12345,\"flaky\":true}");
+		assertEquals("testFinished", event.get("event"));
+		assertEquals("com.example.FooTest", event.get("className"));
+		assertTrue(event.containsKey("methodName"));
+		assertNull(event.get("methodName"));
+		assertEquals(Long.valueOf(-12345), event.get("durationUs"));
+		assertEquals(Boolean.TRUE, event.get("flaky"));
+	}
+
+	@Test
+	public void unescapesStrings() {
+		// as escaped by the runner's ResultStreamServer
+		Map<String, Object> event = Json.parseObject("{\"trace\":"
+				+ "\"say \\\"hi\\\"\\n\\tat C:\\\\Foo\\r\\u001f\\u00e4\"}");
+		assertEquals("say \"hi\"\n\tat C:\\Foo\r\u001f\u00e4",
+				event.get("trace"));
+	}
+
+	@Test
+	public void parsesAnEmptyObject() {
+		assertTrue(Json.parseObject(" { } ").isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnUnterminatedString() {
+		Json.parseObject("{\"message\":\"broken}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNestedValues() {
+		Json.parseObject("{\"a\":[1]}");
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests of the time attributes and metrics written and read by
+ * {@link JunitXml}
+ *
+ * @author Daniel Thommes
+ */
+public class JunitXmlTest {
+
+	@Test
+	public void formatsSecondsWithoutTrailingZeros() {
+		assertEquals("0.0", JunitXml.formatSeconds(0));
+		assertEquals("0.000125", JunitXml.formatSeconds(125));
+		assertEquals("0.001", JunitXml.formatSeconds(1000));
+		assertEquals("2.5", JunitXml.formatSeconds(2500000));
+		assertEquals("3600.000001", JunitXml.formatSeconds(3600000001L));
+	}
+
+	@Test
+	public void parsesSecondsToMicroseconds() {
+		assertEquals(125, JunitXml.parseSeconds("0.000125"));
+		assertEquals(2500000, JunitXml.parseSeconds("2.5"));
+		assertEquals(12000, JunitXml.parseSeconds(" 0.012 "));
+		// reports of other tools in ms precision or exponent notation
+		assertEquals(1000000, JunitXml.parseSeconds("1"));
+		assertEquals(1500, JunitXml.parseSeconds("1.5E-3"));
+		// rounded to µs
+		assertEquals(1, JunitXml.parseSeconds("0.0000005"));
+	}
+
+	@Test
+	public void parsesMissingOrMalformedSecondsAsZero() {
+		assertEquals(0, JunitXml.parseSeconds(null));
+		assertEquals(0, JunitXml.parseSeconds(""));
+		assertEquals(0, JunitXml.parseSeconds("1,5"));
+	}
+
+	@Test
+	public void roundTripsMicroseconds() {
+		for (long micros = 0; micros < 3000000; micros += 999) {
+			assertEquals(micros,
+					JunitXml.parseSeconds(JunitXml.formatSeconds(micros)));
+		}
+	}
+
+	@Test
+	public void writesTheCpuTimeInSeconds() throws Exception {
+		String xml = writeMetrics(12000, 1, 2, 3, 4, 5);
+		assertTrue(xml, xml.contains(
+				"<property name=\"cpuTime\" value=\"0.000012\""));
+		assertTrue(xml, xml.contains(
+				"<property name=\"nativeHeapBytes\" value=\"5\""));
+	}
+
+	@Test
+	public void leavesOutAnUnsupportedCpuTime() throws Exception {
+		String xml = writeMetrics(-1, 1, 2, 3, 4, 5);
+		assertFalse(xml, xml.contains("cpuTime"));
+		assertTrue(xml, xml.contains(
+				"<property name=\"allocatedBytes\" value=\"1\""));
+	}
+
+	private static String writeMetrics(long... metrics) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XMLStreamWriter writer = JunitXml.startDocument(out);
+		JunitXml.writeMetrics(writer, metrics);
+		writer.writeEndDocument();
+		writer.close();
+		return out.toString("UTF-8");
+	}
+}
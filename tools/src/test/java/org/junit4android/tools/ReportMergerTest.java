@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.junit4android.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests of the {@link ReportMerger}
+ *
+ * @author Daniel Thommes
+ */
+public class ReportMergerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void passedTestWinsOverFailedAndSkipped() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a\">"
+				+ "<error message=\"m\" type=\"E\">trace</error></testcase>"
+				+ "<testcase time=\"0.2\" classname=\"A\" name=\"b\"/>"
+				+ "<testcase time=\"0.3\" classname=\"A\" name=\"c\">"
+				+ "<skipped/></testcase></testsuite>");
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.4\" classname=\"A\" name=\"a\"/>"
+				+ "<testcase time=\"0.5\" classname=\"A\" name=\"b\">"
+				+ "<failure>trace</failure></testcase>"
+				+ "<testcase time=\"0.6\" classname=\"A\" name=\"c\">"
+				+ "<failure>trace</failure></testcase></testsuite>");
+
+		Document merged = merge(report1, report2);
+
+		List<Element> suites = getElements(merged, "testsuite");
+		assertEquals(1, suites.size());
+		assertSuite(suites.get(0), "A", 3, 1, 0, "1.2");
+		List<Element> testCases = getElements(merged, "testcase");
+		assertEquals(3, testCases.size());
+		// in the order they are read: b of the first report, then a and c
+		assertTestCase(testCases.get(0), "b", "0.2");
+		assertTestCase(testCases.get(1), "a", "0.4");
+		assertTestCase(testCases.get(2), "c", "0.6");
+		assertEquals(0, testCases.get(0).getChildNodes().getLength());
+		assertEquals(0, testCases.get(1).getChildNodes().getLength());
+		assertEquals("failure", ((Element) testCases.get(2).getFirstChild())
+				.getTagName());
+	}
+
+	@Test
+	public void equalTestCasesKeepTheLastOne() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a\"/>"
+				+ "</testsuite>");
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.25\" classname=\"A\" name=\"a\"/>"
+				+ "</testsuite>");
+
+		Document merged = merge(report2, report1);
+
+		// the reports are read in the order of their paths
+		List<Element> testCases = getElements(merged, "testcase");
+		assertEquals(1, testCases.size());
+		assertTestCase(testCases.get(0), "a", "0.25");
+		assertSuite(getElements(merged, "testsuite").get(0), "A", 1, 0, 0,
+				"0.25");
+	}
+
+	@Test
+	public void mergesSuitesOfTheSameName() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a1\"/>"
+				+ "</testsuite><testsuite name=\"B\">"
+				+ "<testcase time=\"0.2\" classname=\"B\" name=\"b1\"/>"
+				+ "</testsuite>");
+		// the suites in another order, so the report is read again
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"B\">"
+				+ "<testcase time=\"0.3\" classname=\"B\" name=\"b2\">"
+				+ "<skipped/></testcase></testsuite><testsuite name=\"A\">"
+				+ "<testcase time=\"0.4\" classname=\"A\" name=\"a2\"/>"
+				+ "</testsuite>");
+
+		Document merged = merge(report1, report2);
+
+		List<Element> suites = getElements(merged, "testsuite");
+		assertEquals(2, suites.size());
+		assertSuite(suites.get(0), "A", 2, 0, 0, "0.5");
+		assertSuite(suites.get(1), "B", 2, 0, 1, "0.5");
+		List<Element> testCases = getElements(merged, "testcase");
+		assertEquals(4, testCases.size());
+		assertTestCase(testCases.get(0), "a1", "0.1");
+		assertTestCase(testCases.get(1), "a2", "0.4");
+		assertTestCase(testCases.get(2), "b1", "0.2");
+		assertTestCase(testCases.get(3), "b2", "0.3");
+	}
+
+	@Test
+	public void dropsSuitesWithoutTestCases() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a\">"
+				+ "<failure>trace</failure></testcase></testsuite>"
+				+ "<testsuite name=\"Empty\"></testsuite>");
+		// the rerun of the failed test is reported under another suite
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"Rerun\">"
+				+ "<testcase time=\"0.2\" classname=\"A\" name=\"a\"/>"
+				+ "</testsuite>");
+
+		Document merged = merge(report1, report2);
+
+		List<Element> suites = getElements(merged, "testsuite");
+		assertEquals(1, suites.size());
+		assertSuite(suites.get(0), "Rerun", 1, 0, 0, "0.2");
+	}
+
+	@Test
+	public void copiesTheContentOfTestCases() throws Exception {
+		File report = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a\">"
+				+ "<properties><property name=\"gcCount\" value=\"2\"/>"
+				+ "</properties><error message=\"&lt;m&gt;\" type=\"E\">"
+				+ "at A.a(A.java:1) &amp; more</error></testcase>"
+				+ "</testsuite>");
+
+		Document merged = merge(report);
+
+		Element error = getElements(merged, "error").get(0);
+		assertEquals("<m>", error.getAttribute("message"));
+		assertEquals("at A.a(A.java:1) & more", error.getTextContent());
+		Element property = getElements(merged, "property").get(0);
+		assertEquals("gcCount", property.getAttribute("name"));
+		assertEquals("2", property.getAttribute("value"));
+		assertSuite(getElements(merged, "testsuite").get(0), "A", 1, 1, 0,
+				"0.1");
+	}
+
+	@Test
+	public void writesTheTraceOfADroppedTestCase() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a\">"
+				+ "<error message=\"m\" type=\"E\" traceId=\"t\">trace"
+				+ "</error></testcase>"
+				+ "<testcase time=\"0.2\" classname=\"A\" name=\"b\">"
+				+ "<error message=\"m\" type=\"E\" traceId=\"t\">"
+				+ "Same stack trace as a(A)</error></testcase></testsuite>");
+		// a passes on the rerun, so its trace is dropped
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.3\" classname=\"A\" name=\"a\"/>"
+				+ "</testsuite>");
+
+		Document merged = merge(report1, report2);
+
+		List<Element> errors = getElements(merged, "error");
+		assertEquals(1, errors.size());
+		assertEquals("t", errors.get(0).getAttribute("traceId"));
+		assertEquals("trace", errors.get(0).getTextContent());
+	}
+
+	@Test
+	public void refersToTheTraceWrittenFirst() throws Exception {
+		File report1 = writeReport("TEST-1.xml", "<testsuite name=\"A\">"
+				+ "<testcase time=\"0.1\" classname=\"A\" name=\"a1\"/>"
+				+ "</testsuite><testsuite name=\"B\">"
+				+ "<testcase time=\"0.2\" classname=\"B\" name=\"b1\">"
+				+ "<failure traceId=\"t\">trace</failure></testcase>"
+				+ "<testcase time=\"0.3\" classname=\"B\" name=\"b2\">"
+				+ "<failure traceId=\"t\">Same stack trace as b1(B)"
+				+ "</failure></testcase></testsuite>");
+		// the suite A of this report is merged ahead of the trace of b1
+		File report2 = writeReport("TEST-2.xml", "<testsuite name=\"B\">"
+				+ "<testcase time=\"0.4\" classname=\"B\" name=\"b3\">"
+				+ "<failure traceId=\"t\">trace</failure></testcase>"
+				+ "</testsuite><testsuite name=\"A\">"
+				+ "<testcase time=\"0.5\" classname=\"A\" name=\"a2\">"
+				+ "<failure traceId=\"t\">Same stack trace as b3(B)"
+				+ "</failure></testcase></testsuite>");
+
+		Document merged = merge(report1, report2);
+
+		List<Element> testCases = getElements(merged, "testcase");
+		assertEquals(5, testCases.size());
+		assertTestCase(testCases.get(1), "a2", "0.5");
+		List<Element> failures = getElements(merged, "failure");
+		assertEquals(4, failures.size());
+		assertEquals("trace", failures.get(0).getTextContent());
+		for (Element failure : failures.subList(1, 4)) {
+			assertEquals("t", failure.getAttribute("traceId"));
+			assertEquals("Same stack trace as a2(A)", failure.getTextContent());
+		}
+	}
+
+	private File writeReport(String name, String suites) throws IOException {
+		File report = new File(folder.getRoot(), name);
+		OutputStream out = new FileOutputStream(report);
+		try {
+			out.write(("<?xml version='1.0' encoding='UTF-8' ?><testsuites>"
+					+ suites + "</testsuites>").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return report;
+	}
+
+	private Document merge(File... reports) throws Exception {
+		File output = new File(folder.getRoot(), "merged.xml");
+		new ReportMerger(Arrays.asList(reports)).merge(output);
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+				.parse(output);
+	}
+
+	private static List<Element> getElements(Document document, String name) {
+		NodeList nodes = document.getElementsByTagName(name);
+		List<Element> elements = new ArrayList<Element>();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			elements.add((Element) nodes.item(i));
+		}
+		return elements;
+	}
+
+	private static void assertSuite(Element suite, String name, int tests,
+			int errors, int skipped, String time) {
+		assertEquals(name, suite.getAttribute("name"));
+		assertEquals("" + tests, suite.getAttribute("tests"));
+		assertEquals("" + errors, suite.getAttribute("errors"));
+		assertEquals("" + skipped, suite.getAttribute("skipped"));
+		assertEquals(time, suite.getAttribute("time"));
+	}
+
+	private static void assertTestCase(Element testCase, String name,
+			String time) {
+		assertEquals(name, testCase.getAttribute("name"));
+		assertEquals(time, testCase.getAttribute("time"));
+	}
+}